@@ -0,0 +1,314 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Validates sibling clusters against the ASN to organization mapping of a CAIDA as2org file.
+ * The organizations of the as2org file are interned to dense indices, and the clusters are compared to them
+ * in a single pass over their ASNs: the pairs of sibling ASNs that are in the same cluster and in the same
+ * organization give the pairwise precision and recall, the clusters with the ASNs of more than one organization
+ * are merges and the organizations whose ASNs are in more than one cluster are splits.
+ * Only the ASNs of the as2org file are compared, and the ASNs that are in no cluster are singletons.
+ */
+public class As2OrgValidator {
+
+    private static final Pattern AS2ORG_DATE = Pattern.compile("^(\\d{8})\\.as-org2info\\.txt(\\.gz)?$");
+
+    /**
+     * The agreement of a set of clusters with the as2org organizations
+     */
+    public static class Result {
+        // The sibling pairs of the clusters, of the organizations, and of both
+        public long predictedPairs = 0;
+        public long truePairs = 0;
+        public long commonPairs = 0;
+        public int clusters = 0;
+        // The ASNs of the clusters that are and are not in the as2org file
+        public int knownAsns = 0;
+        public int unknownAsns = 0;
+        // The clusters with the ASNs of more than one organization, and the organizations they merge
+        public int mergingClusters = 0;
+        public int mergedOrgs = 0;
+        // The organizations with ASNs in more than one cluster, and the clusters and singletons they are split into
+        public int splitOrgs = 0;
+        public int splitParts = 0;
+
+        /**
+         * @return double The fraction of the sibling pairs of the clusters that are in the same organization
+         */
+        public double precision() {
+            return predictedPairs > 0 ? (double) commonPairs / predictedPairs : 0;
+        }
+
+        /**
+         * @return double The fraction of the sibling pairs of the organizations that are in the same cluster
+         */
+        public double recall() {
+            return truePairs > 0 ? (double) commonPairs / truePairs : 0;
+        }
+
+        /**
+         * Adds the counts of the validation to the run metrics
+         * @param metrics The metrics of the run
+         */
+        public void reportMetrics(RunMetrics metrics) {
+            metrics.count("validation_predicted_pairs", predictedPairs);
+            metrics.count("validation_true_pairs", truePairs);
+            metrics.count("validation_common_pairs", commonPairs);
+            metrics.count("validation_merging_clusters", mergingClusters);
+            metrics.count("validation_split_orgs", splitOrgs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "precision %.4f, recall %.4f, %d of %d clusters merge %d organizations, "
+                            + "%d organizations split into %d parts, %d ASNs not in as2org", precision(), recall(),
+                    mergingClusters, clusters, mergedOrgs, splitOrgs, splitParts, unknownAsns);
+        }
+    }
+
+    private final StringTable orgIds = new StringTable();
+    private final IntIntHashMap asnOrg = new IntIntHashMap(1 << 17, -1);
+    private int[] orgSizes = new int[1024];
+    private long truePairs = 0;
+
+    /**
+     * Reads the ASN records of an as2org file, in the section that starts with a
+     * <code># format:aut|...|org_id|...</code> line, e.g. <code>aut|changed|aut_name|org_id|source</code>
+     * @param path The path of the as2org file, gzip-compressed if its name ends with .gz
+     * @return As2OrgValidator The validator of the organizations of the file
+     * @throws IOException When reading the file fails
+     */
+    public static As2OrgValidator read(Path path) throws IOException {
+        As2OrgValidator validator = new As2OrgValidator();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(path.toString().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(path), 65536) : Files.newInputStream(path),
+                StandardCharsets.UTF_8))) {
+            int orgColumn = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("# format:")) {
+                    List<String> columns = Arrays.asList(line.substring("# format:".length()).trim().split("\\|"));
+                    orgColumn = columns.get(0).equals("aut") ? columns.indexOf("org_id") : -1;
+                    continue;
+                }
+                if (orgColumn < 0 || line.startsWith("#"))
+                    continue;
+
+                String[] lf = line.split("\\|", -1);
+                if (lf.length <= orgColumn || lf[orgColumn].isEmpty())
+                    continue;
+                try {
+                    // ASNs above 2^31 are kept as negative ints, as in the clusters
+                    long asn = Long.parseLong(lf[0].trim());
+                    if (asn < 0 || asn > 0xFFFFFFFFL)
+                        throw new NumberFormatException();
+                    validator.add((int) asn, lf[orgColumn]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring malformed as2org record: " + line);
+                }
+            }
+        }
+
+        return validator;
+    }
+
+    /**
+     * Adds an ASN to an organization, an ASN that is already added keeps its first organization
+     * @param asn The ASN
+     * @param orgId The organization identifier of the ASN
+     */
+    public void add(int asn, String orgId) {
+        if (asnOrg.containsKey(asn))
+            return;
+
+        int org = orgIds.intern(orgId);
+        if (org == orgSizes.length)
+            orgSizes = Arrays.copyOf(orgSizes, org * 2);
+        truePairs += orgSizes[org]++;
+        asnOrg.put(asn, org);
+    }
+
+    /**
+     * @return int The number of ASNs of the as2org file
+     */
+    public int asnCount() {
+        return asnOrg.size();
+    }
+
+    /**
+     * @return int The number of organizations of the as2org file
+     */
+    public int orgCount() {
+        return orgIds.size();
+    }
+
+    /**
+     * Compares the clusters with the organizations, in time linear in the number of ASNs
+     * @param clusters The sibling clusters, an ASN in more than one cluster only counts in the first one
+     * @return Result The agreement of the clusters with the organizations
+     */
+    public Result validate(List<int[]> clusters) {
+        Result result = new Result();
+        result.truePairs = truePairs;
+        result.clusters = clusters.size();
+
+        int orgs = orgIds.size();
+        // The ASNs of each organization in the current cluster, and the organizations that have any
+        int[] counts = new int[orgs];
+        int[] touched = new int[16];
+        // The ASNs of each organization in any cluster, and the number of clusters with its ASNs
+        int[] covered = new int[orgs];
+        int[] parts = new int[orgs];
+        IntIntHashMap assigned = new IntIntHashMap(asnOrg.size(), -1);
+
+        for (int c = 0; c < clusters.size(); c++) {
+            int[] cluster = clusters.get(c);
+            if (touched.length < cluster.length)
+                touched = new int[cluster.length];
+            int touchedCount = 0;
+            long known = 0;
+            for (int asn: cluster) {
+                if (assigned.containsKey(asn))
+                    continue;
+                assigned.put(asn, c);
+                int org = asnOrg.get(asn);
+                if (org < 0) {
+                    result.unknownAsns++;
+                    continue;
+                }
+                known++;
+                if (counts[org]++ == 0)
+                    touched[touchedCount++] = org;
+            }
+
+            result.knownAsns += known;
+            result.predictedPairs += known * (known - 1) / 2;
+            for (int i = 0; i < touchedCount; i++) {
+                int org = touched[i];
+                long n = counts[org];
+                result.commonPairs += n * (n - 1) / 2;
+                covered[org] += counts[org];
+                parts[org]++;
+                counts[org] = 0;
+            }
+            if (touchedCount > 1) {
+                result.mergingClusters++;
+                result.mergedOrgs += touchedCount;
+            }
+        }
+
+        // The ASNs of an organization that are in no cluster are singletons
+        for (int org = 0; org < orgs; org++) {
+            int orgParts = parts[org] + orgSizes[org] - covered[org];
+            if (orgParts > 1) {
+                result.splitOrgs++;
+                result.splitParts += orgParts;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return int The date of an as2org file named yyyyMMdd.as-org2info.txt as yyyyMMdd, or -1 if its name has no date
+     */
+    static int as2orgDate(Path path) {
+        Matcher matcher = AS2ORG_DATE.matcher(path.getFileName().toString());
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Validates a batch of snapshots, each against the latest as2org file of its date or, for the snapshots
+     * before the first as2org file, against the first one. Each as2org file is read once.
+     * @param as2org The as2org file or a directory with as2org files named yyyyMMdd.as-org2info.txt[.gz]
+     * @param snapshots The snapshot file of each date
+     * @param report The writer of the report, one line per snapshot
+     * @return int The number of validated snapshots
+     * @throws IOException When reading a file or writing the report fails
+     */
+    public static int validateAll(Path as2org, TreeMap<Integer, Path> snapshots, Writer report) throws IOException {
+        TreeMap<Integer, Path> as2orgFiles = new TreeMap<>();
+        if (Files.isDirectory(as2org)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(as2org, "*.as-org2info.txt*")) {
+                for (Path file: stream) {
+                    int date = as2orgDate(file);
+                    if (date >= 0 && (!as2orgFiles.containsKey(date) || !file.toString().endsWith(".gz")))
+                        as2orgFiles.put(date, file);
+                }
+            }
+            if (as2orgFiles.isEmpty())
+                throw new FileNotFoundException("No as2org files in " + as2org);
+        }
+        else {
+            as2orgFiles.put(Math.max(0, as2orgDate(as2org)), as2org);
+        }
+
+        report.write("# date|as2org|clusters|known_asns|unknown_asns|predicted_pairs|true_pairs|common_pairs"
+                + "|precision|recall|merging_clusters|merged_orgs|split_orgs|split_parts\n");
+        Path loaded = null;
+        As2OrgValidator validator = null;
+        for (Map.Entry<Integer, Path> snapshot: snapshots.entrySet()) {
+            Map.Entry<Integer, Path> entry = as2orgFiles.floorEntry(snapshot.getKey());
+            Path file = entry != null ? entry.getValue() : as2orgFiles.firstEntry().getValue();
+            if (!file.equals(loaded)) {
+                validator = read(file);
+                loaded = file;
+            }
+
+            Result r = validator.validate(SiblingArchive.readSnapshot(snapshot.getValue()));
+            report.write(String.format(Locale.ROOT, "%d|%s|%d|%d|%d|%d|%d|%d|%.4f|%.4f|%d|%d|%d|%d%n",
+                    snapshot.getKey(), file.getFileName(), r.clusters, r.knownAsns, r.unknownAsns, r.predictedPairs,
+                    r.truePairs, r.commonPairs, r.precision(), r.recall(), r.mergingClusters, r.mergedOrgs,
+                    r.splitOrgs, r.splitParts));
+        }
+
+        return snapshots.size();
+    }
+
+    private static final String USAGE = "Usage: As2OrgValidator [--prefix SiblingASNs_] [--report <file>] "
+            + "<as2org file or directory> <snapshot file or directory> ...";
+
+    public static void main(String[] args) throws IOException {
+        String prefix = "SiblingASNs_";
+        Path reportFile = null;
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--prefix") && i + 1 < args.length)
+                prefix = args[++i];
+            else if (args[i].equals("--report") && i + 1 < args.length)
+                reportFile = Paths.get(args[++i]);
+            else
+                inputs.add(Paths.get(args[i]));
+        }
+        if (inputs.size() < 2) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        TreeMap<Integer, Path> snapshots = SiblingArchive.snapshotFiles(prefix, inputs.subList(1, inputs.size()), -1);
+        long start = System.nanoTime();
+        Writer report = new BufferedWriter(reportFile != null
+                ? new OutputStreamWriter(Files.newOutputStream(reportFile), StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            validateAll(inputs.get(0), snapshots, report);
+        } finally {
+            // The standard output is only flushed
+            if (reportFile != null)
+                report.close();
+            else
+                report.flush();
+        }
+        System.out.printf("Validated %d snapshots in %d ms%n", snapshots.size(), (System.nanoTime() - start) / 1000000);
+    }
+}
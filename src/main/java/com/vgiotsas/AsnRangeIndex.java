@@ -0,0 +1,146 @@
+package com.vgiotsas;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The organization of ranges of ASNs, such as the aut-num objects and the ARIN ASHandle ranges of a bulk WHOIS dump,
+ * without expanding the ranges into one entry per ASN: a reserved ARIN block of 95 million ASNs is a single range.
+ * After {@link #build()} the ranges are disjoint and sorted in primitive int arrays of their first ASN, last ASN and
+ * interned organization, and an ASN is looked up with a binary search. Where ranges overlap, the range added last
+ * takes precedence, as if the ranges were expanded in the order they were added.
+ */
+public class AsnRangeIndex {
+
+    private final StringTable orgs = new StringTable();
+    // The ranges in the order they were added, until the index is built
+    private long[] addedFirsts = new long[1024];
+    private long[] addedLasts = new long[1024];
+    private int[] addedOrgs = new int[1024];
+    private int added = 0;
+
+    // The disjoint ranges sorted by their first ASN, as unsigned 32-bit numbers
+    private int[] firsts = new int[0];
+    private int[] lasts = new int[0];
+    private int[] rangeOrgs = new int[0];
+    private int size = 0;
+    private long asnCount = 0;
+
+    /**
+     * Adds a range of ASNs
+     * @param first The first ASN of the range
+     * @param last The last ASN of the range, at most 2^32 - 1
+     * @param org The organization of the ASNs of the range
+     */
+    public void add(long first, long last, String org) {
+        if (first < 0 || last > 0xFFFFFFFFL || last < first)
+            throw new IllegalArgumentException("Invalid ASN range " + first + " - " + last);
+        if (added == addedFirsts.length) {
+            addedFirsts = Arrays.copyOf(addedFirsts, added * 2);
+            addedLasts = Arrays.copyOf(addedLasts, added * 2);
+            addedOrgs = Arrays.copyOf(addedOrgs, added * 2);
+        }
+        addedFirsts[added] = first;
+        addedLasts[added] = last;
+        addedOrgs[added] = orgs.intern(org);
+        added++;
+    }
+
+    /**
+     * Splits the added ranges into disjoint ranges at their boundaries, each with the organization of the last added
+     * range that covers it, with a sweep over the boundaries and a heap of the ranges that cover the current one
+     */
+    public void build() {
+        Integer[] byFirst = new Integer[added];
+        for (int i = 0; i < added; i++) {
+            byFirst[i] = i;
+        }
+        Arrays.sort(byFirst, (a, b) -> Long.compare(addedFirsts[a], addedFirsts[b]));
+        long[] boundaries = new long[2 * added];
+        for (int i = 0; i < added; i++) {
+            boundaries[2 * i] = addedFirsts[i];
+            boundaries[2 * i + 1] = addedLasts[i] + 1;
+        }
+        Arrays.sort(boundaries);
+
+        firsts = new int[2 * added];
+        lasts = new int[2 * added];
+        rangeOrgs = new int[2 * added];
+        size = 0;
+        asnCount = 0;
+        // The covering ranges, the last added first
+        PriorityQueue<Integer> covering = new PriorityQueue<>((a, b) -> Integer.compare(b, a));
+        int next = 0;
+        for (int b = 0; b < boundaries.length; b++) {
+            long start = boundaries[b];
+            if (b + 1 < boundaries.length && boundaries[b + 1] == start)
+                continue;
+            while (next < added && addedFirsts[byFirst[next]] == start)
+                covering.add(byFirst[next++]);
+            while (!covering.isEmpty() && addedLasts[covering.peek()] < start)
+                covering.poll();
+            if (covering.isEmpty() || b + 1 == boundaries.length)
+                continue;
+
+            long end = boundaries[b + 1] - 1;
+            int org = addedOrgs[covering.peek()];
+            // Adjacent ranges of the same organization are merged
+            if (size > 0 && rangeOrgs[size - 1] == org && Integer.toUnsignedLong(lasts[size - 1]) + 1 == start) {
+                lasts[size - 1] = (int) end;
+            }
+            else {
+                firsts[size] = (int) start;
+                lasts[size] = (int) end;
+                rangeOrgs[size] = org;
+                size++;
+            }
+            asnCount += end - start + 1;
+        }
+        firsts = Arrays.copyOf(firsts, size);
+        lasts = Arrays.copyOf(lasts, size);
+        rangeOrgs = Arrays.copyOf(rangeOrgs, size);
+
+        addedFirsts = new long[1024];
+        addedLasts = new long[1024];
+        addedOrgs = new int[1024];
+        added = 0;
+    }
+
+    /**
+     * @param asn The ASN, above 2^31 as a negative int
+     * @return String The organization of the range of the ASN, or null if no range contains it
+     */
+    public String get(int asn) {
+        long value = Integer.toUnsignedLong(asn);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.toUnsignedLong(firsts[mid]) > value) {
+                high = mid - 1;
+            }
+            else if (Integer.toUnsignedLong(lasts[mid]) < value) {
+                low = mid + 1;
+            }
+            else {
+                return orgs.get(rangeOrgs[mid]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return int The number of disjoint ranges of the built index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return long The number of ASNs in the ranges of the built index
+     */
+    public long asnCount() {
+        return asnCount;
+    }
+}
@@ -0,0 +1,90 @@
+package com.vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * ASNs are 32-bit unsigned numbers that are stored in an int, so the ASNs from 2^31 to 2^32 - 1 are negative ints.
+ * These helpers print, parse, compare and sort them as unsigned numbers, so that AS4294967295 is printed without
+ * a sign and sorts after AS1.
+ */
+public final class Asns {
+
+    public static final long MAX_ASN = 0xFFFFFFFFL;
+
+    private Asns() {
+    }
+
+    /**
+     * @return String The decimal ASN without a sign
+     */
+    public static String toString(int asn) {
+        return Integer.toUnsignedString(asn);
+    }
+
+    /**
+     * Parses an ASN such as "AS4200000000" or "4200000000"
+     * @param value The ASN with an optional "AS" prefix
+     * @return int The ASN as an int
+     * @throws NumberFormatException When the value is not a number from 0 to 2^32 - 1
+     */
+    public static int parse(String value) {
+        String digits = value.trim();
+        if (digits.length() > 2 && digits.regionMatches(true, 0, "AS", 0, 2))
+            digits = digits.substring(2);
+        return Integer.parseUnsignedInt(digits);
+    }
+
+    /**
+     * @return int A negative number, zero or a positive number as the first ASN is below, equal to or above the second
+     */
+    public static int compare(int a, int b) {
+        return Integer.compareUnsigned(a, b);
+    }
+
+    /**
+     * Sorts ASNs in unsigned order
+     * @param asns The ASNs to sort
+     */
+    public static void sort(int[] asns) {
+        sort(asns, 0, asns.length);
+    }
+
+    /**
+     * Sorts a range of ASNs in unsigned order. Flipping the sign bit maps the unsigned order to the signed order,
+     * so the range is sorted with the primitive sort and flipped back.
+     * @param asns The ASNs to sort
+     * @param from The first index of the range
+     * @param to The index after the range
+     */
+    public static void sort(int[] asns, int from, int to) {
+        for (int i = from; i < to; i++) {
+            asns[i] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(asns, from, to);
+        for (int i = from; i < to; i++) {
+            asns[i] ^= Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @param asns ASNs sorted in unsigned order
+     * @param asn The ASN to look up
+     * @return int The index of the ASN, or a negative number if it is not in the array
+     */
+    public static int binarySearch(int[] asns, int asn) {
+        int low = 0;
+        int high = asns.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = Integer.compareUnsigned(asns[middle], asn);
+            if (order < 0)
+                low = middle + 1;
+            else if (order > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,337 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Regenerates the sibling clusters of a range of past dates from an archive of the upstream datasets,
+ * writing SiblingASNs_&lt;date&gt;.txt and SiblingASNs_&lt;date&gt;.sibs dated by the date of the data.
+ * The dataset of a URL on a date is looked up in the archive root as:
+ * <ul>
+ * <li><code>&lt;root&gt;/&lt;yyyyMMdd&gt;/&lt;file&gt;[.gz]</code>, where the file is named as in the snapshot directory,
+ * e.g. <code>www.peeringdb.com_api_net</code>, so that the snapshot directory of a day can be archived as is</li>
+ * <li><code>&lt;root&gt;/&lt;rir&gt;/[&lt;yyyy&gt;/]delegated-&lt;rir&gt;-extended-&lt;yyyyMMdd&gt;[.gz]</code> for the
+ * delegation files, as in the archives of the RIRs</li>
+ * </ul>
+ * A dataset that is not archived on a date is taken from the latest earlier date it is archived on.
+ * <p>
+ * The dates are processed in parallel on a bounded worker pool. The parsed delegation files, organization
+ * names and IPv6 launch lists are shared between the dates whose files have the same content, and a date whose
+ * datasets are all identical to those of another date reuses its clusters. WHOIS only provides the current
+ * organizations of the ASNs, so the backfill does not resolve them.
+ */
+public class Backfill {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final int BUFFER_SIZE = 1 << 16;
+    // The parsed datasets and the clusters of the dates kept for reuse, per worker
+    private static final int PARSED_PER_WORKER = 16;
+    private static final int DATES_PER_WORKER = 2;
+
+    /**
+     * The clusters of a date and the Opaque IDs of their ASNs
+     */
+    private static class DateResult {
+        private final List<int[]> clusters;
+        private final OpaqueIdGroups opaqueIds;
+
+        DateResult(List<int[]> clusters, OpaqueIdGroups opaqueIds) {
+            this.clusters = clusters;
+            this.opaqueIds = opaqueIds;
+        }
+    }
+
+    /**
+     * Computes a value shared by the dates with the same key, the least recently used values are discarded
+     */
+    private static class SharedResults<T> {
+        private final Map<String, CompletableFuture<T>> results;
+
+        SharedResults(int capacity) {
+            results = new LinkedHashMap<String, CompletableFuture<T>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<T>> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * @param key The key of the value, e.g. the digest of a file
+         * @param compute Computes the value if no other date has computed it or is computing it
+         * @return T The value
+         * @throws Exception When the computation fails
+         */
+        T get(String key, Callable<T> compute) throws Exception {
+            CompletableFuture<T> result;
+            boolean owner = false;
+            synchronized (results) {
+                result = results.get(key);
+                if (result == null) {
+                    result = new CompletableFuture<>();
+                    results.put(key, result);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                try {
+                    result.complete(compute.call());
+                } catch (Exception e) {
+                    synchronized (results) {
+                        results.remove(key);
+                    }
+                    result.completeExceptionally(e);
+                }
+            }
+
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    private final CollectorOptions options;
+    private final Path root;
+    private final SharedResults<Object> parsed;
+    private final SharedResults<DateResult> dates;
+
+    /**
+     * @param options The options of the collector, with the archive root and the range of dates
+     */
+    public Backfill(CollectorOptions options) {
+        this.options = options;
+        this.root = options.getArchiveRoot();
+        this.parsed = new SharedResults<>(PARSED_PER_WORKER * options.getBackfillThreads());
+        this.dates = new SharedResults<>(DATES_PER_WORKER * options.getBackfillThreads());
+    }
+
+    /**
+     * Processes the dates of the range in parallel
+     * @return int The number of dates that failed, e.g. because a dataset is not archived
+     * @throws InterruptedException When the backfill is interrupted
+     */
+    public int run() throws InterruptedException {
+        LocalDate from = LocalDate.parse(String.valueOf(options.getBackfillFrom()), DATE_FORMAT);
+        LocalDate to = LocalDate.parse(String.valueOf(options.getBackfillTo()), DATE_FORMAT);
+        ExecutorService workers = Executors.newFixedThreadPool(options.getBackfillThreads());
+        Map<String, Future<String>> results = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            String day = date.format(DATE_FORMAT);
+            results.put(day, workers.submit(() -> backfill(day)));
+        }
+        workers.shutdown();
+
+        int failed = 0;
+        for (Map.Entry<String, Future<String>> result: results.entrySet()) {
+            try {
+                System.out.println(result.getKey() + ": " + result.getValue().get());
+            } catch (ExecutionException e) {
+                failed++;
+                System.out.println(result.getKey() + ": failed, " + e.getCause().getMessage());
+            }
+        }
+        System.out.printf("Backfilled %d of %d dates in %d ms with %d workers%n", results.size() - failed,
+                results.size(), (System.nanoTime() - start) / 1000000, options.getBackfillThreads());
+
+        return failed;
+    }
+
+    /**
+     * Regenerates the clusters of a date
+     * @param date The date as yyyyMMdd
+     * @return String The summary of the date
+     * @throws Exception When a dataset is missing or cannot be parsed, or the output cannot be written
+     */
+    private String backfill(String date) throws Exception {
+        List<String> urls = new ArrayList<>(Arrays.asList(SiblingASCollector.PDB_ORG_URL,
+                SiblingASCollector.PDB_NET_URL, SiblingASCollector.V6_DAY_URL));
+        urls.addAll(Arrays.asList(SiblingASCollector.RIR_URLS));
+        Map<String, Path> files = new HashMap<>();
+        Map<String, String> digests = new HashMap<>();
+        StringBuilder fingerprint = new StringBuilder();
+        for (String url: urls) {
+            Path file = datasetFile(url, date);
+            files.put(url, file);
+            digests.put(url, digest(file));
+            fingerprint.append(digests.get(url)).append(' ');
+        }
+
+        boolean[] collected = {false};
+        DateResult result = dates.get(fingerprint.toString(), () -> {
+            collected[0] = true;
+            return collect(files, digests, date);
+        });
+
+        Path siblingsFile = Paths.get(TextOutput.fileName("SiblingASNs_" + date + ".txt", options.isGzip()));
+        TextOutput.writeClusters(siblingsFile, result.clusters, options.isGzip(), ForkJoinPool.commonPool());
+        SiblingSnapshot.write(Paths.get("SiblingASNs_" + date + ".sibs"), result.clusters, asn -> null,
+                result.opaqueIds::opaqueIdOf);
+
+        return result.clusters.size() + " clusters" + (collected[0] ? "" : ", same datasets as another date");
+    }
+
+    /**
+     * Parses the datasets of a date, reusing the datasets parsed for other dates with the same content
+     */
+    private DateResult collect(Map<String, Path> files, Map<String, String> digests, String date) throws Exception {
+        boolean evidence = options.getBridgeCutSize() > 0;
+        SiblingASCollector parser = new SiblingASCollector(evidence, options.getUrlFanOutCap());
+
+        @SuppressWarnings("unchecked")
+        HashMap<String, Integer> orgNameToId = (HashMap<String, Integer>) parsed.get(
+                "org " + digests.get(SiblingASCollector.PDB_ORG_URL), () -> {
+                    try (Reader in = reader(files.get(SiblingASCollector.PDB_ORG_URL))) {
+                        return parser.parsePdbOrgData(new PdbJsonReader(in, SiblingASCollector.PDB_ORG_FIELDS));
+                    }
+                });
+        // The networks are parsed for every date, their evidence depends on the organizations
+        try (Reader in = reader(files.get(SiblingASCollector.PDB_NET_URL))) {
+            parser.parsePdbData(new PdbJsonReader(in, SiblingASCollector.PDB_NET_FIELDS), orgNameToId);
+        }
+        @SuppressWarnings("unchecked")
+        List<String> v6Lines = (List<String>) parsed.get("v6 " + digests.get(SiblingASCollector.V6_DAY_URL), () -> {
+            try (InputStream in = open(files.get(SiblingASCollector.V6_DAY_URL))) {
+                return SiblingASCollector.readLines(in);
+            }
+        });
+        parser.parseV6DayData(v6Lines);
+        for (int rir = 0; rir < SiblingASCollector.RIR_URLS.length; rir++) {
+            String url = SiblingASCollector.RIR_URLS[rir];
+            DelegationParser.Result records = (DelegationParser.Result) parsed.get("rir " + digests.get(url),
+                    () -> DelegationParser.parse(files.get(url), ForkJoinPool.commonPool(), false));
+            parser.addDelegations(records, rir);
+        }
+
+        parser.getOpaqueIdGroups().build();
+        List<int[]> clusters = evidence ? parser.cutBridges(options.getBridgeCutSize(), date)
+                : parser.getClusters().getClusters(2);
+
+        return new DateResult(clusters, parser.getOpaqueIdGroups());
+    }
+
+    /**
+     * Finds the archived dataset of a URL on a date, or on the latest earlier date it is archived on
+     * @param url The URL of the dataset
+     * @param date The date as yyyyMMdd
+     * @return Path The archived file
+     * @throws FileNotFoundException When the dataset is not archived on or before the date
+     */
+    Path datasetFile(String url, String date) throws IOException {
+        Path file = archivedFile(url, date);
+        if (file != null)
+            return file;
+
+        // The dated directories and files sort by date
+        TreeSet<String> earlier = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path entry: stream) {
+                String name = entry.getFileName().toString();
+                if (name.matches("\\d{8}") && name.compareTo(date) < 0)
+                    earlier.add(name);
+            }
+        }
+        String rir = rirName(url);
+        if (rir != null && Files.isDirectory(root.resolve(rir))) {
+            for (Path dir: Arrays.asList(root.resolve(rir), root.resolve(rir).resolve(date.substring(0, 4)))) {
+                if (!Files.isDirectory(dir))
+                    continue;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "delegated-" + rir + "-extended-*")) {
+                    for (Path entry: stream) {
+                        String day = entry.getFileName().toString().replaceAll("^.*-(\\d{8})(\\.gz)?$", "$1");
+                        if (day.matches("\\d{8}") && day.compareTo(date) < 0)
+                            earlier.add(day);
+                    }
+                }
+            }
+        }
+        for (String day: earlier.descendingSet()) {
+            file = archivedFile(url, day);
+            if (file != null) {
+                System.out.println(date + ": using " + file + " of " + day + " for " + SourceFetcher.sourceName(url));
+                return file;
+            }
+        }
+
+        throw new FileNotFoundException("Dataset not archived on or before " + date + ": " + url);
+    }
+
+    /**
+     * @return Path The archived dataset of a URL on the date, or null if it is not archived on the date
+     */
+    private Path archivedFile(String url, String date) {
+        List<Path> candidates = new ArrayList<>();
+        candidates.add(root.resolve(date).resolve(SnapshotCache.fileName(url)));
+        String rir = rirName(url);
+        if (rir != null) {
+            String name = "delegated-" + rir + "-extended-" + date;
+            candidates.add(root.resolve(rir).resolve(name));
+            candidates.add(root.resolve(rir).resolve(date.substring(0, 4)).resolve(name));
+        }
+        for (Path candidate: candidates) {
+            if (Files.isRegularFile(candidate))
+                return candidate;
+            Path gzip = Paths.get(candidate + ".gz");
+            if (Files.isRegularFile(gzip))
+                return gzip;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return String The name of the RIR of a delegation file URL, or null for the other datasets
+     */
+    private static String rirName(String url) {
+        int rir = Arrays.asList(SiblingASCollector.RIR_URLS).indexOf(url);
+        return rir >= 0 ? SiblingASCollector.RIR_NAMES[rir] : null;
+    }
+
+    /**
+     * @return String The SHA-256 digest of the content of a file, uncompressed if it is gzip-compressed
+     */
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = open(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b: digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        return file.toString().endsWith(".gz") ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    private static Reader reader(Path file) throws IOException {
+        return new InputStreamReader(open(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,382 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Finds the bridges and articulation points of the evidence graph of the sibling clusters, to break the giant
+ * clusters that a single shared website, looking glass or reused aka chains together.
+ * The graph has a node for every ASN and for every evidence key (e.g. an organization ID or a website domain),
+ * with an edge from each key to every ASN reported with it, and the edges between two ASNs of the sources
+ * without keys. A bridge is an edge whose removal splits its cluster, and it is scored by the ASNs on each side.
+ * The bridges and articulation points are found with an iterative Tarjan depth-first search in linear time,
+ * over the edges recorded by a {@link SiblingClusters} with provenance.
+ * <p>
+ * In the clusters with more than a maximum size, the bridges of the low-confidence sources are cut,
+ * and the clusters are the connected components of the remaining graph.
+ */
+public class BridgeAnalysis {
+
+    // The sources whose bridges are cut, the other sources are assigned by the registries or the operators
+    static final EnumSet<SiblingClusters.Evidence> LOW_CONFIDENCE = EnumSet.of(SiblingClusters.Evidence.AKA,
+            SiblingClusters.Evidence.WEBSITE, SiblingClusters.Evidence.LOOKING_GLASS);
+
+    private final SiblingClusters clusters;
+    // ASN nodes are the dense indices of the clusters, followed by the key nodes
+    private final int asnNodes;
+    private int nodes;
+    // The end nodes, the source and the recorded edge of each graph edge
+    private int[] from;
+    private int[] to;
+    private byte[] sources;
+    private int[] evidence;
+    private int edges = 0;
+    // The edges of each node, as edge IDs in a compressed adjacency array
+    private final int[] offsets;
+    private final int[] adjacency;
+
+    // The results of the depth-first search
+    private final int[] component;
+    private final int[] subtreeAsns;
+    private final int[] childNode;
+    private final boolean[] bridge;
+    private final int[] pieces;
+
+    /**
+     * Builds the evidence graph and finds its bridges and articulation points
+     * @param clusters The clusters, with provenance enabled
+     * @throws IllegalStateException When provenance is not enabled
+     */
+    public BridgeAnalysis(SiblingClusters clusters) {
+        this.clusters = clusters;
+        this.asnNodes = clusters.size();
+        int recorded = clusters.edgeCount();
+        if (!clusters.isProvenance())
+            throw new IllegalStateException("Provenance is not recorded");
+
+        // Each recorded edge adds at most two graph edges, an edge to the key and the edge from the anchor of
+        // the key. The same pair of nodes is only linked once, repeated evidence of a key is not independent.
+        from = new int[recorded + 16];
+        to = new int[recorded + 16];
+        sources = new byte[recorded + 16];
+        evidence = new int[recorded + 16];
+        nodes = asnNodes;
+        LongIntHashMap keyNodes = new LongIntHashMap(-1);
+        LongIntHashMap linked = new LongIntHashMap(recorded * 2, -1);
+        for (int e = 0; e < recorded; e++) {
+            long indices = clusters.edgeIndices(e);
+            int anchor = (int) (indices >>> 32);
+            int index = (int) indices;
+            int key = clusters.edgeKey(e);
+            SiblingClusters.Evidence source = clusters.edgeSource(e);
+            if (key < 0) {
+                addEdge(anchor, index, source, e, linked);
+                continue;
+            }
+            long keySpaceKey = ((long) SiblingClusters.keySpace(source) << 32) | (key & 0xFFFFFFFFL);
+            int keyNode = keyNodes.putIfAbsent(keySpaceKey, nodes);
+            if (keyNode < 0) {
+                keyNode = nodes++;
+                addEdge(anchor, keyNode, clusters.anchorSource(e), e, linked);
+            }
+            addEdge(index, keyNode, source, e, linked);
+        }
+
+        offsets = new int[nodes + 1];
+        for (int e = 0; e < edges; e++) {
+            offsets[from[e] + 1]++;
+            offsets[to[e] + 1]++;
+        }
+        for (int n = 0; n < nodes; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        adjacency = new int[2 * edges];
+        int[] next = Arrays.copyOf(offsets, nodes);
+        for (int e = 0; e < edges; e++) {
+            adjacency[next[from[e]]++] = e;
+            adjacency[next[to[e]]++] = e;
+        }
+
+        component = new int[nodes];
+        subtreeAsns = new int[nodes];
+        childNode = new int[edges];
+        bridge = new boolean[edges];
+        pieces = new int[nodes];
+        search();
+    }
+
+    private void addEdge(int a, int b, SiblingClusters.Evidence source, int recordedEdge, LongIntHashMap linked) {
+        long pair = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        if (a == b || linked.putIfAbsent(pair, edges) >= 0)
+            return;
+
+        if (edges == from.length) {
+            from = Arrays.copyOf(from, edges * 2);
+            to = Arrays.copyOf(to, edges * 2);
+            sources = Arrays.copyOf(sources, edges * 2);
+            evidence = Arrays.copyOf(evidence, edges * 2);
+        }
+        from[edges] = a;
+        to[edges] = b;
+        sources[edges] = (byte) source.ordinal();
+        evidence[edges] = recordedEdge;
+        edges++;
+    }
+
+    /**
+     * The iterative Tarjan search: the discovery time and the lowest discovery time reachable from the subtree of
+     * each node give the bridges (low[child] &gt; disc[parent]) and the articulation points (low[child] &gt;=
+     * disc[parent]), and the ASNs of each subtree give the side of each bridge
+     */
+    private void search() {
+        int[] disc = new int[nodes];
+        int[] low = new int[nodes];
+        int[] parentEdge = new int[nodes];
+        int[] cursor = new int[nodes];
+        int[] stack = new int[nodes];
+        Arrays.fill(disc, -1);
+        int time = 0;
+
+        for (int root = 0; root < nodes; root++) {
+            if (disc[root] >= 0)
+                continue;
+            int sp = 0;
+            stack[sp++] = root;
+            disc[root] = low[root] = time++;
+            parentEdge[root] = -1;
+            cursor[root] = offsets[root];
+            subtreeAsns[root] = root < asnNodes ? 1 : 0;
+            int rootChildren = 0;
+
+            while (sp > 0) {
+                int u = stack[sp - 1];
+                if (cursor[u] < offsets[u + 1]) {
+                    int e = adjacency[cursor[u]++];
+                    if (e == parentEdge[u])
+                        continue;
+                    int v = from[e] == u ? to[e] : from[e];
+                    if (disc[v] < 0) {
+                        disc[v] = low[v] = time++;
+                        parentEdge[v] = e;
+                        childNode[e] = v;
+                        cursor[v] = offsets[v];
+                        subtreeAsns[v] = v < asnNodes ? 1 : 0;
+                        stack[sp++] = v;
+                    }
+                    else {
+                        low[u] = Math.min(low[u], disc[v]);
+                    }
+                    continue;
+                }
+
+                sp--;
+                component[u] = root;
+                if (sp == 0)
+                    break;
+                int p = stack[sp - 1];
+                low[p] = Math.min(low[p], low[u]);
+                subtreeAsns[p] += subtreeAsns[u];
+                if (low[u] > disc[p])
+                    bridge[parentEdge[u]] = true;
+                if (p == root)
+                    rootChildren++;
+                else if (low[u] >= disc[p])
+                    pieces[p]++;
+            }
+            pieces[root] = rootChildren > 1 ? rootChildren : 0;
+        }
+        // Removing an articulation point leaves the pieces of its children that cannot reach above it,
+        // and the rest of the graph unless it is the root
+        for (int n = 0; n < nodes; n++) {
+            if (pieces[n] > 0 && component[n] != n)
+                pieces[n]++;
+        }
+    }
+
+    /**
+     * @return int The number of ASNs of the cluster of a node
+     */
+    private int clusterSize(int node) {
+        return subtreeAsns[component[node]];
+    }
+
+    /**
+     * @return int The number of bridges of the evidence graph
+     */
+    public int bridgeCount() {
+        int count = 0;
+        for (int e = 0; e < edges; e++) {
+            if (bridge[e])
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return int The number of articulation points of the evidence graph
+     */
+    public int articulationCount() {
+        int count = 0;
+        for (int n = 0; n < nodes; n++) {
+            if (pieces[n] > 0)
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param e A bridge
+     * @return int The number of ASNs that the bridge adds to the cluster of the larger side, the smaller side
+     */
+    private int contribution(int e) {
+        int side = subtreeAsns[childNode[e]];
+        return Math.min(side, clusterSize(childNode[e]) - side);
+    }
+
+    /**
+     * @param maxSize The maximum size of a cluster whose low-confidence bridges are kept
+     * @return boolean[] The edges that are cut
+     */
+    private boolean[] cutEdges(int maxSize) {
+        boolean[] cut = new boolean[edges];
+        for (int e = 0; e < edges; e++) {
+            cut[e] = bridge[e] && clusterSize(from[e]) > maxSize
+                    && LOW_CONFIDENCE.contains(source(e));
+        }
+
+        return cut;
+    }
+
+    /**
+     * Returns the clusters after the low-confidence bridges of the clusters above a size are cut
+     * @param maxSize The maximum size of a cluster whose low-confidence bridges are kept
+     * @param minSize The minimum number of ASNs in a returned cluster
+     * @return List<int[]> The clusters ordered by their smallest ASN, each as a sorted array of ASNs
+     */
+    public List<int[]> getClusters(int maxSize, int minSize) {
+        boolean[] cut = cutEdges(maxSize);
+
+        // Label the connected components of the remaining graph
+        int[] label = new int[nodes];
+        Arrays.fill(label, -1);
+        int[] stack = new int[nodes];
+        int[] counts = new int[nodes];
+        for (int start = 0; start < nodes; start++) {
+            if (label[start] >= 0)
+                continue;
+            int sp = 0;
+            stack[sp++] = start;
+            label[start] = start;
+            while (sp > 0) {
+                int u = stack[--sp];
+                if (u < asnNodes)
+                    counts[start]++;
+                for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                    int e = adjacency[i];
+                    int v = from[e] == u ? to[e] : from[e];
+                    if (!cut[e] && label[v] < 0) {
+                        label[v] = start;
+                        stack[sp++] = v;
+                    }
+                }
+            }
+        }
+
+        int[][] members = new int[nodes][];
+        int[] filled = new int[nodes];
+        for (int n = 0; n < asnNodes; n++) {
+            int l = label[n];
+            if (counts[l] >= minSize) {
+                if (members[l] == null)
+                    members[l] = new int[counts[l]];
+                members[l][filled[l]++] = clusters.asnAt(n);
+            }
+        }
+
+        List<int[]> result = new ArrayList<>();
+        for (int[] cluster: members) {
+            if (cluster != null) {
+                Asns.sort(cluster);
+                result.add(cluster);
+            }
+        }
+        result.sort((a, b) -> Asns.compare(a[0], b[0]));
+
+        return result;
+    }
+
+    /**
+     * Writes the bridges and articulation points of the clusters above a size, ordered by cluster and by the
+     * number of ASNs they hold to the cluster:
+     * <pre>
+     * bridge|&lt;cut or kept&gt;|&lt;node&gt;|&lt;node&gt;|&lt;cluster size&gt;|&lt;ASNs on the side of the first node&gt;|&lt;ASNs on the other side&gt;
+     * articulation|&lt;node&gt;|&lt;cluster size&gt;|&lt;pieces left by its removal&gt;
+     * </pre>
+     * where a node is an ASN or an evidence key with its source, e.g. WEBSITE=example.net
+     * @param path The path of the report
+     * @param maxSize The maximum size of a cluster whose low-confidence bridges are kept
+     * @return int The number of cut edges
+     * @throws IOException When writing the report fails
+     */
+    public int writeReport(Path path, int maxSize) throws IOException {
+        boolean[] cut = cutEdges(maxSize);
+        List<Integer> reported = new ArrayList<>();
+        for (int e = 0; e < edges; e++) {
+            if (bridge[e] && clusterSize(from[e]) > maxSize)
+                reported.add(e);
+        }
+        reported.sort(Comparator.<Integer>comparingInt(e -> -clusterSize(from[e])).thenComparingInt(e -> component[from[e]])
+                .thenComparingInt(e -> -contribution(e)).thenComparingInt(e -> e));
+        List<Integer> articulations = new ArrayList<>();
+        for (int n = 0; n < nodes; n++) {
+            if (pieces[n] > 0 && clusterSize(n) > maxSize)
+                articulations.add(n);
+        }
+        articulations.sort(Comparator.<Integer>comparingInt(n -> -clusterSize(n)).thenComparingInt(n -> component[n])
+                .thenComparingInt(n -> -pieces[n]).thenComparingInt(n -> n));
+
+        int cutCount = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8))) {
+            writer.write("# clusters above " + maxSize + " ASNs, cut sources: " + LOW_CONFIDENCE + "\n");
+            for (int e: reported) {
+                int child = childNode[e];
+                int parent = from[e] == child ? to[e] : from[e];
+                int side = subtreeAsns[child];
+                if (cut[e])
+                    cutCount++;
+                writer.write("bridge|" + (cut[e] ? "cut" : "kept") + "|" + nodeName(parent, e) + "|"
+                        + nodeName(child, e) + "|" + clusterSize(child) + "|" + (clusterSize(child) - side) + "|"
+                        + side + "\n");
+            }
+            for (int n: articulations) {
+                writer.write("articulation|" + nodeName(n, -1) + "|" + clusterSize(n) + "|" + pieces[n] + "\n");
+            }
+        }
+
+        return cutCount;
+    }
+
+    /**
+     * @param node A node of the graph
+     * @param e An edge of the node, whose evidence names a key node, or -1
+     * @return String The ASN of an ASN node, or the evidence of a key node
+     */
+    private String nodeName(int node, int e) {
+        if (node < asnNodes)
+            return Asns.toString(clusters.asnAt(node));
+        if (e < 0) {
+            // The first edge of a key node has the evidence of the key
+            e = adjacency[offsets[node]];
+        }
+        return clusters.evidenceName(source(e), clusters.edgeKey(evidence[e]));
+    }
+
+    private SiblingClusters.Evidence source(int e) {
+        return SiblingClusters.Evidence.values()[sources[e]];
+    }
+}
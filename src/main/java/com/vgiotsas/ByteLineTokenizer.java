@@ -0,0 +1,379 @@
+package com.vgiotsas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a stream of ASCII/UTF-8 lines into delimited fields directly over a reusable byte buffer.
+ * Fields are exposed as offsets into the buffer and can be compared or parsed as integers in place,
+ * so that lines that are discarded, which are the vast majority of the lines of the RIR delegation files
+ * and of the WHOIS dumps, never allocate any String.
+ * <pre>
+ * ByteLineTokenizer tokenizer = new ByteLineTokenizer(in);
+ * while (tokenizer.nextLine()) {
+ *     if (tokenizer.split('|', 0) > 6 &amp;&amp; tokenizer.fieldEquals(2, ASN))
+ *         ...
+ * }
+ * </pre>
+ */
+public class ByteLineTokenizer {
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    private int lineStart;
+    private int lineEnd;
+
+    // Start and end offsets of the fields of the current line
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fieldCount = 0;
+
+    public ByteLineTokenizer(InputStream in) {
+        this(in, 65536);
+    }
+
+    public ByteLineTokenizer(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Advances to the next line, without the line terminator
+     * @return boolean False at the end of the stream
+     * @throws IOException When reading the stream fails
+     */
+    public boolean nextLine() throws IOException {
+        fieldCount = 0;
+        int scan = pos;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    lineStart = pos;
+                    lineEnd = (i > pos && buf[i - 1] == '\r') ? i - 1 : i;
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (pos == limit)
+                    return false;
+                // Last line without terminator
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                return true;
+            }
+            scan = limit - pos;
+            fill();
+        }
+    }
+
+    /**
+     * Moves the partial line to the start of the buffer, growing it if the line does not fit, and reads more bytes
+     */
+    private void fill() throws IOException {
+        int remaining = limit - pos;
+        if (remaining == buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        System.arraycopy(buf, pos, buf, 0, remaining);
+        pos = 0;
+        limit = remaining;
+        int read = in.read(buf, limit, buf.length - limit);
+        if (read < 0)
+            eof = true;
+        else
+            limit += read;
+    }
+
+    /**
+     * Splits the current line into fields
+     * @param delimiter The delimiter of the fields
+     * @param maxFields The maximum number of fields, the last field spans the rest of the line, or 0 for no limit
+     * @return int The number of fields
+     */
+    public int split(char delimiter, int maxFields) {
+        fieldCount = 0;
+        int start = lineStart;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buf[i] == delimiter && (maxFields == 0 || fieldCount < maxFields - 1)) {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, lineEnd);
+
+        return fieldCount;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * @return int The length of the current line in bytes
+     */
+    public int lineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * @return int The first byte of the current line, or -1 if the line is empty
+     */
+    public int firstByte() {
+        return lineEnd > lineStart ? buf[lineStart] : -1;
+    }
+
+    /**
+     * @return boolean True if the field is equal to the ASCII value, false if the line has no such field
+     */
+    public boolean fieldEquals(int field, byte[] value) {
+        if (!hasField(field))
+            return false;
+        int start = starts[field];
+        if (ends[field] - start != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++) {
+            if (buf[start + i] != value[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param lowerCaseValue The ASCII value in lower case
+     * @return boolean True if the field, ignoring surrounding whitespace, is equal to the value ignoring case,
+     *                 false if the line has no such field
+     */
+    public boolean fieldEqualsIgnoreCase(int field, byte[] lowerCaseValue) {
+        if (!hasField(field))
+            return false;
+        int start = trimStart(field);
+        if (trimEnd(field) - start != lowerCaseValue.length)
+            return false;
+        for (int i = 0; i < lowerCaseValue.length; i++) {
+            int c = buf[start + i];
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != lowerCaseValue[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param lowerCasePrefix The ASCII prefix in lower case
+     * @return boolean True if the field starts with the prefix ignoring case, false if the line has no such field
+     */
+    public boolean fieldStartsWithIgnoreCase(int field, byte[] lowerCasePrefix) {
+        if (!hasField(field))
+            return false;
+        int start = starts[field];
+        if (ends[field] - start < lowerCasePrefix.length)
+            return false;
+        for (int i = 0; i < lowerCasePrefix.length; i++) {
+            int c = buf[start + i];
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != lowerCasePrefix[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses the field as a non-negative decimal number in place, ignoring surrounding whitespace
+     * and an optional "AS" prefix
+     * @return long The parsed number, or -1 if the field is not a number or the line has no such field
+     */
+    public long fieldAsLong(int field) {
+        if (!hasField(field))
+            return -1;
+        int start = trimStart(field);
+        int end = trimEnd(field);
+        if (end - start > 2 && (buf[start] == 'A' || buf[start] == 'a') && (buf[start + 1] == 'S' || buf[start + 1] == 's'))
+            start += 2;
+        if (start == end || end - start > 18)
+            return -1;
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Parses the field as a dotted-quad IPv4 address in place, ignoring surrounding whitespace
+     * @return long The address as an unsigned 32-bit number, or -1 if the field is not an IPv4 address
+     *              or the line has no such field
+     */
+    public long fieldAsIpv4(int field) {
+        if (!hasField(field))
+            return -1;
+        return parseIpv4(buf, trimStart(field), trimEnd(field));
+    }
+
+    /**
+     * Parses the field as an IPv6 address in place, ignoring surrounding whitespace
+     * @param address The array where the upper and the lower 64 bits of the address are stored
+     * @return boolean False if the field is not an IPv6 address or the line has no such field
+     */
+    public boolean fieldAsIpv6(int field, long[] address) {
+        if (!hasField(field))
+            return false;
+        return parseIpv6(buf, trimStart(field), trimEnd(field), address);
+    }
+
+    /**
+     * @return long The dotted-quad IPv4 address in the range as an unsigned 32-bit number, or -1 if it is malformed
+     */
+    static long parseIpv4(byte[] bytes, int start, int end) {
+        long address = 0;
+        int octets = 0;
+        int i = start;
+        while (octets < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && digits < 3) {
+                value = value * 10 + bytes[i++] - '0';
+                digits++;
+            }
+            if (digits == 0 || value > 255)
+                return -1;
+            address = address << 8 | value;
+            octets++;
+            if (octets < 4 && (i == end || bytes[i++] != '.'))
+                return -1;
+        }
+
+        return i == end ? address : -1;
+    }
+
+    /**
+     * Parses an IPv6 address in the text form of RFC 4291 without an embedded IPv4 address
+     * @param address The array where the upper and the lower 64 bits of the address are stored
+     * @return boolean False if the address in the range is malformed
+     */
+    static boolean parseIpv6(byte[] bytes, int start, int end, long[] address) {
+        // The groups before and after the :: are accumulated separately, the groups after it are right-aligned
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (end - start >= 2 && bytes[i] == ':' && bytes[i + 1] == ':') {
+            compressed = true;
+            i += 2;
+        }
+        while (i < end) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits < 5) {
+                int digit = Character.digit(bytes[i], 16);
+                if (digit < 0)
+                    break;
+                value = value << 4 | digit;
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 4 || headGroups + tailGroups == 8)
+                return false;
+            if (compressed) {
+                tailHigh = tailHigh << 16 | tailLow >>> 48;
+                tailLow = tailLow << 16 | value;
+                tailGroups++;
+            }
+            else {
+                headHigh = headHigh << 16 | headLow >>> 48;
+                headLow = headLow << 16 | value;
+                headGroups++;
+            }
+            if (i == end)
+                break;
+            if (bytes[i] != ':' || i + 1 == end)
+                return false;
+            i++;
+            if (bytes[i] == ':') {
+                if (compressed)
+                    return false;
+                compressed = true;
+                i++;
+            }
+        }
+        if (compressed ? headGroups + tailGroups > 7 : headGroups != 8)
+            return false;
+
+        // Shift the groups before the :: to the top of the address
+        for (int g = headGroups; g < 8; g++) {
+            headHigh = headHigh << 16 | headLow >>> 48;
+            headLow <<= 16;
+        }
+        address[0] = headHigh | tailHigh;
+        address[1] = headLow | tailLow;
+        return true;
+    }
+
+    /**
+     * @return String The field without surrounding whitespace, or null if the line has no such field
+     */
+    public String fieldAsString(int field) {
+        if (!hasField(field))
+            return null;
+        int start = trimStart(field);
+        return new String(buf, start, trimEnd(field) - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The field arrays keep the fields of previous lines, so a field is only valid below the count of the last split
+     * @return boolean True if the current line has the field
+     */
+    public boolean hasField(int field) {
+        return field >= 0 && field < fieldCount;
+    }
+
+    // The callers check hasField first
+    private int trimStart(int field) {
+        int start = starts[field];
+        while (start < ends[field] && (buf[start] == ' ' || buf[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int field) {
+        int end = ends[field];
+        while (end > starts[field] && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @return byte[] The ASCII bytes of a constant to compare fields with
+     */
+    public static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
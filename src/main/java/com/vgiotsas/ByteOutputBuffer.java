@@ -0,0 +1,109 @@
+package com.vgiotsas;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that renders text output without intermediate strings: integers are encoded to
+ * ASCII digits directly, and the buffer is cleared and reused between batches of lines.
+ */
+public class ByteOutputBuffer {
+
+    private byte[] bytes;
+    private int length = 0;
+
+    public ByteOutputBuffer(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Appends the decimal digits of an integer
+     * @param value The integer
+     * @return ByteOutputBuffer This buffer
+     */
+    public ByteOutputBuffer append(int value) {
+        ensure(11);
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE)
+                return append("-2147483648");
+            bytes[length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (int bound = 10; digits < 10 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+
+        return this;
+    }
+
+    /**
+     * Appends the decimal digits of an unsigned 32-bit integer, such as an ASN above 2^31 - 1
+     * @param value The integer, read as unsigned
+     * @return ByteOutputBuffer This buffer
+     */
+    public ByteOutputBuffer appendUnsigned(int value) {
+        return value >= 0 ? append(value) : append(Integer.toUnsignedString(value));
+    }
+
+    /**
+     * @param c An ASCII character, e.g. a delimiter
+     * @return ByteOutputBuffer This buffer
+     */
+    public ByteOutputBuffer append(char c) {
+        ensure(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * @param value A string, encoded in UTF-8 unless it is ASCII
+     * @return ByteOutputBuffer This buffer
+     */
+    public ByteOutputBuffer append(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] utf8 = value.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensure(utf8.length);
+                System.arraycopy(utf8, 0, bytes, length, utf8.length);
+                length += utf8.length;
+                return this;
+            }
+            bytes[length++] = (byte) c;
+        }
+
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Writes the content of the buffer
+     * @param out The stream to write to
+     * @throws IOException When writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+    }
+}
@@ -0,0 +1,106 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The completed stages of a run and their intermediate results in a working directory, so that a run that
+ * fails resumes from the last completed stage when it is started again on the same day.
+ * The completed stages are kept in <code>checkpoint.properties</code>, which is replaced atomically after each
+ * stage, and only the files registered with a completed stage are deleted when the checkpoint is cleared,
+ * so the working directory may contain other files.
+ */
+public class Checkpoint {
+
+    private static final String STAGES_FILE = "checkpoint.properties";
+    private static final String DATE = "date";
+    private static final String FILES = "files";
+    private static final String STAGE_PREFIX = "stage.";
+
+    private final Path directory;
+    private final String runDate;
+    private final Properties stages = new Properties();
+
+    /**
+     * @param directory The working directory, created if it does not exist
+     * @param runDate The date of the run in YYYYMMDD format, the checkpoint of another date is discarded
+     * @param restart If true, the existing checkpoint is discarded
+     * @throws IOException When the working directory or the checkpoint cannot be read
+     */
+    public Checkpoint(Path directory, String runDate, boolean restart) throws IOException {
+        this.directory = directory;
+        this.runDate = runDate;
+        Files.createDirectories(directory);
+
+        Path file = directory.resolve(STAGES_FILE);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                stages.load(reader);
+            }
+            if (restart || !runDate.equals(stages.getProperty(DATE)))
+                clear();
+        }
+        stages.setProperty(DATE, runDate);
+    }
+
+    /**
+     * @param stage The name of a stage, e.g. parse or fetch &lt;url&gt;
+     * @return boolean True if the stage was completed by an earlier attempt of the run or by this one
+     */
+    public synchronized boolean isDone(String stage) {
+        return stages.containsKey(STAGE_PREFIX + stage);
+    }
+
+    /**
+     * Records a completed stage
+     * @param stage The name of the stage
+     * @param files The names of the files of the stage in the working directory, deleted with the checkpoint
+     * @throws IOException When the checkpoint cannot be written
+     */
+    public synchronized void markDone(String stage, String... files) throws IOException {
+        stages.setProperty(STAGE_PREFIX + stage, String.valueOf(System.currentTimeMillis()));
+        for (String name: files) {
+            String registered = stages.getProperty(FILES, "");
+            if (!("\t" + registered + "\t").contains("\t" + name + "\t"))
+                stages.setProperty(FILES, registered.isEmpty() ? name : registered + "\t" + name);
+        }
+
+        Path temp = directory.resolve(STAGES_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            stages.store(writer, "Completed stages of the run of " + runDate);
+        }
+        Files.move(temp, directory.resolve(STAGES_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param name The name of a file of a stage
+     * @return Path The path of the file in the working directory
+     */
+    public Path path(String name) {
+        return directory.resolve(name);
+    }
+
+    /**
+     * Deletes the checkpoint and the files of its stages, when the run is complete
+     * @throws IOException When a file cannot be deleted
+     */
+    public synchronized void clear() throws IOException {
+        String registered = stages.getProperty(FILES, "");
+        if (!registered.isEmpty()) {
+            for (String name: registered.split("\t")) {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+        }
+        Files.deleteIfExists(directory.resolve(STAGES_FILE));
+        stages.clear();
+        stages.setProperty(DATE, runDate);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,168 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The changes between the sibling clusters of two runs, so that consumers can apply a daily refresh
+ * without reprocessing the full SiblingASNs file. Each cluster is identified by its smallest ASN in its own run.
+ * The delta file has one change per line, the cluster-level changes first:
+ * <pre>
+ * merge|&lt;cluster&gt;|&lt;previous clusters merged into it&gt;
+ * split|&lt;previous cluster&gt;|&lt;clusters it was split into&gt;
+ * move|&lt;ASN&gt;|&lt;previous cluster&gt;|&lt;cluster&gt;
+ * remove|&lt;ASN&gt;|&lt;previous cluster&gt;
+ * add|&lt;ASN&gt;|&lt;cluster&gt;
+ * </pre>
+ * The merge and split lines describe the changes of the clusters. The member-level lines are the ones to apply:
+ * a move line is written for every ASN of both runs whose cluster ID changed, including the ASNs of a cluster
+ * that lost its smallest ASN, so applying the move, remove and add lines to the map of each ASN to its previous
+ * cluster gives the map of each ASN to its current cluster. The member-level lines are in the order of the ASNs.
+ */
+public class ClusterDelta {
+
+    private final List<String> changes = new ArrayList<>();
+    private int merges = 0;
+    private int splits = 0;
+    private int movedAsns = 0;
+    private int removedAsns = 0;
+    private int addedAsns = 0;
+
+    /**
+     * Computes the changes between two sets of clusters
+     * @param previous The clusters of the previous run, each as a sorted array of ASNs
+     * @param current The clusters of the current run, each as a sorted array of ASNs
+     */
+    public ClusterDelta(List<int[]> previous, List<int[]> current) {
+        IntIntHashMap previousIndex = indexOf(previous);
+        IntIntHashMap currentIndex = indexOf(current);
+
+        for (int[] cluster: previous) {
+            int[] successors = ids(cluster, currentIndex, current);
+            if (successors.length > 1) {
+                changes.add("split|" + Asns.toString(cluster[0]) + "|" + join(successors));
+                splits++;
+            }
+        }
+        for (int[] cluster: current) {
+            int[] predecessors = ids(cluster, previousIndex, previous);
+            if (predecessors.length > 1) {
+                changes.add("merge|" + Asns.toString(cluster[0]) + "|" + join(predecessors));
+                merges++;
+            }
+        }
+
+        int[] moved = new int[currentIndex.size()];
+        int[] added = new int[currentIndex.size()];
+        for (int[] cluster: current) {
+            for (int asn: cluster) {
+                int before = previousIndex.get(asn);
+                if (before < 0)
+                    added[addedAsns++] = asn;
+                else if (previous.get(before)[0] != cluster[0])
+                    moved[movedAsns++] = asn;
+            }
+        }
+        int[] removed = new int[previousIndex.size()];
+        for (int[] cluster: previous) {
+            for (int asn: cluster) {
+                if (!currentIndex.containsKey(asn))
+                    removed[removedAsns++] = asn;
+            }
+        }
+
+        Asns.sort(moved, 0, movedAsns);
+        for (int i = 0; i < movedAsns; i++) {
+            int asn = moved[i];
+            changes.add("move|" + Asns.toString(asn) + "|" + Asns.toString(previous.get(previousIndex.get(asn))[0])
+                    + "|" + Asns.toString(current.get(currentIndex.get(asn))[0]));
+        }
+        Asns.sort(removed, 0, removedAsns);
+        for (int i = 0; i < removedAsns; i++) {
+            int asn = removed[i];
+            changes.add("remove|" + Asns.toString(asn) + "|" + Asns.toString(previous.get(previousIndex.get(asn))[0]));
+        }
+        Asns.sort(added, 0, addedAsns);
+        for (int i = 0; i < addedAsns; i++) {
+            int asn = added[i];
+            changes.add("add|" + Asns.toString(asn) + "|" + Asns.toString(current.get(currentIndex.get(asn))[0]));
+        }
+    }
+
+    /**
+     * Writes the changes, preceded by a comment line with the file of the previous clusters
+     * @param path The path of the delta file
+     * @param previousFile The name of the file of the previous clusters
+     * @throws IOException When writing the file fails
+     */
+    public void write(Path path, String previousFile) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8))) {
+            writer.write("# previous: " + previousFile + "\n");
+            for (String change: changes) {
+                writer.write(change);
+                writer.write('\n');
+            }
+        }
+    }
+
+    public List<String> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return String The number of changes of each type
+     */
+    public String summary() {
+        return merges + " merges, " + splits + " splits, " + movedAsns + " moved ASNs, " + addedAsns + " added ASNs, "
+                + removedAsns + " removed ASNs";
+    }
+
+    private static IntIntHashMap indexOf(List<int[]> clusters) {
+        IntIntHashMap index = new IntIntHashMap(clusters.size() * 2, -1);
+        for (int i = 0; i < clusters.size(); i++) {
+            for (int asn: clusters.get(i)) {
+                index.put(asn, i);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * @return int[] The sorted IDs of the other run's clusters that contain ASNs of the cluster
+     */
+    private static int[] ids(int[] cluster, IntIntHashMap otherIndex, List<int[]> otherClusters) {
+        int[] ids = new int[cluster.length];
+        int size = 0;
+        for (int asn: cluster) {
+            int other = otherIndex.get(asn);
+            if (other >= 0)
+                ids[size++] = otherClusters.get(other)[0];
+        }
+        Asns.sort(ids, 0, size);
+
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || ids[i] != ids[i - 1])
+                ids[distinct++] = ids[i];
+        }
+
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    private static String join(int[] asns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < asns.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(Asns.toString(asns[i]));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,421 @@
+package com.vgiotsas;
+
+import org.json.simple.JSONValue;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks the parsing and clustering hot paths of the collector on fixture datasets at several input scales,
+ * reporting the time per operation, the input throughput, the allocation per operation and the allocation rate.
+ * <p>
+ * The fixtures of each scale are read from <code>&lt;fixtures&gt;/&lt;scale&gt;x/</code>:
+ * <ul>
+ *     <li><code>org.json</code>, <code>net.json</code>: api/org and api/net responses of PeeringDB</li>
+ *     <li><code>asns.txt</code>: the World IPv6 Launch list of ASNs</li>
+ *     <li><code>delegated-extended</code>: an extended RIR delegation file</li>
+ *     <li><code>aut-num.gz</code>: a gzipped RPSL dump of aut-num objects</li>
+ *     <li><code>whois/</code>: WHOIS responses of the RIPE server, one file per query as for the StubWhoisServer</li>
+ * </ul>
+ * Missing fixtures are generated with a fixed seed and written to the directory, so that consecutive runs
+ * measure the same input. Recorded datasets can replace the generated ones by copying them in the directory.
+ * The WHOIS fields are read from input/rirFields.txt, so the benchmark runs from the root of the repository:
+ * <pre>
+ * java com.vgiotsas.CollectorBenchmark [--fixtures benchmark-fixtures] [--scales 1,5,10] [benchmark ...]
+ * </pre>
+ */
+public class CollectorBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 5;
+    private static final long SEED = 42;
+    // The number of records of each dataset at 1x, close to the size of the live datasets
+    private static final int PDB_ORGS = 22000;
+    private static final int PDB_NETS = 20000;
+    private static final int V6_DAY_LINES = 3000;
+    private static final int DELEGATION_RECORDS = 150000;
+    private static final int AUT_NUM_OBJECTS = 35000;
+    private static final int WHOIS_RESPONSES = 1000;
+
+    /**
+     * The datasets of a scale, loaded in memory so that the measurements exclude I/O
+     */
+    private static class Fixtures {
+        byte[] orgs;
+        byte[] nets;
+        List<String> v6Day;
+        byte[] delegations;
+        String autNumDump;
+        List<String> whoisResponses = new ArrayList<>();
+        HashMap<String, Integer> orgNameToId;
+        SiblingASCollector collector;
+        List<int[]> siblingClusters;
+        Path outputFile;
+        WhoisParser whoisParser;
+    }
+
+    private interface InputSize {
+        long of(Fixtures fixtures);
+    }
+
+    private interface Operation {
+        void run(Fixtures fixtures) throws Exception;
+    }
+
+    private static class Benchmark {
+        // The size of the input in bytes, 0 if the input is not a dataset
+        private final InputSize inputSize;
+        private final Operation operation;
+
+        Benchmark(InputSize inputSize, Operation operation) {
+            this.inputSize = inputSize;
+            this.operation = operation;
+        }
+    }
+
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("pdb-org", new Benchmark(f -> f.orgs.length, f -> new SiblingASCollector().parsePdbOrgData(
+                new PdbJsonReader(reader(f.orgs), SiblingASCollector.PDB_ORG_FIELDS))));
+        BENCHMARKS.put("pdb-net", new Benchmark(f -> f.nets.length, f -> new SiblingASCollector().parsePdbData(
+                new PdbJsonReader(reader(f.nets), SiblingASCollector.PDB_NET_FIELDS), f.orgNameToId)));
+        BENCHMARKS.put("v6-day", new Benchmark(f -> lengthOf(f.v6Day), f -> new SiblingASCollector().parseV6DayData(f.v6Day)));
+        BENCHMARKS.put("delegations", new Benchmark(f -> f.delegations.length,
+                f -> new SiblingASCollector().addDelegations(DelegationParser.parse(f.delegations, ForkJoinPool.commonPool()), 0)));
+        BENCHMARKS.put("prefix-index", new Benchmark(f -> f.delegations.length, f -> {
+            DelegationParser.Result result = DelegationParser.parse(f.delegations, ForkJoinPool.commonPool(), true);
+            PrefixIndex index = new PrefixIndex();
+            index.addAll(result.getIpv4Prefixes(), result.getIpv6Prefixes());
+            index.build();
+        }));
+        BENCHMARKS.put("clusters", new Benchmark(f -> 0, f -> f.collector.getClusters().getClusters(2)));
+        BENCHMARKS.put("cluster-output", new Benchmark(f -> 0, f -> TextOutput.writeClusters(f.outputFile,
+                f.siblingClusters, false, ForkJoinPool.commonPool())));
+        BENCHMARKS.put("whois-parse", new Benchmark(f -> lengthOf(f.whoisResponses), f -> {
+            for (String response: f.whoisResponses) {
+                f.whoisParser.parseWhois(response, "ripe");
+            }
+        }));
+        BENCHMARKS.put("org-names", new Benchmark(f -> 0, f -> {
+            OrgNameMatcher matcher = new OrgNameMatcher(SiblingASCollector.ORG_NAME_BANDS,
+                    SiblingASCollector.ORG_NAME_ROWS, SiblingASCollector.ORG_NAME_MAX_BUCKET);
+            for (String name: f.orgNameToId.keySet()) {
+                matcher.add(name, 0);
+            }
+            matcher.match(SiblingASCollector.ORG_NAME_THRESHOLD);
+        }));
+        BENCHMARKS.put("aut-num-dump", new Benchmark(f -> new File(f.autNumDump).length(),
+                f -> f.whoisParser.readWhoisAutNum(f.autNumDump)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path fixturesDir = Paths.get("benchmark-fixtures");
+        int[] scales = {1, 5, 10};
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--fixtures") && i + 1 < args.length) {
+                fixturesDir = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--scales") && i + 1 < args.length) {
+                scales = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            }
+            else if (BENCHMARKS.containsKey(args[i])) {
+                names.add(args[i]);
+            }
+            else {
+                System.out.println("Usage: CollectorBenchmark [--fixtures <dir>] [--scales 1,5,10] "
+                        + String.join("|", BENCHMARKS.keySet()) + " ...");
+                return;
+            }
+        }
+        if (names.isEmpty())
+            names.addAll(BENCHMARKS.keySet());
+
+        // The time per operation of each benchmark at the first scale, to report the scaling of the others
+        Map<String, Double> baseline = new HashMap<>();
+        System.out.printf("%-13s %5s %9s %10s %9s %13s %12s %8s%n",
+                "benchmark", "scale", "input MB", "ms/op", "MB/s", "alloc MB/op", "alloc MB/s", "scaling");
+        for (int scale: scales) {
+            Fixtures fixtures = load(fixturesDir.resolve(scale + "x"), scale);
+            for (String name: names) {
+                Benchmark benchmark = BENCHMARKS.get(name);
+                double[] result = measure(benchmark, fixtures);
+                double input = benchmark.inputSize.of(fixtures) / (1024.0 * 1024.0);
+                baseline.putIfAbsent(name, result[0] / scale);
+                System.out.printf("%-13s %4dx %9.1f %10.2f %9s %13.1f %12.1f %7.2fx%n",
+                        name, scale, input, result[0], input > 0 ? String.format("%.1f", input / (result[0] / 1e3)) : "-",
+                        result[1], result[1] / (result[0] / 1e3), result[0] / (baseline.get(name) * scale));
+            }
+        }
+    }
+
+    /**
+     * Runs a benchmark on the current thread
+     * @return double[] The time per operation in ms and the allocated MB per operation
+     */
+    private static double[] measure(Benchmark benchmark, Fixtures fixtures) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            benchmark.operation.run(fixtures);
+        }
+        System.gc();
+
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            benchmark.operation.run(fixtures);
+        }
+        long elapsed = (System.nanoTime() - start) / ITERATIONS;
+        allocated = (threads.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+
+        return new double[]{elapsed / 1e6, allocated / (1024.0 * 1024.0)};
+    }
+
+    /**
+     * Loads the fixtures of a scale, generating the missing ones
+     * @param dir The directory of the fixtures of the scale
+     * @param scale The multiple of the 1x size of the generated datasets
+     */
+    private static Fixtures load(Path dir, int scale) throws Exception {
+        Files.createDirectories(dir.resolve("whois"));
+        Random random = new Random(SEED + scale);
+        Fixtures fixtures = new Fixtures();
+        fixtures.orgs = readOrGenerate(dir.resolve("org.json"), () -> syntheticPdbOrgs(PDB_ORGS * scale, random));
+        fixtures.nets = readOrGenerate(dir.resolve("net.json"),
+                () -> syntheticPdbNets(PDB_NETS * scale, PDB_ORGS * scale, random));
+        fixtures.v6Day = SiblingASCollector.readLines(new ByteArrayInputStream(readOrGenerate(dir.resolve("asns.txt"),
+                () -> syntheticV6Day(V6_DAY_LINES * scale, random))));
+        fixtures.delegations = readOrGenerate(dir.resolve("delegated-extended"),
+                () -> DelegationParseBenchmark.syntheticDelegations(DELEGATION_RECORDS * scale, SEED + scale));
+        Path autNumDump = dir.resolve("aut-num.gz");
+        if (!Files.exists(autNumDump)) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(autNumDump))) {
+                out.write(syntheticAutNumDump(AUT_NUM_OBJECTS * scale, random));
+            }
+        }
+        fixtures.autNumDump = autNumDump.toString();
+
+        Path whoisDir = dir.resolve("whois");
+        try (DirectoryStream<Path> responses = Files.newDirectoryStream(whoisDir)) {
+            for (Path response: responses) {
+                fixtures.whoisResponses.add(new String(Files.readAllBytes(response), StandardCharsets.UTF_8));
+            }
+        }
+        if (fixtures.whoisResponses.isEmpty()) {
+            for (int i = 0; i < WHOIS_RESPONSES * scale; i++) {
+                int asn = 1000 + i;
+                String response = syntheticWhoisResponse(asn, random);
+                Files.write(whoisDir.resolve("AS" + asn), response.getBytes(StandardCharsets.UTF_8));
+                fixtures.whoisResponses.add(response);
+            }
+        }
+
+        // The inputs of the benchmarks that depend on the output of another stage
+        fixtures.orgNameToId = new SiblingASCollector().parsePdbOrgData(
+                new PdbJsonReader(reader(fixtures.orgs), SiblingASCollector.PDB_ORG_FIELDS));
+        fixtures.collector = new SiblingASCollector();
+        fixtures.collector.parsePdbData(new PdbJsonReader(reader(fixtures.nets), SiblingASCollector.PDB_NET_FIELDS),
+                fixtures.orgNameToId);
+        fixtures.collector.parseV6DayData(fixtures.v6Day);
+        fixtures.collector.addDelegations(DelegationParser.parse(fixtures.delegations, ForkJoinPool.commonPool()), 0);
+        fixtures.siblingClusters = fixtures.collector.getClusters().getClusters(2);
+        fixtures.outputFile = Files.createTempFile("SiblingASNs", ".txt");
+        fixtures.outputFile.toFile().deleteOnExit();
+        fixtures.whoisParser = new WhoisParser();
+
+        return fixtures;
+    }
+
+    private interface Generator {
+        byte[] generate();
+    }
+
+    private static byte[] readOrGenerate(Path path, Generator generator) throws IOException {
+        if (Files.exists(path))
+            return Files.readAllBytes(path);
+
+        byte[] data = generator.generate();
+        Files.write(path, data);
+        return data;
+    }
+
+    /**
+     * Generates an api/org response, with the fields of the live objects that the collector does not use
+     */
+    static byte[] syntheticPdbOrgs(int orgs, Random random) {
+        StringBuilder sb = new StringBuilder("{\"meta\": {}, \"data\": [");
+        for (int id = 1; id <= orgs; id++) {
+            if (id > 1)
+                sb.append(",\n");
+            sb.append("{\"id\": ").append(id)
+                    .append(", \"name\": \"").append(JSONValue.escape(syntheticOrgName(id))).append('"')
+                    .append(", \"website\": \"http://org").append(id).append(".example\"")
+                    .append(", \"notes\": \"").append(filler(random.nextInt(200))).append('"')
+                    .append(", \"address1\": \"").append(random.nextInt(1000)).append(" Main Street\"")
+                    .append(", \"city\": \"City\", \"country\": \"DE\", \"zipcode\": \"10115\"")
+                    .append(", \"created\": \"2010-07-29T00:00:00Z\", \"updated\": \"2016-01-01T00:00:00Z\"")
+                    .append(", \"status\": \"ok\"}");
+        }
+
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final String CONSONANTS = "bcdfgklmnprstvz";
+    private static final String VOWELS = "aeiou";
+    private static final String[] LOCATIONS = {"", "", "", "India", "Korea", "Brasil", "Deutschland", "UK", "Japan", "Espa\u00f1a"};
+    private static final String[] KINDS = {"", "Networks", "Communications", "Telecom", "Internet", "Broadband", "Hosting"};
+    private static final String[] LEGAL_FORMS = {"", "Inc.", "Ltd", "LLC", "GmbH", "S.A.", "B.V.", "Pty Ltd"};
+
+    /**
+     * Generates the name of an organization from the ID, where about one in five organizations
+     * reuses the brand of an earlier organization with a different location, kind or legal form
+     */
+    static String syntheticOrgName(int id) {
+        Random random = new Random(id * 0x9E3779B97F4A7C15L);
+        int brandId = id;
+        while (brandId > 1 && new Random(brandId * 0x9E3779B97F4A7C15L).nextInt(5) == 0) {
+            brandId -= 1 + new Random(brandId).nextInt(Math.min(brandId - 1, 1000));
+        }
+        Random brandRandom = new Random(brandId);
+        StringBuilder brand = new StringBuilder();
+        for (int i = 3 + brandRandom.nextInt(2); i > 0; i--) {
+            brand.append(CONSONANTS.charAt(brandRandom.nextInt(CONSONANTS.length())))
+                    .append(VOWELS.charAt(brandRandom.nextInt(VOWELS.length())));
+        }
+        brand.setCharAt(0, Character.toUpperCase(brand.charAt(0)));
+
+        StringBuilder name = new StringBuilder(brand);
+        for (String part: new String[]{KINDS[random.nextInt(KINDS.length)], LOCATIONS[random.nextInt(LOCATIONS.length)],
+                LEGAL_FORMS[random.nextInt(LEGAL_FORMS.length)]}) {
+            if (!part.isEmpty())
+                name.append(' ').append(part);
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * Generates an api/net response where some networks share their website or looking glass,
+     * and some have the name of another organization as aka
+     */
+    static byte[] syntheticPdbNets(int nets, int orgs, Random random) {
+        StringBuilder sb = new StringBuilder("{\"meta\": {}, \"data\": [");
+        for (int id = 1; id <= nets; id++) {
+            int orgId = 1 + random.nextInt(orgs);
+            String aka = random.nextInt(10) == 0 ? syntheticOrgName(1 + random.nextInt(orgs)) : "";
+            String website = random.nextInt(4) == 0 ? "" : "http://net" + random.nextInt(nets) + ".example";
+            String lookingGlass = random.nextInt(3) == 0 ? "https://lg" + random.nextInt(nets) + ".example" : "";
+            if (id > 1)
+                sb.append(",\n");
+            sb.append("{\"id\": ").append(id)
+                    .append(", \"org_id\": ").append(orgId)
+                    .append(", \"name\": \"Network ").append(id).append('"')
+                    .append(", \"aka\": \"").append(JSONValue.escape(aka)).append('"')
+                    .append(", \"website\": \"").append(website).append('"')
+                    .append(", \"asn\": ").append(1000 + id)
+                    .append(", \"looking_glass\": \"").append(lookingGlass).append('"')
+                    .append(", \"irr_as_set\": \"AS-NET").append(id).append('"')
+                    .append(", \"info_prefixes4\": ").append(random.nextInt(1000))
+                    .append(", \"info_prefixes6\": ").append(random.nextInt(100))
+                    .append(", \"info_unicast\": true, \"info_ipv6\": ").append(random.nextBoolean())
+                    .append(", \"notes\": \"").append(filler(random.nextInt(300))).append('"')
+                    .append(", \"policy_general\": \"Selective\"")
+                    .append(", \"created\": \"2010-07-29T00:00:00Z\", \"updated\": \"2016-01-01T00:00:00Z\"")
+                    .append(", \"status\": \"ok\"}");
+        }
+
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates a World IPv6 Launch list where about one in five lines has more than one ASN
+     */
+    static byte[] syntheticV6Day(int lines, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            int asns = random.nextInt(5) == 0 ? 2 + random.nextInt(4) : 1;
+            for (int j = 0; j < asns; j++) {
+                if (j > 0)
+                    sb.append(',');
+                sb.append(1000 + random.nextInt(lines * 10));
+            }
+            sb.append("|Participant ").append(i).append('\n');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates an RPSL dump of aut-num objects in the format of the RIPE split dumps
+     */
+    static byte[] syntheticAutNumDump(int objects, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < objects; i++) {
+            sb.append("aut-num:        AS").append(1000 + i).append('\n')
+                    .append("as-name:        NET-").append(i).append('\n')
+                    .append("descr:          ").append(filler(random.nextInt(40))).append('\n');
+            for (int j = random.nextInt(6); j > 0; j--) {
+                sb.append("import:         from AS").append(random.nextInt(60000)).append(" accept ANY\n")
+                        .append("export:         to AS").append(random.nextInt(60000)).append(" announce AS-NET\n");
+            }
+            if (random.nextInt(10) > 0)
+                sb.append("org:            ORG-").append(random.nextInt(objects)).append("-RIPE\n");
+            sb.append("admin-c:        DUMY-RIPE\n")
+                    .append("mnt-by:         RIPE-NCC-END-MNT\n")
+                    .append("source:         RIPE # Filtered\n\n");
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the response of the RIPE WHOIS server to an ASN query
+     */
+    static String syntheticWhoisResponse(int asn, Random random) {
+        String org = "ORG-" + random.nextInt(100000) + "-RIPE";
+        return "% This is the RIPE Database query service.\n"
+                + "% The objects are in RPSL format.\n\n"
+                + "% Information related to 'AS" + asn + "'\n\n"
+                + "aut-num:        AS" + asn + "\n"
+                + "as-name:        NET-" + asn + "\n"
+                + "org:            " + org + "\n"
+                + "import:         from AS" + random.nextInt(60000) + " accept ANY\n"
+                + "export:         to AS" + random.nextInt(60000) + " announce AS" + asn + "\n"
+                + "admin-c:        DUMY-RIPE\n"
+                + "tech-c:         DUMY-RIPE\n"
+                + "mnt-by:         RIPE-NCC-END-MNT\n"
+                + "source:         RIPE\n\n"
+                + "organisation:   " + org + "\n"
+                + "org-name:       Organization " + asn + "\n"
+                + "org-type:       LIR\n"
+                + "abuse-c:        AR" + asn + "-RIPE\n"
+                + "mnt-ref:        RIPE-NCC-HM-MNT\n"
+                + "source:         RIPE\n";
+    }
+
+    private static String filler(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private static Reader reader(byte[] data) {
+        return new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+    }
+
+    private static long lengthOf(List<String> lines) {
+        long length = 0;
+        for (String line: lines) {
+            length += line.length() + 1;
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,357 @@
+package com.vgiotsas;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The command line options of the SiblingASCollector
+ */
+public class CollectorOptions {
+
+    private Path snapshotDir = Paths.get("snapshots", "latest");
+    private boolean offline = false;
+    private Path whoisCache = null;
+    private String whoisServer = null;
+    private int whoisThreads = 2;
+    private double whoisRate = 1;
+    private int whoisTtlDays = 7;
+    private Map<String, String> whoisDumps = new LinkedHashMap<>();
+    private boolean memoryReport = false;
+    private boolean incremental = false;
+    private Path previous = null;
+    private boolean provenance = false;
+    private int urlFanOutCap = SiblingASCollector.URL_FANOUT_CAP;
+    private boolean matchOrgNames = false;
+    private double orgNameThreshold = SiblingASCollector.ORG_NAME_THRESHOLD;
+    private Path prometheusFile = null;
+    private boolean gzip = false;
+    private Path workDir = null;
+    private boolean restart = false;
+    private Path as2orgFile = null;
+    private int bridgeCutSize = 0;
+    private boolean prefixIndex = false;
+    private long spillBudget = 0;
+    private Path spillDir = null;
+    private Path archiveRoot = null;
+    private int backfillFrom = 0;
+    private int backfillTo = 0;
+    private int backfillThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Parses the command line arguments
+     * @param args The command line arguments
+     * @return CollectorOptions The parsed options
+     * @throws IllegalArgumentException When an argument is unknown or its value is missing
+     */
+    public static CollectorOptions parse(String[] args) {
+        CollectorOptions options = new CollectorOptions();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--snapshot-dir":
+                    options.snapshotDir = Paths.get(value(args, ++i));
+                    break;
+                case "--offline":
+                    options.offline = true;
+                    break;
+                case "--whois-cache":
+                    options.whoisCache = Paths.get(value(args, ++i));
+                    break;
+                case "--whois-server":
+                    options.whoisServer = value(args, ++i);
+                    break;
+                case "--whois-threads":
+                    options.whoisThreads = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--whois-rate":
+                    options.whoisRate = Double.parseDouble(value(args, ++i));
+                    break;
+                case "--whois-ttl-days":
+                    options.whoisTtlDays = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--whois-dump":
+                    String[] dump = value(args, ++i).split("=", 2);
+                    if (dump.length != 2)
+                        throw new IllegalArgumentException("Expected <rir>=<path> for --whois-dump\n" + usage());
+                    options.whoisDumps.put(dump[0], dump[1]);
+                    break;
+                case "--memory-report":
+                    options.memoryReport = true;
+                    break;
+                case "--incremental":
+                    options.incremental = true;
+                    break;
+                case "--previous":
+                    options.previous = Paths.get(value(args, ++i));
+                    options.incremental = true;
+                    break;
+                case "--provenance":
+                    options.provenance = true;
+                    break;
+                case "--url-fanout-cap":
+                    options.urlFanOutCap = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--match-org-names":
+                    options.matchOrgNames = true;
+                    break;
+                case "--org-name-threshold":
+                    options.orgNameThreshold = Double.parseDouble(value(args, ++i));
+                    options.matchOrgNames = true;
+                    break;
+                case "--gzip":
+                    options.gzip = true;
+                    break;
+                case "--prometheus":
+                    options.prometheusFile = Paths.get(value(args, ++i));
+                    break;
+                case "--work-dir":
+                    options.workDir = Paths.get(value(args, ++i));
+                    break;
+                case "--restart":
+                    options.restart = true;
+                    break;
+                case "--as2org":
+                    options.as2orgFile = Paths.get(value(args, ++i));
+                    break;
+                case "--cut-bridges":
+                    options.bridgeCutSize = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--prefix-index":
+                    options.prefixIndex = true;
+                    break;
+                case "--spill-budget":
+                    options.spillBudget = Long.parseLong(value(args, ++i)) * 1024 * 1024;
+                    break;
+                case "--spill-dir":
+                    options.spillDir = Paths.get(value(args, ++i));
+                    break;
+                case "--backfill":
+                    String[] range = value(args, ++i).split(":", 2);
+                    if (range.length != 2 || !range[0].matches("\\d{8}") || !range[1].matches("\\d{8}"))
+                        throw new IllegalArgumentException("Expected <yyyyMMdd>:<yyyyMMdd> for --backfill\n" + usage());
+                    options.backfillFrom = Integer.parseInt(range[0]);
+                    options.backfillTo = Integer.parseInt(range[1]);
+                    break;
+                case "--archive-root":
+                    options.archiveRoot = Paths.get(value(args, ++i));
+                    break;
+                case "--backfill-threads":
+                    options.backfillThreads = Integer.parseInt(value(args, ++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i] + "\n" + usage());
+            }
+        }
+
+        if (options.spillBudget > 0 && (options.provenance || options.bridgeCutSize > 0))
+            throw new IllegalArgumentException("--spill-budget cannot be used with --provenance or --cut-bridges\n"
+                    + usage());
+        if ((options.backfillFrom > 0) != (options.archiveRoot != null))
+            throw new IllegalArgumentException("--backfill and --archive-root must be used together\n" + usage());
+
+        return options;
+    }
+
+    /**
+     * @return String The description of the command line options
+     */
+    public static String usage() {
+        return "Usage: SiblingASCollector [options]\n"
+                + "  --snapshot-dir <dir>  Directory where the upstream datasets are cached (default: snapshots/latest)\n"
+                + "  --offline             Run from the datasets of the snapshot directory without network access\n"
+                + "  --whois-cache <file>  File of the persistent WHOIS cache (default: <snapshot-dir>/whois-cache.tsv)\n"
+                + "  --whois-server <host:port>  Send all WHOIS queries to this server instead of the RIR servers\n"
+                + "  --whois-threads <n>   Concurrent WHOIS queries per RIR (default: 2)\n"
+                + "  --whois-rate <qps>    Maximum WHOIS queries per second per RIR (default: 1)\n"
+                + "  --whois-ttl-days <n>  Days after which a cached WHOIS result is queried again (default: 7)\n"
+                + "  --whois-dump <rir>=<path>  Resolve the ASNs of the RIR (ripe, arin, apnic, lacnic, afrinic) from\n"
+                + "                        its bulk WHOIS dump instead of WHOIS queries, can be repeated\n"
+                + "  --memory-report       Print the retained heap after each stage of the run\n"
+                + "  --incremental         Also write the changes since the latest earlier SiblingASNs file of the\n"
+                + "                        working directory to SiblingASNsDelta_<date>.txt\n"
+                + "  --previous <file>     Write the changes since this SiblingASNs file, implies --incremental\n"
+                + "  --provenance          Also write the evidence of each cluster to SiblingASNsProvenance_<date>.txt\n"
+                + "                        and, with --cut-bridges, the evidence cut from each cluster\n"
+                + "  --url-fanout-cap <n>  Ignore the website and looking glass domains shared by more than n\n"
+                + "                        organizations (default: " + SiblingASCollector.URL_FANOUT_CAP + ")\n"
+                + "  --match-org-names     Write the similar organization names of PeeringDB and the RIRs to\n"
+                + "                        OrgNameMatches_<date>.txt\n"
+                + "  --org-name-threshold <t>  Minimum similarity of matched names, implies --match-org-names\n"
+                + "                        (default: " + SiblingASCollector.ORG_NAME_THRESHOLD + ")\n"
+                + "  --gzip                Write the SiblingASNs, OpaqueIdAsnGroups and provenance outputs gzip-compressed,\n"
+                + "                        with a .gz suffix\n"
+                + "  --prometheus <file>   Also write the metrics of the run report RunReport_<date>.json to this\n"
+                + "                        file in the Prometheus text format\n"
+                + "  --work-dir <dir>      Directory of the intermediate results of the stages of the run, from which a\n"
+                + "                        failed run resumes on the same day (default: <snapshot-dir>/work)\n"
+                + "  --restart             Discard the intermediate results of a failed run and start over\n"
+                + "  --as2org <file>       Validate the sibling clusters against the organizations of this CAIDA\n"
+                + "                        as2org file and add the results to the run report\n"
+                + "  --cut-bridges <n>     Cut the website, looking glass and aka evidence that is the only link between\n"
+                + "                        two parts of a cluster of more than n ASNs, and write the bridges and\n"
+                + "                        articulation points of these clusters to SiblingASNsBridges_<date>.txt\n"
+                + "  --prefix-index        Index the ipv4 and ipv6 prefixes of the delegation files by sibling cluster\n"
+                + "                        and write the address space of each cluster to SiblingASNsAddressSpace_<date>.txt\n"
+                + "  --spill-budget <MB>   Sort the evidence keys of the clusters on disk within this heap budget and\n"
+                + "                        read the organization names of the WHOIS dumps in a second pass. The peak\n"
+                + "                        heap is not bounded: the parsed delegation records, the Opaque ID groups\n"
+                + "                        and the ASN ranges of the WHOIS dumps stay in memory\n"
+                + "  --spill-dir <dir>     Directory of the sorted runs of the evidence (default: <work-dir>/spill)\n"
+                + "  --backfill <from>:<to>  Regenerate the sibling clusters of every date of the range, as yyyyMMdd,\n"
+                + "                        from the archived datasets of --archive-root, without WHOIS enrichment\n"
+                + "  --archive-root <dir>  Archive of the upstream datasets, see Backfill for its layout\n"
+                + "  --backfill-threads <n>  Dates processed in parallel (default: half the processors)\n";
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1] + "\n" + usage());
+        return args[i];
+    }
+
+    public Path getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public Path getWhoisCache() {
+        return whoisCache != null ? whoisCache : snapshotDir.resolve("whois-cache.tsv");
+    }
+
+    public String getWhoisServer() {
+        return whoisServer;
+    }
+
+    public int getWhoisThreads() {
+        return whoisThreads;
+    }
+
+    public double getWhoisRate() {
+        return whoisRate;
+    }
+
+    public int getWhoisTtlDays() {
+        return whoisTtlDays;
+    }
+
+    public Map<String, String> getWhoisDumps() {
+        return whoisDumps;
+    }
+
+    public boolean isMemoryReport() {
+        return memoryReport;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return Path The SiblingASNs file to compute the changes against, or null to use the latest earlier one
+     */
+    public Path getPrevious() {
+        return previous;
+    }
+
+    public boolean isProvenance() {
+        return provenance;
+    }
+
+    public int getUrlFanOutCap() {
+        return urlFanOutCap;
+    }
+
+    public boolean isMatchOrgNames() {
+        return matchOrgNames;
+    }
+
+    public double getOrgNameThreshold() {
+        return orgNameThreshold;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return Path The file where the run metrics are written in the Prometheus text format, or null
+     */
+    public Path getPrometheusFile() {
+        return prometheusFile;
+    }
+
+    /**
+     * @return Path The directory of the intermediate results of the stages of the run
+     */
+    public Path getWorkDir() {
+        return workDir != null ? workDir : snapshotDir.resolve("work");
+    }
+
+    public boolean isRestart() {
+        return restart;
+    }
+
+    /**
+     * @return Path The as2org file the sibling clusters are validated against, or null
+     */
+    public Path getAs2orgFile() {
+        return as2orgFile;
+    }
+
+    /**
+     * @return int The size above which the low-confidence bridges of a cluster are cut, or 0 to keep them
+     */
+    public int getBridgeCutSize() {
+        return bridgeCutSize;
+    }
+
+    /**
+     * @return boolean True if the prefixes of the delegation files are indexed by sibling cluster
+     */
+    public boolean isPrefixIndex() {
+        return prefixIndex;
+    }
+
+    /**
+     * @return long The heap budget of the external sort of the evidence in bytes, or 0 to keep the evidence in memory
+     */
+    public long getSpillBudget() {
+        return spillBudget;
+    }
+
+    /**
+     * @return Path The directory of the sorted runs of the evidence
+     */
+    public Path getSpillDir() {
+        return spillDir != null ? spillDir : getWorkDir().resolve("spill");
+    }
+
+    /**
+     * @return Path The archive of the upstream datasets of a backfill, or null for a run of the current date
+     */
+    public Path getArchiveRoot() {
+        return archiveRoot;
+    }
+
+    /**
+     * @return int The first date of the backfill as yyyyMMdd
+     */
+    public int getBackfillFrom() {
+        return backfillFrom;
+    }
+
+    /**
+     * @return int The last date of the backfill as yyyyMMdd
+     */
+    public int getBackfillTo() {
+        return backfillTo;
+    }
+
+    public int getBackfillThreads() {
+        return backfillThreads;
+    }
+}
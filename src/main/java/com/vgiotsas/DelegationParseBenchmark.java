@@ -0,0 +1,166 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the split-based parsing of the RIR extended delegation files with the ByteLineTokenizer,
+ * and times the parallel parsing of the DelegationParser at 1, 2, 4 and 8 threads.
+ * The parsers build the mapping from Opaque ID to ASNs from an in-memory copy of a delegation file,
+ * so that the measurement excludes I/O. If no file is given, a synthetic file in the
+ * delegated-extended format is generated.
+ * <pre>
+ * java com.vgiotsas.DelegationParseBenchmark [delegated-ripencc-extended-latest]
+ * </pre>
+ */
+public class DelegationParseBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 10;
+    private static final byte[] ASN_RECORD = ByteLineTokenizer.ascii("asn");
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws IOException {
+        byte[] data = args.length > 0 ? Files.readAllBytes(Paths.get(args[0])) : syntheticDelegations(400000, 42);
+        int lines = 0;
+        for (byte b: data) {
+            if (b == '\n')
+                lines++;
+        }
+        System.out.printf("input: %d lines, %.1f MB%n", lines, data.length / (1024.0 * 1024.0));
+
+        measure("split", data, lines, () -> parseSplit(data));
+        measure("tokenizer", data, lines, () -> parseTokenizer(data));
+
+        // The allocations of the pool threads are not counted, so the parallel parsing is timed separately
+        System.out.printf("%d cores, chunks of %d KB%n", Runtime.getRuntime().availableProcessors(),
+                DelegationParser.CHUNK_SIZE / 1024);
+        double single = 0;
+        for (int threads: THREADS) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                double elapsed = timeParallel(data, pool);
+                if (threads == 1)
+                    single = elapsed;
+                System.out.printf("fork/join %2d threads %8.1f ms/op %8.2f Mlines/s %6.2fx%n",
+                        threads, elapsed / 1e6, lines / (elapsed / 1e3), single / elapsed);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return double The average time of the parallel parsing of the data on the pool in nanoseconds
+     */
+    private static double timeParallel(byte[] data, ForkJoinPool pool) {
+        int records = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            records += DelegationParser.parse(data, pool).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            records += DelegationParser.parse(data, pool).size();
+        }
+        if (records == 0)
+            System.out.println("No asn records in the input");
+
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    /**
+     * The parsing of the delegation files with String.split
+     */
+    static Map<String, List<Integer>> parseSplit(byte[] data) throws IOException {
+        Map<String, List<Integer>> opqIDs = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] lf = line.split("\\|");
+            if (lf.length > 6 && lf[2].equals("asn")) {
+                opqIDs.computeIfAbsent(lf[lf.length - 1], k -> new ArrayList<>()).add(Integer.parseInt(lf[3]));
+            }
+        }
+
+        return opqIDs;
+    }
+
+    /**
+     * The parsing of the delegation files with the ByteLineTokenizer, as in SiblingASCollector.parseDelegations
+     */
+    static Map<String, List<Integer>> parseTokenizer(byte[] data) throws IOException {
+        Map<String, List<Integer>> opqIDs = new HashMap<>();
+        ByteLineTokenizer lines = new ByteLineTokenizer(new ByteArrayInputStream(data));
+        while (lines.nextLine()) {
+            int fields = lines.split('|', 0);
+            if (fields > 6 && lines.fieldEquals(2, ASN_RECORD)) {
+                opqIDs.computeIfAbsent(lines.fieldAsString(fields - 1), k -> new ArrayList<>())
+                        .add((int) lines.fieldAsLong(3));
+            }
+        }
+
+        return opqIDs;
+    }
+
+    private interface Parse {
+        Map<String, List<Integer>> run() throws IOException;
+    }
+
+    private static void measure(String name, byte[] data, int lines, Parse parse) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int groups = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            groups = parse.run().size();
+        }
+
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse.run();
+        }
+        long elapsed = (System.nanoTime() - start) / ITERATIONS;
+        allocated = (threads.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+
+        System.out.printf("%-10s %8.1f ms/op %8.2f Mlines/s %8.1f MB allocated/op %6d Opaque IDs%n",
+                name, elapsed / 1e6, lines / (elapsed / 1e3), allocated / (1024.0 * 1024.0), groups);
+    }
+
+    /**
+     * Generates a delegation file in the delegated-extended format with the given number of records,
+     * of which about one in six is an asn record
+     */
+    static byte[] syntheticDelegations(int records, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        sb.append("2.3|ripencc|1577833200|").append(records).append("|19830705|20200101|+0100\n");
+        sb.append("ripencc|*|asn|*|").append(records / 6).append("|summary\n");
+        sb.append("ripencc|*|ipv4|*|").append(records / 2).append("|summary\n");
+        String[] countries = {"DE", "GB", "FR", "NL", "RU", "IT", "ES", "SE"};
+        for (int i = 0; i < records; i++) {
+            String cc = countries[random.nextInt(countries.length)];
+            String opaqueId = String.format("%08x-%04x-%04x", random.nextInt(records / 3), random.nextInt(65536), 0);
+            int type = random.nextInt(6);
+            if (type == 0) {
+                sb.append("ripencc|").append(cc).append("|asn|").append(i + 1000).append("|1|20100101|allocated|");
+            }
+            else if (type < 4) {
+                sb.append("ripencc|").append(cc).append("|ipv4|").append(random.nextInt(224)).append('.')
+                        .append(random.nextInt(256)).append(".0.0|").append(256 << random.nextInt(8))
+                        .append("|20100101|allocated|");
+            }
+            else {
+                sb.append("ripencc|").append(cc).append("|ipv6|2a0").append(random.nextInt(10)).append(':')
+                        .append(Integer.toHexString(random.nextInt(65536))).append("::|32|20100101|allocated|");
+            }
+            sb.append(opaqueId).append('\n');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
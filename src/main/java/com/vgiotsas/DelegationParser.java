@@ -0,0 +1,351 @@
+package com.vgiotsas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parses the allocated and assigned asn records of an RIR extended delegation file into (Opaque ID, ASN) pairs,
+ * one for each ASN of the range of a record, and, on request,
+ * the allocated and assigned ipv4 and ipv6 records into the prefixes of each Opaque ID for the {@link PrefixIndex}.
+ * Large files are split in byte ranges at line boundaries that are parsed in parallel on a fork/join pool,
+ * and the partial results are concatenated in file order, so that the result is the same as the sequential parse.
+ * A file is memory-mapped rather than read onto the heap, so the only heap used by a parse is its result;
+ * a gzipped file cannot be mapped and is parsed sequentially from the stream.
+ */
+public class DelegationParser {
+
+    private static final byte[] ASN_RECORD = ByteLineTokenizer.ascii("asn");
+    private static final byte[] IPV4_RECORD = ByteLineTokenizer.ascii("ipv4");
+    private static final byte[] IPV6_RECORD = ByteLineTokenizer.ascii("ipv6");
+    private static final byte[] ALLOCATED = ByteLineTokenizer.ascii("allocated");
+    private static final byte[] ASSIGNED = ByteLineTokenizer.ascii("assigned");
+    // The field of the Opaque ID, which may be followed by extension fields
+    private static final int OPAQUE_ID = 7;
+    // The byte ranges below this size are parsed sequentially
+    static final int CHUNK_SIZE = 512 * 1024;
+
+    /**
+     * The (Opaque ID, ASN) pairs of the asn records of a delegation file or of a byte range of it, in file order,
+     * and the prefixes of the ipv4 and ipv6 records if they were requested
+     */
+    public static class Result {
+        private String[] opaqueIds;
+        private int[] asns;
+        private int count = 0;
+        private int skipped = 0;
+        private PrefixIndex.Records ipv4Prefixes = null;
+        private PrefixIndex.Records ipv6Prefixes = null;
+        private int skippedPrefixes = 0;
+
+        Result(int capacity) {
+            opaqueIds = new String[Math.max(16, capacity)];
+            asns = new int[Math.max(16, capacity)];
+        }
+
+        /**
+         * @param capacity The expected number of asn records
+         * @param prefixCapacity The expected number of prefixes of each family, or -1 if they are not parsed
+         */
+        Result(int capacity, int prefixCapacity) {
+            this(capacity);
+            if (prefixCapacity >= 0) {
+                ipv4Prefixes = new PrefixIndex.Records(prefixCapacity);
+                ipv6Prefixes = new PrefixIndex.Records(prefixCapacity);
+            }
+        }
+
+        private void add(String opaqueId, int asn) {
+            if (count == asns.length) {
+                opaqueIds = Arrays.copyOf(opaqueIds, count * 2);
+                asns = Arrays.copyOf(asns, count * 2);
+            }
+            opaqueIds[count] = opaqueId;
+            asns[count] = asn;
+            count++;
+        }
+
+        /**
+         * @return Result The records of this result followed by the records of the other
+         */
+        private Result concat(Result other) {
+            Result merged = new Result(count + other.count);
+            if (ipv4Prefixes != null) {
+                merged.ipv4Prefixes = ipv4Prefixes.concat(other.ipv4Prefixes);
+                merged.ipv6Prefixes = ipv6Prefixes.concat(other.ipv6Prefixes);
+                merged.skippedPrefixes = skippedPrefixes + other.skippedPrefixes;
+            }
+            System.arraycopy(opaqueIds, 0, merged.opaqueIds, 0, count);
+            System.arraycopy(asns, 0, merged.asns, 0, count);
+            System.arraycopy(other.opaqueIds, 0, merged.opaqueIds, count, other.count);
+            System.arraycopy(other.asns, 0, merged.asns, count, other.count);
+            merged.count = count + other.count;
+            merged.skipped = skipped + other.skipped;
+            return merged;
+        }
+
+        public String[] getOpaqueIds() {
+            return opaqueIds;
+        }
+
+        public int[] getAsns() {
+            return asns;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @return int The number of asn records without a valid ASN range, or that are not allocated or assigned
+         *             to an Opaque ID
+         */
+        public int skipped() {
+            return skipped;
+        }
+
+        /**
+         * @return PrefixIndex.Records The CIDR prefixes of the ipv4 records, or null if they were not parsed
+         */
+        public PrefixIndex.Records getIpv4Prefixes() {
+            return ipv4Prefixes;
+        }
+
+        /**
+         * @return PrefixIndex.Records The prefixes of the ipv6 records, or null if they were not parsed
+         */
+        public PrefixIndex.Records getIpv6Prefixes() {
+            return ipv6Prefixes;
+        }
+
+        /**
+         * @return int The number of allocated or assigned ipv4 and ipv6 records without a valid prefix
+         */
+        public int skippedPrefixes() {
+            return skippedPrefixes;
+        }
+    }
+
+    /**
+     * Splits a byte range in two at the first line boundary after its middle until the ranges are small enough
+     */
+    private static class ChunkTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer data;
+        private final int start;
+        private final int end;
+        private final boolean prefixes;
+
+        ChunkTask(ByteBuffer data, int start, int end, boolean prefixes) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        protected Result compute() {
+            int split = end - start > CHUNK_SIZE ? lineBoundary(data, start + (end - start) / 2, end) : end;
+            if (split >= end)
+                return parse(data, start, end, prefixes);
+
+            ChunkTask left = new ChunkTask(data, start, split, prefixes);
+            left.fork();
+            Result right = new ChunkTask(data, split, end, prefixes).compute();
+            return left.join().concat(right);
+        }
+    }
+
+    /**
+     * Parses a delegation file on a fork/join pool
+     * @param data The content of the delegation file
+     * @param pool The pool that parses the byte ranges of the file
+     * @return Result The (Opaque ID, ASN) pairs of the asn records in file order
+     */
+    public static Result parse(byte[] data, ForkJoinPool pool) {
+        return parse(data, pool, false);
+    }
+
+    /**
+     * Parses a delegation file on a fork/join pool
+     * @param data The content of the delegation file
+     * @param pool The pool that parses the byte ranges of the file
+     * @param prefixes If true, the prefixes of the ipv4 and ipv6 records are parsed too
+     * @return Result The (Opaque ID, ASN) pairs of the asn records and the prefixes in file order
+     */
+    public static Result parse(byte[] data, ForkJoinPool pool, boolean prefixes) {
+        return pool.invoke(new ChunkTask(ByteBuffer.wrap(data), 0, data.length, prefixes));
+    }
+
+    /**
+     * Parses a delegation file on a fork/join pool from a read-only mapping of the file, or sequentially from
+     * the stream if it is gzipped or too large to be mapped in one buffer
+     * @param file The delegation file, gzipped if its name ends with .gz
+     * @param pool The pool that parses the byte ranges of the file
+     * @param prefixes If true, the prefixes of the ipv4 and ipv6 records are parsed too
+     * @return Result The (Opaque ID, ASN) pairs of the asn records and the prefixes in file order
+     * @throws IOException When the file cannot be read
+     */
+    public static Result parse(Path file, ForkJoinPool pool, boolean prefixes) throws IOException {
+        if (!file.toString().endsWith(".gz")) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size <= Integer.MAX_VALUE) {
+                    // The mapping stays valid after the channel is closed
+                    ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    return pool.invoke(new ChunkTask(data, 0, (int) size, prefixes));
+                }
+            }
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            return parse(file.toString().endsWith(".gz") ? new GZIPInputStream(in, 65536) : in, prefixes);
+        }
+    }
+
+    /**
+     * Parses a delegation file sequentially from a stream, a line at a time
+     * @param in The stream of the delegation file
+     * @param prefixes If true, the prefixes of the ipv4 and ipv6 records are parsed too
+     * @return Result The (Opaque ID, ASN) pairs of the asn records and the prefixes in file order
+     * @throws IOException When reading the stream fails
+     */
+    public static Result parse(InputStream in, boolean prefixes) throws IOException {
+        Result result = new Result(16, prefixes ? 16 : -1);
+        parse(new ByteLineTokenizer(in), result, prefixes);
+        return result;
+    }
+
+    /**
+     * Parses a byte range of a delegation file sequentially
+     * @param data The content of the delegation file
+     * @param start The start of the range, at the start of a line
+     * @param end The end of the range, after the end of a line
+     * @return Result The (Opaque ID, ASN) pairs of the asn records of the range in file order
+     */
+    public static Result parse(byte[] data, int start, int end) {
+        return parse(data, start, end, false);
+    }
+
+    /**
+     * Parses a byte range of a delegation file sequentially
+     * @param data The content of the delegation file
+     * @param start The start of the range, at the start of a line
+     * @param end The end of the range, after the end of a line
+     * @param prefixes If true, the prefixes of the allocated and assigned ipv4 and ipv6 records are parsed too
+     * @return Result The (Opaque ID, ASN) pairs of the asn records and the prefixes of the range in file order
+     */
+    public static Result parse(byte[] data, int start, int end, boolean prefixes) {
+        return parse(ByteBuffer.wrap(data), start, end, prefixes);
+    }
+
+    private static Result parse(ByteBuffer data, int start, int end, boolean prefixes) {
+        // About one in six lines of an average of 60 bytes is an asn record, and most of the others are prefixes
+        Result result = new Result((end - start) / 360, prefixes ? (end - start) / 120 : -1);
+        try {
+            parse(new ByteLineTokenizer(new RangeInputStream(data, start, end)), result, prefixes);
+        } catch (IOException e) {
+            // A RangeInputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the records of the lines to the result
+     */
+    private static void parse(ByteLineTokenizer lines, Result result, boolean prefixes) throws IOException {
+        long[] ipv6Address = new long[2];
+        while (lines.nextLine()) {
+            // Only the asn records and the requested prefixes are parsed, the Opaque ID is materialized only for them
+            int fields = lines.split('|', 0);
+            boolean delegated = fields > 7 && (lines.fieldEquals(6, ALLOCATED) || lines.fieldEquals(6, ASSIGNED));
+            if (fields > 6 && lines.fieldEquals(2, ASN_RECORD)) {
+                // The available and reserved records have no Opaque ID, and the value of a record is
+                // its number of consecutive ASNs
+                long asn = lines.fieldAsLong(3);
+                long count = lines.fieldAsLong(4);
+                String opaqueId = delegated ? lines.fieldAsString(OPAQUE_ID) : "";
+                if (asn < 0 || count <= 0 || asn + count - 1 > 0xFFFFFFFFL || opaqueId.isEmpty()) {
+                    result.skipped++;
+                }
+                else {
+                    for (long i = 0; i < count; i++) {
+                        result.add(opaqueId, (int) (asn + i));
+                    }
+                }
+            }
+            else if (prefixes && delegated) {
+                if (lines.fieldEquals(2, IPV4_RECORD)) {
+                    // The value of an ipv4 record is its number of addresses
+                    long address = lines.fieldAsIpv4(3);
+                    long addresses = lines.fieldAsLong(4);
+                    String opaqueId = lines.fieldAsString(OPAQUE_ID);
+                    if (address < 0 || addresses <= 0 || address + addresses > 1L << 32 || opaqueId.isEmpty())
+                        result.skippedPrefixes++;
+                    else
+                        result.ipv4Prefixes.addIpv4Range(opaqueId, address, addresses);
+                }
+                else if (lines.fieldEquals(2, IPV6_RECORD)) {
+                    // The value of an ipv6 record is its prefix length, indexed up to /64
+                    long length = lines.fieldAsLong(4);
+                    String opaqueId = lines.fieldAsString(OPAQUE_ID);
+                    if (!lines.fieldAsIpv6(3, ipv6Address) || length < 0 || length > 128 || opaqueId.isEmpty())
+                        result.skippedPrefixes++;
+                    else
+                        result.ipv6Prefixes.add(opaqueId, ipv6Address[0], (int) Math.min(64, length));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a byte range of a heap or mapped buffer without copying the range, so that the ranges of a buffer
+     * can be read by concurrent tasks
+     */
+    private static class RangeInputStream extends InputStream {
+        private final ByteBuffer range;
+
+        RangeInputStream(ByteBuffer data, int start, int end) {
+            range = data.duplicate();
+            range.limit(end).position(start);
+        }
+
+        @Override
+        public int read() {
+            return range.hasRemaining() ? range.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (!range.hasRemaining())
+                return -1;
+            int read = Math.min(length, range.remaining());
+            range.get(buffer, offset, read);
+            return read;
+        }
+    }
+
+    /**
+     * @return int The position after the first line feed at or after the position, or the end of the range
+     */
+    private static int lineBoundary(ByteBuffer data, int position, int end) {
+        for (int i = position; i < end; i++) {
+            if (data.get(i) == '\n')
+                return i + 1;
+        }
+
+        return end;
+    }
+}
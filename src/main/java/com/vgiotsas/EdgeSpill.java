@@ -0,0 +1,445 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An external sort of the (evidence key, ASN) edges of the sibling clusters, whose heap is bounded by a memory budget
+ * regardless of the number of edges. The edges are appended to a byte arena of variable-length records; when the
+ * arena is full they are sorted by key space, key and ASN and written to a run file in the spill directory.
+ * {@link #merge} combines the runs with a k-way merge, in several passes if there are more runs than the budget
+ * can read at once, and streams the ASNs of each key in order, so that the clustering never holds the keys.
+ * The final pass keeps the first record of each key in an anchor run, which is merged with the edges that
+ * are added after the merge, so that they are linked to the ASNs of the same key that were merged before.
+ * <p>
+ * A record is the key space, the length of the key, the key bytes, the UTF-8 string or the big-endian number,
+ * and the ASN. Duplicate records are dropped when a run is written.
+ * <p>
+ * The budget only bounds the evidence keys of the clusters and their edges, so the peak heap of a run is not
+ * bounded by it. The delegation files are mapped rather than read onto the heap, and with a budget the names of
+ * the bulk WHOIS dumps are read in a second pass for the resolved organizations only. The other structures
+ * of a run are not spilled and grow with their own inputs: the records of each parsed delegation file,
+ * the {@link OpaqueIdGroups}, which hold every ASN record of the delegation files, and the {@link AsnRangeIndex}
+ * of the ASN ranges and organizations of each bulk WHOIS dump.
+ */
+public class EdgeSpill implements Closeable {
+
+    // The buffer of each run file that is read or written
+    private static final int IO_BUFFER = 64 * 1024;
+    // The bytes of the index of a record in the arena and of the sort buffer
+    private static final int INDEX_BYTES = 8;
+    // The budget per record of the arena and of the index, from the 15 to 30 bytes of the Opaque IDs and URLs
+    private static final int RECORD_BUDGET = 32;
+    private static final int HEADER_BYTES = 3;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+
+    /**
+     * Receives the merged edges, for each key first with the smallest ASN of the key as both ASNs,
+     * then with the smallest ASN and each other ASN of the key
+     */
+    public interface EdgeConsumer {
+        void edge(int anchorAsn, int asn);
+    }
+
+    /**
+     * Reads the records of a run file in order
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int keySpace;
+        private byte[] key = new byte[64];
+        private int keyLength;
+        private int asn;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER));
+        }
+
+        /**
+         * @return boolean False at the end of the run
+         */
+        boolean next() throws IOException {
+            keySpace = in.read();
+            if (keySpace < 0)
+                return false;
+            keyLength = in.readUnsignedShort();
+            if (key.length < keyLength)
+                key = new byte[Math.max(keyLength, key.length * 2)];
+            in.readFully(key, 0, keyLength);
+            asn = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private final Path directory;
+    private final long budget;
+    private final int maxRecords;
+    private final int arenaSize;
+    private byte[] arena;
+    private int[] records;
+    private int[] sortBuffer;
+    private int arenaUsed = 0;
+    private int recordCount = 0;
+    private final List<Path> runs = new ArrayList<>();
+    private int runFiles = 0;
+    private int arenaRuns = 0;
+    private long spilledEdges = 0;
+    private long spilledBytes = 0;
+    private long mergePasses = 0;
+    // True if edges were added since the last merge
+    private boolean pending = false;
+
+    /**
+     * @param directory The directory of the run files, created if it does not exist
+     * @param budget The heap of the arena and of the merge buffers in bytes
+     * @throws IOException When the directory cannot be created
+     */
+    public EdgeSpill(Path directory, long budget) throws IOException {
+        if (budget < 4 * IO_BUFFER)
+            throw new IllegalArgumentException("The spill budget must be at least " + 4 * IO_BUFFER / 1024 + " KB");
+        this.directory = directory;
+        this.budget = budget;
+        Files.createDirectories(directory);
+        maxRecords = (int) Math.min(Integer.MAX_VALUE - 8, budget / RECORD_BUDGET);
+        // The buffer of the run that is written is part of the budget
+        arenaSize = (int) Math.min(Integer.MAX_VALUE - 8, budget - (long) maxRecords * INDEX_BYTES - IO_BUFFER);
+    }
+
+    /**
+     * Adds an edge between an ASN and a string key
+     * @param keySpace The key space of the key
+     * @param key The key
+     * @param asn The ASN
+     * @throws IOException When a run cannot be written
+     */
+    public void add(int keySpace, String key, int asn) throws IOException {
+        int length = key.length();
+        ensureCapacity(HEADER_BYTES + 3 * length + 4);
+        int start = arenaUsed;
+        int position = start + HEADER_BYTES;
+        // Encode the ASCII keys in place, and the others through their UTF-8 bytes
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(bytes, 0, arena, start + HEADER_BYTES, bytes.length);
+                position = start + HEADER_BYTES + bytes.length;
+                break;
+            }
+            arena[position++] = (byte) c;
+        }
+        finishRecord(keySpace, start, position, asn);
+    }
+
+    /**
+     * Adds an edge between an ASN and a numeric key
+     * @param keySpace The key space of the key
+     * @param key The key
+     * @param asn The ASN
+     * @throws IOException When a run cannot be written
+     */
+    public void add(int keySpace, int key, int asn) throws IOException {
+        ensureCapacity(HEADER_BYTES + 8);
+        int start = arenaUsed;
+        int position = start + HEADER_BYTES;
+        // Flip the sign bit so that the keys sort as numbers
+        position = putInt(arena, position, key ^ Integer.MIN_VALUE);
+        finishRecord(keySpace, start, position, asn);
+    }
+
+    private void finishRecord(int keySpace, int start, int keyEnd, int asn) {
+        int keyLength = keyEnd - start - HEADER_BYTES;
+        if (keyLength > MAX_KEY_LENGTH)
+            throw new IllegalArgumentException("Evidence key of " + keyLength + " bytes");
+        arena[start] = (byte) keySpace;
+        arena[start + 1] = (byte) (keyLength >>> 8);
+        arena[start + 2] = (byte) keyLength;
+        arenaUsed = putInt(arena, keyEnd, asn);
+        records[recordCount++] = start;
+        pending = true;
+    }
+
+    /**
+     * Spills the records to a run if the arena cannot hold another record of the given size
+     */
+    private void ensureCapacity(int recordSize) throws IOException {
+        if (arena == null) {
+            arena = new byte[arenaSize];
+            records = new int[maxRecords];
+            sortBuffer = new int[maxRecords];
+        }
+        if (recordSize > arenaSize)
+            throw new IllegalArgumentException("Evidence key of " + recordSize + " bytes above the spill budget");
+        if (arenaUsed + recordSize > arenaSize || recordCount == maxRecords)
+            spill();
+    }
+
+    /**
+     * Sorts the records of the arena and writes them to a new run
+     */
+    private void spill() throws IOException {
+        if (recordCount == 0)
+            return;
+
+        sort(records, sortBuffer, recordCount);
+        Path run = newRun();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER))) {
+            for (int i = 0; i < recordCount; i++) {
+                if (i > 0 && compare(arena, records[i - 1], arena, records[i]) == 0)
+                    continue;
+                int start = records[i];
+                int length = HEADER_BYTES + keyLength(arena, start) + 4;
+                out.write(arena, start, length);
+                spilledEdges++;
+                spilledBytes += length;
+            }
+        }
+        runs.add(run);
+        arenaRuns++;
+        arenaUsed = 0;
+        recordCount = 0;
+    }
+
+    /**
+     * Merges the runs and streams the edges of each key in order. The arena is released first, so the merge
+     * uses the whole budget for the buffers of the runs it reads at once.
+     * @param consumer The consumer of the edges
+     * @throws IOException When a run cannot be read or written
+     */
+    public void merge(EdgeConsumer consumer) throws IOException {
+        if (!pending)
+            return;
+        spill();
+        arena = null;
+        records = null;
+        sortBuffer = null;
+
+        // One buffer for each run read, and one for the run that is written
+        int fanIn = (int) Math.max(2, budget / IO_BUFFER - 1);
+        while (runs.size() > fanIn) {
+            List<Path> pass = new ArrayList<>(runs.subList(0, fanIn));
+            runs.subList(0, fanIn).clear();
+            Path merged = newRun();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged),
+                    IO_BUFFER))) {
+                mergeRuns(pass, (reader, first) -> writeRecord(out, reader));
+            }
+            runs.add(merged);
+            mergePasses++;
+        }
+
+        int[] anchor = new int[1];
+        Path anchors = newRun();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(anchors),
+                IO_BUFFER))) {
+            mergeRuns(new ArrayList<>(runs), (reader, first) -> {
+                if (first) {
+                    anchor[0] = reader.asn;
+                    writeRecord(out, reader);
+                }
+                consumer.edge(anchor[0], reader.asn);
+            });
+        }
+        runs.clear();
+        runs.add(anchors);
+        mergePasses++;
+        pending = false;
+    }
+
+    private interface RecordSink {
+        /**
+         * @param reader The reader positioned on the record
+         * @param first True if the record is the first of its key
+         */
+        void accept(RunReader reader, boolean first) throws IOException;
+    }
+
+    /**
+     * Merges the runs in order, dropping the duplicate records, and deletes them
+     */
+    private void mergeRuns(List<Path> runFiles, RecordSink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()), (a, b) -> {
+            int c = compareKeys(a, b);
+            return c != 0 ? c : Integer.compare(a.asn, b.asn);
+        });
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (Path run: runFiles) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+
+            // The key space, key and ASN of the last record passed to the sink
+            int lastSpace = -1;
+            byte[] lastKey = new byte[64];
+            int lastLength = 0;
+            int lastAsn = 0;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                boolean sameKey = reader.keySpace == lastSpace && reader.keyLength == lastLength
+                        && compareBytes(reader.key, 0, lastKey, 0, lastLength) == 0;
+                if (!sameKey || reader.asn != lastAsn) {
+                    sink.accept(reader, !sameKey);
+                    if (!sameKey) {
+                        lastSpace = reader.keySpace;
+                        if (lastKey.length < reader.keyLength)
+                            lastKey = new byte[Math.max(reader.keyLength, lastKey.length * 2)];
+                        System.arraycopy(reader.key, 0, lastKey, 0, reader.keyLength);
+                        lastLength = reader.keyLength;
+                    }
+                    lastAsn = reader.asn;
+                }
+                if (reader.next())
+                    queue.add(reader);
+            }
+        } finally {
+            for (RunReader reader: readers) {
+                reader.close();
+            }
+            for (Path run: runFiles) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, RunReader reader) throws IOException {
+        out.write(reader.keySpace);
+        out.writeShort(reader.keyLength);
+        out.write(reader.key, 0, reader.keyLength);
+        out.writeInt(reader.asn);
+    }
+
+    private Path newRun() {
+        return directory.resolve("edges-" + (runFiles++) + ".run");
+    }
+
+    /**
+     * @return long The distinct edges written to the runs of the arena
+     */
+    public long spilledEdges() {
+        return spilledEdges;
+    }
+
+    /**
+     * @return long The bytes written to the runs of the arena, without the intermediate merge passes
+     */
+    public long spilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return int The number of runs written from the arena
+     */
+    public int runCount() {
+        return arenaRuns;
+    }
+
+    /**
+     * @return long The number of merge passes, including the final one
+     */
+    public long mergePasses() {
+        return mergePasses;
+    }
+
+    /**
+     * Deletes the runs that were not merged
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run: runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        arena = null;
+        records = null;
+        sortBuffer = null;
+    }
+
+    private static int putInt(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) (value >>> 24);
+        bytes[position + 1] = (byte) (value >>> 16);
+        bytes[position + 2] = (byte) (value >>> 8);
+        bytes[position + 3] = (byte) value;
+        return position + 4;
+    }
+
+    private static int getInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16
+                | (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+    }
+
+    private static int keyLength(byte[] bytes, int start) {
+        return (bytes[start + 1] & 0xFF) << 8 | bytes[start + 2] & 0xFF;
+    }
+
+    /**
+     * Compares two records of the arena by key space, key and ASN
+     */
+    private static int compare(byte[] a, int startA, byte[] b, int startB) {
+        if (a[startA] != b[startB])
+            return Integer.compare(a[startA] & 0xFF, b[startB] & 0xFF);
+        int lengthA = keyLength(a, startA);
+        int lengthB = keyLength(b, startB);
+        int c = compareBytes(a, startA + HEADER_BYTES, b, startB + HEADER_BYTES, Math.min(lengthA, lengthB));
+        if (c != 0 || lengthA != lengthB)
+            return c != 0 ? c : Integer.compare(lengthA, lengthB);
+        return Integer.compare(getInt(a, startA + HEADER_BYTES + lengthA), getInt(b, startB + HEADER_BYTES + lengthB));
+    }
+
+    /**
+     * Compares the keys of two readers in the order of {@link #compare}
+     */
+    private static int compareKeys(RunReader a, RunReader b) {
+        if (a.keySpace != b.keySpace)
+            return Integer.compare(a.keySpace, b.keySpace);
+        int c = compareBytes(a.key, 0, b.key, 0, Math.min(a.keyLength, b.keyLength));
+        return c != 0 ? c : Integer.compare(a.keyLength, b.keyLength);
+    }
+
+    private static int compareBytes(byte[] a, int startA, byte[] b, int startB, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[startA + i] != b[startB + i])
+                return Integer.compare(a[startA + i] & 0xFF, b[startB + i] & 0xFF);
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts the offsets of the records with a bottom-up merge sort
+     */
+    private void sort(int[] offsets, int[] buffer, int count) {
+        int[] from = offsets;
+        int[] to = buffer;
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int mid = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int left = low;
+                int right = mid;
+                for (int i = low; i < high; i++) {
+                    if (right == high || left < mid && compare(arena, from[left], arena, from[right]) <= 0)
+                        to[i] = from[left++];
+                    else
+                        to[i] = from[right++];
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != offsets)
+            System.arraycopy(from, 0, offsets, 0, count);
+    }
+}
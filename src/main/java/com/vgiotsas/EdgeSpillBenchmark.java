@@ -0,0 +1,127 @@
+package com.vgiotsas;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the clustering of the evidence keys in memory with the external sort of the EdgeSpill at several
+ * memory budgets, on a synthetic stream of (Opaque ID, ASN) and (organization ID, ASN) edges with as many distinct
+ * keys as an IRR dump. The edges are generated while they are added, so the heap only holds the clustering.
+ * Each mode reports its time, its throughput, the heap retained after all the edges are added, before they
+ * are clustered, and for the external sort its runs and merge passes. The clusters of each budget are checked
+ * against the clusters in memory.
+ * <pre>
+ * java -Xmx2g com.vgiotsas.EdgeSpillBenchmark [--edges 10000000] [--budgets 4,16,64,256] [--dir spill-benchmark]
+ *                                             [--no-memory]
+ * </pre>
+ */
+public class EdgeSpillBenchmark {
+
+    private static final long SEED = 42;
+    // The ASNs of the edges, above the number of allocated ASNs
+    private static final int ASN_SPACE = 1 << 20;
+
+    public static void main(String[] args) throws IOException {
+        int edges = 10000000;
+        int[] budgets = {4, 16, 64, 256};
+        Path directory = Paths.get("spill-benchmark");
+        boolean inMemory = true;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--edges") && i + 1 < args.length) {
+                edges = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--budgets") && i + 1 < args.length) {
+                budgets = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            }
+            else if (args[i].equals("--dir") && i + 1 < args.length) {
+                directory = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--no-memory")) {
+                inMemory = false;
+            }
+            else {
+                System.out.println("Usage: EdgeSpillBenchmark [--edges 10000000] [--budgets 4,16,64,256] "
+                        + "[--dir spill-benchmark] [--no-memory]");
+                return;
+            }
+        }
+        System.out.printf("%d edges, max heap %.0f MB%n", edges, Runtime.getRuntime().maxMemory() / (1024.0 * 1024.0));
+
+        List<int[]> expected = null;
+        if (inMemory)
+            expected = measure("memory", new SiblingClusters(), edges, null);
+        for (int budget: budgets) {
+            try (EdgeSpill spill = new EdgeSpill(directory, budget * 1024L * 1024L)) {
+                List<int[]> clusters = measure(budget + " MB", new SiblingClusters(spill), edges, spill);
+                if (expected != null && !sameClusters(expected, clusters))
+                    System.out.println("The clusters of the " + budget + " MB budget differ from the clusters in memory");
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Adds the synthetic edges to the clusters and builds the clusters
+     * @return List<int[]> The clusters of at least two ASNs
+     */
+    private static List<int[]> measure(String name, SiblingClusters clusters, int edges, EdgeSpill spill) {
+        long start = System.nanoTime();
+        addEdges(clusters, edges);
+        long added = System.nanoTime();
+        long retained = retainedHeap();
+        long pause = System.nanoTime() - added;
+        List<int[]> result = clusters.getClusters(2);
+        long elapsed = System.nanoTime() - start - pause;
+
+        System.out.printf("%-8s %8.1f s %8.2f Medges/s %8.1f MB retained %8d clusters", name, elapsed / 1e9,
+                edges / (elapsed / 1e3), retained / (1024.0 * 1024.0), result.size());
+        if (spill != null)
+            System.out.printf(" %6d runs %3d merge passes %8.1f MB spilled", spill.runCount(), spill.mergePasses(),
+                    spill.spilledBytes() / (1024.0 * 1024.0));
+        System.out.println();
+
+        return result;
+    }
+
+    /**
+     * Adds the same stream of edges for every mode, two per key on average: two thirds of the keys are
+     * Opaque IDs and the rest are organization IDs
+     */
+    private static void addEdges(SiblingClusters clusters, int edges) {
+        Random random = new Random(SEED);
+        int keys = Math.max(1, edges / 2);
+        for (int i = 0; i < edges; i++) {
+            int key = random.nextInt(keys);
+            int asn = 1 + random.nextInt(ASN_SPACE);
+            if (key % 3 == 0)
+                clusters.addEvidence(SiblingClusters.Evidence.ORG_ID, key, asn);
+            else
+                clusters.addEvidence(SiblingClusters.Evidence.OPAQUE_ID, "ripencc-" + key, asn);
+        }
+    }
+
+    /**
+     * @return long The heap retained after full garbage collections
+     */
+    private static long retainedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static boolean sameClusters(List<int[]> a, List<int[]> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.vgiotsas;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with power-of-two microsecond buckets, which can be updated
+ * concurrently by the request threads. Percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    // Bucket i counts the latencies in [2^(i-1), 2^i) microseconds, bucket 0 the latencies below 1 microsecond
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        counts.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * @param quantile The quantile between 0 and 1, e.g. 0.99
+     * @return long The upper bound of the bucket of the quantile in microseconds, or 0 if nothing was recorded
+     */
+    public long percentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return 1L << i;
+        }
+
+        return 1L << (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.vgiotsas;
+
+/**
+ * Open-addressing hash map from long keys to int values, without boxing.
+ * Used for the maps keyed by 64-bit hashes, such as the hashes of normalized domains.
+ */
+public class LongIntHashMap {
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size = 0;
+    private final int missingValue;
+
+    /**
+     * @param missingValue The value returned by get for keys that are not in the map
+     */
+    public LongIntHashMap(int missingValue) {
+        this(16, missingValue);
+    }
+
+    /**
+     * @param expectedSize The number of entries to allocate space for
+     * @param missingValue The value returned by get for keys that are not in the map
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.used = new boolean[capacity];
+        this.missingValue = missingValue;
+    }
+
+    /**
+     * @return int The value of the key, or the missing value if the key is not in the map
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    /**
+     * @return int The previous value of the key, or the missing value if the key was not in the map
+     */
+    public int put(long key, int value) {
+        int slot = find(key);
+        if (used[slot]) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        // Keep the load factor below 1/2
+        if (++size * 2 > keys.length)
+            rehash();
+
+        return missingValue;
+    }
+
+    /**
+     * Adds the key with the value if it is not in the map
+     * @return int The current value of the key, or the missing value if the key has been added
+     */
+    public int putIfAbsent(long key, int value) {
+        int slot = find(key);
+        if (used[slot])
+            return values[slot];
+
+        put(key, value);
+        return missingValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = IntIntHashMap.mix((int) (key ^ (key >>> 32))) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldUsed[slot]) {
+                int newSlot = find(oldKeys[slot]);
+                used[newSlot] = true;
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+}
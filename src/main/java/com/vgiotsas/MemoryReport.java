@@ -0,0 +1,53 @@
+package com.vgiotsas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the heap retained after each stage of a run, to compare the memory footprint of the collector
+ * between versions. The retained heap is measured after a full garbage collection, so the report is
+ * only enabled on request.
+ */
+public class MemoryReport {
+
+    private final boolean enabled;
+    private final List<String> stages = new ArrayList<>();
+    private final List<Long> retained = new ArrayList<>();
+
+    /**
+     * @param enabled If false, the report records nothing and does not trigger garbage collections
+     */
+    public MemoryReport(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Records the heap retained at the end of a stage
+     * @param stage The name of the stage
+     */
+    public void record(String stage) {
+        if (!enabled)
+            return;
+
+        Runtime runtime = Runtime.getRuntime();
+        // Repeat the collection since a single System.gc() may not release all the unreachable objects
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        stages.add(stage);
+        retained.add(runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Prints the retained heap of each recorded stage
+     */
+    public void print() {
+        if (!enabled)
+            return;
+
+        for (int i = 0; i < stages.size(); i++) {
+            System.out.printf("retained heap after %-8s %8.1f MB%n", stages.get(i) + ":",
+                    retained.get(i) / (1024.0 * 1024.0));
+        }
+    }
+}
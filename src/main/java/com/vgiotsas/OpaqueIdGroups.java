@@ -0,0 +1,208 @@
+package com.vgiotsas;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ASNs delegated under each Opaque ID of the RIR extended delegation files, and the RIR of each ASN.
+ * Opaque IDs are interned and the (Opaque ID, ASN) records are kept in primitive int arrays while parsing.
+ * After {@link #build()} the groups are stored as sorted, deduplicated int arrays in a single members array
+ * indexed by offsets, ordered by the first appearance of each Opaque ID.
+ */
+public class OpaqueIdGroups {
+
+    private final String[] rirNames;
+    private final StringTable opaqueIds = new StringTable();
+    private int[] recordIds = new int[1024];
+    private int[] recordAsns = new int[1024];
+    private int records = 0;
+    private final IntIntHashMap asnRir = new IntIntHashMap(-1);
+
+    private int[] offsets = null;
+    private int[] members = null;
+    private IntIntHashMap asnGroup = null;
+
+    /**
+     * @param rirNames The names of the RIRs, indexed by the RIR index passed to {@link #add}
+     */
+    public OpaqueIdGroups(String[] rirNames) {
+        this.rirNames = rirNames;
+    }
+
+    /**
+     * Adds the records of a delegation file
+     * @param rir The index of the RIR of the delegation file
+     * @param opaqueIds The Opaque ID of each record
+     * @param asns The ASN of each record
+     * @param count The number of records
+     */
+    public synchronized void addAll(int rir, String[] opaqueIds, int[] asns, int count) {
+        for (int i = 0; i < count; i++) {
+            if (records == recordIds.length) {
+                recordIds = Arrays.copyOf(recordIds, records * 2);
+                recordAsns = Arrays.copyOf(recordAsns, records * 2);
+            }
+            recordIds[records] = this.opaqueIds.intern(opaqueIds[i]);
+            recordAsns[records] = asns[i];
+            records++;
+            asnRir.put(asns[i], rir);
+        }
+        offsets = null;
+    }
+
+    /**
+     * Writes the interned Opaque IDs and the records in the order they were added
+     * @param out The stream to write to
+     * @throws IOException When writing fails
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(opaqueIds.size());
+        for (int i = 0; i < opaqueIds.size(); i++) {
+            out.writeUTF(opaqueIds.get(i));
+        }
+        out.writeInt(records);
+        for (int i = 0; i < records; i++) {
+            out.writeInt(recordIds[i]);
+            out.writeInt(recordAsns[i]);
+            out.writeByte(asnRir.get(recordAsns[i]));
+        }
+    }
+
+    /**
+     * Reads the records written by {@link #write}, the groups are built as they were before they were written
+     * @param in The stream to read from
+     * @param rirNames The names of the RIRs, indexed by the RIR index of the records
+     * @return OpaqueIdGroups The groups of the records, to be built
+     * @throws IOException When reading fails
+     */
+    public static OpaqueIdGroups read(DataInputStream in, String[] rirNames) throws IOException {
+        OpaqueIdGroups groups = new OpaqueIdGroups(rirNames);
+        int ids = in.readInt();
+        for (int i = 0; i < ids; i++) {
+            groups.opaqueIds.intern(in.readUTF());
+        }
+        groups.records = in.readInt();
+        groups.recordIds = new int[Math.max(1024, groups.records)];
+        groups.recordAsns = new int[Math.max(1024, groups.records)];
+        for (int i = 0; i < groups.records; i++) {
+            groups.recordIds[i] = in.readInt();
+            groups.recordAsns[i] = in.readInt();
+            groups.asnRir.put(groups.recordAsns[i], in.readByte());
+        }
+
+        return groups;
+    }
+
+    /**
+     * Groups the records by Opaque ID with a counting sort
+     */
+    public synchronized void build() {
+        int groups = opaqueIds.size();
+        int[] counts = new int[groups + 1];
+        for (int i = 0; i < records; i++) {
+            counts[recordIds[i] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            counts[g + 1] += counts[g];
+        }
+        int[] grouped = new int[records];
+        int[] next = Arrays.copyOf(counts, groups);
+        for (int i = 0; i < records; i++) {
+            grouped[next[recordIds[i]]++] = recordAsns[i];
+        }
+
+        // Sort and deduplicate the ASNs of each group in place
+        offsets = new int[groups + 1];
+        int filled = 0;
+        for (int g = 0; g < groups; g++) {
+            Asns.sort(grouped, counts[g], counts[g + 1]);
+            offsets[g] = filled;
+            for (int i = counts[g]; i < counts[g + 1]; i++) {
+                if (i == counts[g] || grouped[i] != grouped[i - 1])
+                    grouped[filled++] = grouped[i];
+            }
+        }
+        offsets[groups] = filled;
+        members = Arrays.copyOf(grouped, filled);
+
+        asnGroup = new IntIntHashMap(filled, -1);
+        for (int g = 0; g < groups; g++) {
+            for (int i = offsets[g]; i < offsets[g + 1]; i++) {
+                asnGroup.putIfAbsent(members[i], g);
+            }
+        }
+    }
+
+    /**
+     * @return int The number of Opaque IDs
+     */
+    public int size() {
+        return opaqueIds.size();
+    }
+
+    /**
+     * @return int The group of the Opaque ID, or -1 if it has no asn records
+     */
+    public int indexOf(String opaqueId) {
+        return opaqueIds.indexOf(opaqueId);
+    }
+
+    public String opaqueId(int group) {
+        return opaqueIds.get(group);
+    }
+
+    public int groupSize(int group) {
+        return offsets[group + 1] - offsets[group];
+    }
+
+    /**
+     * @return int The i-th smallest ASN of the group
+     */
+    public int member(int group, int i) {
+        return members[offsets[group] + i];
+    }
+
+    /**
+     * @param minSize The minimum number of ASNs of the returned groups
+     * @return int[] The groups with at least minSize ASNs, ordered by their ASNs and then by their Opaque ID,
+     * which does not depend on the order in which the delegation files were parsed
+     */
+    public int[] sortedGroups(int minSize) {
+        List<Integer> groups = new ArrayList<>();
+        for (int g = 0; g < size(); g++) {
+            if (groupSize(g) >= minSize)
+                groups.add(g);
+        }
+        groups.sort((a, b) -> {
+            for (int i = 0; i < Math.min(groupSize(a), groupSize(b)); i++) {
+                if (member(a, i) != member(b, i))
+                    return Asns.compare(member(a, i), member(b, i));
+            }
+            if (groupSize(a) != groupSize(b))
+                return Integer.compare(groupSize(a), groupSize(b));
+            return opaqueId(a).compareTo(opaqueId(b));
+        });
+
+        return groups.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return String The Opaque ID of the ASN, or null if the ASN is not delegated
+     */
+    public String opaqueIdOf(int asn) {
+        int group = asnGroup.get(asn);
+        return group >= 0 ? opaqueIds.get(group) : null;
+    }
+
+    /**
+     * @return String The name of the RIR of the ASN, or null if the ASN is not delegated
+     */
+    public synchronized String rirOf(int asn) {
+        int rir = asnRir.get(asn);
+        return rir >= 0 ? rirNames[rir] : null;
+    }
+}
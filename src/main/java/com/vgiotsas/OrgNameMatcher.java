@@ -0,0 +1,304 @@
+package com.vgiotsas;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Proposes matches between similar organization names, e.g. "Limelight Networks, Inc." and
+ * "Limelight Networks India", in sub-quadratic time with MinHash and locality-sensitive hashing.
+ * <p>
+ * Each name is normalized (lower case, no accents, punctuation or legal forms such as Inc. and GmbH), the words
+ * that appear in more than a small share of all the names (e.g. networks, telecom) are dropped so that they do not
+ * dominate the similarity, and the name is represented by the set of its character 3-grams. The MinHash signature
+ * of the set is split in bands, and only the names that have the same values in at least one band are compared,
+ * with the exact Jaccard similarity of their 3-grams as score. Bands shared by too many names are skipped to keep
+ * the number of comparisons linear; the skipped buckets and their candidate pairs are counted, since a match whose
+ * only shared bands are in skipped buckets is missed.
+ */
+public class OrgNameMatcher {
+
+    /**
+     * A proposed match between the names with indices a &lt; b, in the order they were added
+     */
+    public static class Match {
+        public final int a;
+        public final int b;
+        public final double score;
+
+        Match(int a, int b, double score) {
+            this.a = a;
+            this.b = b;
+            this.score = score;
+        }
+    }
+
+    private static final Set<String> LEGAL_FORMS = new HashSet<>(Arrays.asList(
+            "inc", "incorporated", "ltd", "limited", "llc", "llp", "lp", "corp", "corporation", "co", "company",
+            "gmbh", "mbh", "ag", "kg", "sa", "sas", "sarl", "srl", "spa", "bv", "nv", "ab", "as", "oy", "plc",
+            "pty", "pvt", "sdn", "bhd", "kk", "ltda", "eirl", "ooo", "zao", "oao", "pjsc", "jsc", "the"));
+    private static final int SHINGLE = 3;
+    // The words of more than this share of the names are dropped, if at least COMMON_WORD_MIN_NAMES names have them
+    private static final double COMMON_WORD_SHARE = 0.002;
+    private static final int COMMON_WORD_MIN_NAMES = 20;
+
+    private final int bands;
+    private final int rows;
+    private final int maxBucket;
+    private final int[] seeds;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String[]> words = new ArrayList<>();
+    private int[] sources = new int[1024];
+    private int skippedBuckets = 0;
+    private long skippedPairs = 0;
+
+    /**
+     * @param bands The number of LSH bands
+     * @param rows The number of MinHash values per band
+     * @param maxBucket The maximum number of names with the same band values that are compared with each other
+     */
+    public OrgNameMatcher(int bands, int rows, int maxBucket) {
+        this.bands = bands;
+        this.rows = rows;
+        this.maxBucket = maxBucket;
+        this.seeds = new Random(42).ints(bands * rows).toArray();
+    }
+
+    /**
+     * Adds a name to match, up to 2^24 names
+     * @param name The organization name
+     * @param source The source of the name, e.g. PeeringDB or the RIR, names of the same source are not matched
+     *               with each other if their normalized form is the same
+     * @return int The index of the name, or -1 if nothing is left of the name after normalization
+     */
+    public int add(String name, int source) {
+        String[] nameWords = normalize(name);
+        if (nameWords.length == 0)
+            return -1;
+
+        int index = names.size();
+        if (index == 1 << 24)
+            throw new IllegalStateException("Too many names");
+        if (index == sources.length)
+            sources = Arrays.copyOf(sources, index * 2);
+        names.add(name);
+        words.add(nameWords);
+        sources[index] = source;
+
+        return index;
+    }
+
+    public String name(int index) {
+        return names.get(index);
+    }
+
+    public int source(int index) {
+        return sources[index];
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return int The number of buckets of the last match with more than maxBucket names, over all the bands
+     */
+    public int skippedBuckets() {
+        return skippedBuckets;
+    }
+
+    /**
+     * @return long The number of candidate pairs of the skipped buckets, some of which are also candidates in
+     * other bands
+     */
+    public long skippedPairs() {
+        return skippedPairs;
+    }
+
+    /**
+     * Finds the pairs of names whose similarity is at least the threshold among the candidates of the LSH bands
+     * @param threshold The minimum Jaccard similarity of the 3-grams of two names
+     * @return List<Match> The matches ordered by decreasing score
+     */
+    public List<Match> match(double threshold) {
+        int n = names.size();
+        int[][] shingles = shingles();
+        int hashes = bands * rows;
+        int[] signatures = new int[n * hashes];
+        for (int i = 0; i < n; i++) {
+            for (int h = 0; h < hashes; h++) {
+                int min = Integer.MAX_VALUE;
+                for (int shingle: shingles[i]) {
+                    min = Math.min(min, mix(shingle ^ seeds[h]));
+                }
+                signatures[i * hashes + h] = min;
+            }
+        }
+
+        skippedBuckets = 0;
+        skippedPairs = 0;
+        LongIntHashMap compared = new LongIntHashMap(n * 2, -1);
+        List<Match> matches = new ArrayList<>();
+        long[] buckets = new long[n];
+        for (int band = 0; band < bands; band++) {
+            // The high 40 bits of the hash of the band values and the index of the name in the low 24 bits,
+            // so that sorting groups the names of each bucket
+            for (int i = 0; i < n; i++) {
+                long hash = band;
+                for (int r = 0; r < rows; r++) {
+                    hash = (hash + signatures[i * hashes + band * rows + r]) * 0x9E3779B97F4A7C15L;
+                }
+                buckets[i] = (hash & 0xFFFFFFFFFF000000L) | i;
+            }
+            Arrays.sort(buckets);
+
+            int start = 0;
+            for (int end = 1; end <= n; end++) {
+                if (end < n && (buckets[end] >>> 24) == (buckets[start] >>> 24))
+                    continue;
+                if (end - start <= maxBucket) {
+                    for (int i = start; i < end; i++) {
+                        for (int j = i + 1; j < end; j++) {
+                            compare((int) (buckets[i] & 0xFFFFFF), (int) (buckets[j] & 0xFFFFFF), shingles,
+                                    threshold, compared, matches);
+                        }
+                    }
+                }
+                else {
+                    skippedBuckets++;
+                    skippedPairs += (long) (end - start) * (end - start - 1) / 2;
+                }
+                start = end;
+            }
+        }
+        matches.sort((x, y) -> Double.compare(y.score, x.score));
+
+        return matches;
+    }
+
+    private void compare(int a, int b, int[][] shingles, double threshold, LongIntHashMap compared,
+                         List<Match> matches) {
+        if (a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        if (compared.putIfAbsent(((long) a << 32) | b, 1) >= 0)
+            return;
+        if (sources[a] == sources[b] && Arrays.equals(words.get(a), words.get(b)))
+            return;
+
+        double score = jaccard(shingles[a], shingles[b]);
+        if (score >= threshold)
+            matches.add(new Match(a, b, score));
+    }
+
+    /**
+     * @return int[][] The 3-grams of each name without the common words, or with all its words if they are all common
+     */
+    private int[][] shingles() {
+        Map<String, Integer> frequency = new HashMap<>();
+        for (String[] nameWords: words) {
+            for (String word: new HashSet<>(Arrays.asList(nameWords))) {
+                frequency.merge(word, 1, Integer::sum);
+            }
+        }
+        int common = Math.max(COMMON_WORD_MIN_NAMES, (int) (COMMON_WORD_SHARE * names.size()));
+
+        int[][] shingles = new int[names.size()][];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            sb.setLength(0);
+            for (String word: words.get(i)) {
+                if (frequency.get(word) <= common)
+                    sb.append(' ').append(word);
+            }
+            if (sb.length() == 0) {
+                for (String word: words.get(i)) {
+                    sb.append(' ').append(word);
+                }
+            }
+            shingles[i] = shingles(sb.append(' ').toString());
+        }
+
+        return shingles;
+    }
+
+    /**
+     * Normalizes an organization name to lower-case words without accents, punctuation and legal forms
+     */
+    static String[] normalize(String name) {
+        String plain = Normalizer.normalize(name, Normalizer.Form.NFD);
+        List<String> nameWords = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            }
+            else if (word.length() > 0) {
+                if (!LEGAL_FORMS.contains(word.toString()))
+                    nameWords.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        return nameWords.toArray(new String[0]);
+    }
+
+    /**
+     * @return int[] The sorted distinct hashes of the 3-grams of the text
+     */
+    static int[] shingles(String text) {
+        int[] shingles = new int[Math.max(1, text.length() - SHINGLE + 1)];
+        for (int i = 0; i < shingles.length; i++) {
+            int hash = 0;
+            for (int k = i; k < Math.min(text.length(), i + SHINGLE); k++) {
+                hash = hash * 31 + text.charAt(k);
+            }
+            shingles[i] = hash;
+        }
+        Arrays.sort(shingles);
+
+        int distinct = 0;
+        for (int i = 0; i < shingles.length; i++) {
+            if (i == 0 || shingles[i] != shingles[i - 1])
+                shingles[distinct++] = shingles[i];
+        }
+
+        return Arrays.copyOf(shingles, distinct);
+    }
+
+    /**
+     * @return double The Jaccard similarity of two sorted sets
+     */
+    static double jaccard(int[] a, int[] b) {
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+
+        return (double) common / (a.length + b.length - common);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,100 @@
+package com.vgiotsas;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compares the heap usage and running time of the two PeeringDB ingestion paths on saved API responses:
+ * <ul>
+ *     <li><b>tree</b>: buffer the response lines, join them and parse the whole document with json-simple</li>
+ *     <li><b>stream</b>: tokenize the response with the PdbJsonReader keeping only the used fields</li>
+ * </ul>
+ * Run each mode in a separate JVM so that the peak heap of one mode does not affect the other:
+ * <pre>
+ * java com.vgiotsas.PdbIngestBenchmark tree net.json org.json
+ * java com.vgiotsas.PdbIngestBenchmark stream net.json org.json
+ * </pre>
+ * The saved responses can be obtained with <code>curl https://www.peeringdb.com/api/net &gt; net.json</code>.
+ */
+public class PdbIngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 || !(args[0].equals("tree") || args[0].equals("stream"))) {
+            System.out.println("Usage: PdbIngestBenchmark tree|stream <net dump> <org dump>");
+            return;
+        }
+        String mode = args[0];
+        SiblingASCollector parser = new SiblingASCollector();
+
+        System.gc();
+        long baseline = usedHeap();
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        HashMap<String, Integer> orgNameToId;
+        if (mode.equals("tree")) {
+            JSONObject pdbOrgData = parser.parseJson(String.join("", readLines(args[2])));
+            orgNameToId = parser.parsePdbOrgData((JSONArray) pdbOrgData.get("data"));
+            JSONObject pdbNetData = parser.parseJson(String.join("", readLines(args[1])));
+            parser.parsePdbData((JSONArray) pdbNetData.get("data"), orgNameToId);
+        }
+        else {
+            try (PdbJsonReader pdbOrgData = openDump(args[2], SiblingASCollector.PDB_ORG_FIELDS)) {
+                orgNameToId = parser.parsePdbOrgData(pdbOrgData);
+            }
+            try (PdbJsonReader pdbNetData = openDump(args[1], SiblingASCollector.PDB_NET_FIELDS)) {
+                parser.parsePdbData(pdbNetData, orgNameToId);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+
+        System.out.printf("mode=%s orgs=%d sibling_groups=%d time_ms=%d peak_heap_mb=%.1f%n",
+                mode, orgNameToId.size(), parser.getClusters().getClusters(2).size(), elapsed / 1000000,
+                (peak - baseline) / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Reads a saved response as a list of lines, in the same way as SiblingASCollector.sendGet
+     */
+    private static ArrayList<String> readLines(String path) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+
+        return lines;
+    }
+
+    private static PdbJsonReader openDump(String path, String[] fields) throws IOException {
+        return new PdbJsonReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), fields);
+    }
+
+    private static long usedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                used += pool.getUsage().getUsed();
+        }
+
+        return used;
+    }
+}
@@ -0,0 +1,296 @@
+package com.vgiotsas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for PeeringDB API responses of the form <code>{"data": [{...}, {...}], ...}</code>.
+ * The response is tokenized directly from the underlying stream and only the requested fields of each object
+ * in the <code>data</code> array are materialized, so the memory footprint does not depend on the response size.
+ * Values are decoded with the same types as json-simple (String, Long, Double, Boolean or null).
+ */
+public class PdbJsonReader implements Iterable<Map<String, Object>>, Closeable {
+
+    private final Reader in;
+    private final String[] fields;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private final StringBuilder token = new StringBuilder();
+
+    private boolean inData = false;
+    private boolean exhausted = false;
+    private Map<String, Object> nextRecord = null;
+
+    /**
+     * @param in The reader of the JSON document
+     * @param fields The names of the fields to keep from each object in the data array
+     */
+    public PdbJsonReader(Reader in, String... fields) {
+        this.in = in;
+        this.fields = fields;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        return new Iterator<Map<String, Object>>() {
+            @Override
+            public boolean hasNext() {
+                if (nextRecord == null && !exhausted) {
+                    try {
+                        nextRecord = readRecord();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return nextRecord != null;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Map<String, Object> record = nextRecord;
+                nextRecord = null;
+                return record;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Returns the next object of the data array with only the requested fields, or null at the end of the array
+     */
+    private Map<String, Object> readRecord() throws IOException {
+        if (!inData && !seekData()) {
+            exhausted = true;
+            return null;
+        }
+
+        int c = nextToken();
+        if (c == ',')
+            c = nextToken();
+        if (c == ']') {
+            exhausted = true;
+            return null;
+        }
+        if (c != '{') {
+            // Not an object, skip the element and look for the next one
+            skipValue(c);
+            return readRecord();
+        }
+
+        Map<String, Object> record = new HashMap<>();
+        c = nextToken();
+        while (c != '}') {
+            if (c == ',')
+                c = nextToken();
+            expect(c, '"');
+            String field = readKey();
+            expect(nextToken(), ':');
+            if (field != null) {
+                record.put(field, readValue(nextToken()));
+            }
+            else {
+                skipValue(nextToken());
+            }
+            c = nextToken();
+        }
+
+        return record;
+    }
+
+    /**
+     * Advances the stream to the first element of the top-level data array
+     * @return boolean False if the document has no data array
+     */
+    private boolean seekData() throws IOException {
+        expect(nextToken(), '{');
+        int c = nextToken();
+        while (c != '}') {
+            if (c == ',')
+                c = nextToken();
+            expect(c, '"');
+            token.setLength(0);
+            readString(token);
+            expect(nextToken(), ':');
+            c = nextToken();
+            if (c == '[' && "data".contentEquals(token)) {
+                inData = true;
+                return true;
+            }
+            skipValue(c);
+            c = nextToken();
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads an object key and returns the matching requested field name without allocating a new String
+     * @return String The requested field name or null if the key is not requested
+     */
+    private String readKey() throws IOException {
+        token.setLength(0);
+        readString(token);
+        for (String field: fields) {
+            if (field.contentEquals(token))
+                return field;
+        }
+
+        return null;
+    }
+
+    private Object readValue(int c) throws IOException {
+        switch (c) {
+            case '"':
+                StringBuilder sb = new StringBuilder();
+                readString(sb);
+                return sb.toString();
+            case 't':
+                skipLiteral("rue");
+                return Boolean.TRUE;
+            case 'f':
+                skipLiteral("alse");
+                return Boolean.FALSE;
+            case 'n':
+                skipLiteral("ull");
+                return null;
+            case '{':
+            case '[':
+                // Nested values are never requested, skip them
+                skipValue(c);
+                return null;
+            default:
+                return readNumber(c);
+        }
+    }
+
+    private Object readNumber(int c) throws IOException {
+        token.setLength(0);
+        boolean integral = true;
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            if (c == '.' || c == 'e' || c == 'E')
+                integral = false;
+            token.append((char) c);
+            c = read();
+        }
+        pos--;
+        if (token.length() == 0)
+            throw new IOException("Unexpected character '" + (char) c + "' in JSON value");
+
+        String number = token.toString();
+        if (integral)
+            return Long.valueOf(number);
+        return Double.valueOf(number);
+    }
+
+    /**
+     * Reads the remainder of a string whose opening quote has been consumed, decoding escape sequences
+     */
+    private void readString(StringBuilder sb) throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            code = (code << 4) | Character.digit(read(), 16);
+                        }
+                        sb.append((char) code);
+                        break;
+                    default: sb.append((char) c);
+                }
+            }
+            else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Skips a JSON value whose first character has been consumed
+     */
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        }
+        else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == '"')
+                    skipString();
+                else if (c == '{' || c == '[')
+                    depth++;
+                else if (c == '}' || c == ']')
+                    depth--;
+            }
+        }
+        else {
+            // Literal or number, runs until the next structural character
+            while (c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                c = read();
+            }
+            pos--;
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\')
+                read();
+        }
+    }
+
+    private void skipLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            expect(read(), rest.charAt(i));
+        }
+    }
+
+    private void expect(int c, char expected) throws IOException {
+        if (c != expected)
+            throw new IOException("Expected '" + expected + "' but found '" + (char) c + "' in JSON stream");
+    }
+
+    /**
+     * Returns the next non-whitespace character
+     */
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (Character.isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new IOException("Unexpected end of JSON stream");
+            }
+        }
+        return buf[pos++];
+    }
+}
@@ -0,0 +1,617 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The ipv4 and ipv6 prefixes of the RIR extended delegation files, indexed for longest-prefix matches from an
+ * address to the Opaque ID that holds it, and from the Opaque ID to its sibling cluster.
+ * Each family is kept in sorted primitive arrays: the start of each prefix, 32 bits for ipv4 and the upper
+ * 64 bits for ipv6, its length, the interned Opaque ID and the enclosing prefix, so that a lookup is a binary
+ * search followed by a walk up the enclosing prefixes. The ipv4 ranges of the delegation files, which are
+ * counts of addresses, are split into CIDR prefixes, and the ipv6 prefixes longer than /64 are indexed as
+ * their /64, which is the granularity of the delegations.
+ * <pre>
+ * java com.vgiotsas.PrefixIndex SiblingASNs_&lt;date&gt;.sibs &lt;delegation file&gt; ... [--query &lt;address&gt;] ...
+ * </pre>
+ * Without --query, the addresses are read from the standard input, one per line.
+ */
+public class PrefixIndex {
+
+    /**
+     * The prefixes of one family of a delegation file or of a byte range of it, in file order.
+     * The starts are left-aligned in 64 bits, so that ipv4 and ipv6 prefixes are compared the same way.
+     */
+    public static class Records {
+        private String[] opaqueIds;
+        private long[] starts;
+        private byte[] lengths;
+        private int count = 0;
+
+        Records(int capacity) {
+            opaqueIds = new String[Math.max(16, capacity)];
+            starts = new long[Math.max(16, capacity)];
+            lengths = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * Adds a prefix, the bits of the start after the prefix length are cleared
+         * @param opaqueId The Opaque ID that holds the prefix
+         * @param start The start of the prefix, left-aligned in 64 bits
+         * @param length The length of the prefix, at most 64
+         */
+        void add(String opaqueId, long start, int length) {
+            if (count == starts.length) {
+                opaqueIds = Arrays.copyOf(opaqueIds, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            opaqueIds[count] = opaqueId;
+            starts[count] = start & mask(length);
+            lengths[count] = (byte) length;
+            count++;
+        }
+
+        /**
+         * Adds an ipv4 range as the fewest CIDR prefixes that cover it
+         * @param opaqueId The Opaque ID that holds the range
+         * @param start The first address of the range as an unsigned 32-bit number
+         * @param addresses The number of addresses of the range
+         */
+        void addIpv4Range(String opaqueId, long start, long addresses) {
+            while (addresses > 0) {
+                // The largest block aligned at the start that fits in the rest of the range
+                long size = start == 0 ? 1L << 32 : Long.lowestOneBit(start);
+                while (size > addresses) {
+                    size >>= 1;
+                }
+                add(opaqueId, start << 32, 32 - Long.numberOfTrailingZeros(size));
+                start += size;
+                addresses -= size;
+            }
+        }
+
+        /**
+         * @return Records The records of this result followed by the records of the other
+         */
+        Records concat(Records other) {
+            Records merged = new Records(count + other.count);
+            System.arraycopy(opaqueIds, 0, merged.opaqueIds, 0, count);
+            System.arraycopy(starts, 0, merged.starts, 0, count);
+            System.arraycopy(lengths, 0, merged.lengths, 0, count);
+            System.arraycopy(other.opaqueIds, 0, merged.opaqueIds, count, other.count);
+            System.arraycopy(other.starts, 0, merged.starts, count, other.count);
+            System.arraycopy(other.lengths, 0, merged.lengths, count, other.count);
+            merged.count = count + other.count;
+            return merged;
+        }
+
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * The prefixes of one family. While the records are added they are appended to the raw arrays,
+     * which {@link #build()} sorts, deduplicates and replaces with the arrays of the index.
+     */
+    private static class Family {
+        private final boolean ipv4;
+        private long[] rawStarts = new long[1024];
+        private byte[] rawLengths = new byte[1024];
+        private int[] rawIds = new int[1024];
+        private int rawCount = 0;
+
+        // The ipv4 starts are stored in 32 bits and the ipv6 starts in 64 bits
+        private int[] narrowStarts = new int[0];
+        private long[] wideStarts = new long[0];
+        private byte[] lengths = new byte[0];
+        private int[] ids = new int[0];
+        // The index of the closest enclosing prefix of each prefix, or -1
+        private int[] parents = new int[0];
+        private int size = 0;
+        private int duplicates = 0;
+
+        Family(boolean ipv4) {
+            this.ipv4 = ipv4;
+        }
+
+        void add(long start, int length, int id) {
+            if (rawCount == rawStarts.length) {
+                rawStarts = Arrays.copyOf(rawStarts, rawCount * 2);
+                rawLengths = Arrays.copyOf(rawLengths, rawCount * 2);
+                rawIds = Arrays.copyOf(rawIds, rawCount * 2);
+            }
+            rawStarts[rawCount] = start;
+            rawLengths[rawCount] = (byte) length;
+            rawIds[rawCount] = id;
+            rawCount++;
+        }
+
+        /**
+         * Sorts the prefixes by start and then by length, so that each prefix follows the prefixes that enclose it,
+         * keeps the first record of each prefix in the order they were added, and links each prefix to the
+         * closest prefix that encloses it. The delegated prefixes either nest or are disjoint, so the enclosing
+         * prefixes of a prefix are the ones on a stack of the prefixes that contain its start.
+         */
+        void build() {
+            // Add the new records to the records of the index
+            for (int i = 0; i < size; i++) {
+                add(key(i), lengths[i], ids[i]);
+            }
+            int[] order = new int[rawCount];
+            for (int i = 0; i < rawCount; i++) {
+                // The records of the index are moved to the end, but they were added before the new ones
+                order[i] = (i + rawCount - size) % rawCount;
+            }
+            sort(order, rawStarts, rawLengths);
+
+            narrowStarts = ipv4 ? new int[rawCount] : null;
+            wideStarts = ipv4 ? null : new long[rawCount];
+            lengths = new byte[rawCount];
+            ids = new int[rawCount];
+            parents = new int[rawCount];
+            int[] stack = new int[65];
+            int depth = 0;
+            size = 0;
+            duplicates = 0;
+            for (int r: order) {
+                long start = rawStarts[r];
+                if (size > 0 && start == key(size - 1) && rawLengths[r] == lengths[size - 1]) {
+                    duplicates++;
+                    continue;
+                }
+                while (depth > 0 && !contains(stack[depth - 1], start))
+                    depth--;
+                if (ipv4)
+                    narrowStarts[size] = (int) (start >>> 32);
+                else
+                    wideStarts[size] = start;
+                lengths[size] = rawLengths[r];
+                ids[size] = rawIds[r];
+                parents[size] = depth > 0 ? stack[depth - 1] : -1;
+                stack[depth++] = size;
+                size++;
+            }
+            if (ipv4)
+                narrowStarts = Arrays.copyOf(narrowStarts, size);
+            else
+                wideStarts = Arrays.copyOf(wideStarts, size);
+            lengths = Arrays.copyOf(lengths, size);
+            ids = Arrays.copyOf(ids, size);
+            parents = Arrays.copyOf(parents, size);
+
+            rawStarts = new long[1024];
+            rawLengths = new byte[1024];
+            rawIds = new int[1024];
+            rawCount = 0;
+        }
+
+        /**
+         * @return long The start of the i-th prefix, left-aligned in 64 bits
+         */
+        long key(int i) {
+            return ipv4 ? (long) narrowStarts[i] << 32 : wideStarts[i];
+        }
+
+        boolean contains(int i, long address) {
+            return ((address ^ key(i)) & mask(lengths[i])) == 0;
+        }
+
+        /**
+         * @param address The address, left-aligned in 64 bits
+         * @return int The index of the longest prefix that contains the address, or -1
+         */
+        int lookup(long address) {
+            // The last prefix that starts at or before the address, then the prefixes that enclose it
+            int low = 0;
+            int high = size - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (Long.compareUnsigned(key(mid), address) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            while (found >= 0 && !contains(found, address))
+                found = parents[found];
+
+            return found;
+        }
+
+        /**
+         * @return long The bytes of the arrays of the index
+         */
+        long memoryBytes() {
+            return (long) size * ((ipv4 ? 4 : 8) + 1 + 4 + 4);
+        }
+    }
+
+    private final StringTable opaqueIds = new StringTable();
+    private final Family ipv4 = new Family(true);
+    private final Family ipv6 = new Family(false);
+    private boolean built = true;
+
+    // The sibling cluster of each Opaque ID and the address space of each cluster, after assignClusters
+    private int[] opaqueClusters = new int[0];
+    private long[] clusterIpv4Addresses = new long[0];
+    private long[] clusterIpv6Blocks = new long[0];
+    private int[] clusterIpv4Prefixes = new int[0];
+    private int[] clusterIpv6Prefixes = new int[0];
+
+    /**
+     * Adds the prefixes of a delegation file
+     * @param ipv4Records The ipv4 prefixes of the file
+     * @param ipv6Records The ipv6 prefixes of the file
+     */
+    public synchronized void addAll(Records ipv4Records, Records ipv6Records) {
+        for (int i = 0; i < ipv4Records.count; i++) {
+            ipv4.add(ipv4Records.starts[i], ipv4Records.lengths[i], opaqueIds.intern(ipv4Records.opaqueIds[i]));
+        }
+        for (int i = 0; i < ipv6Records.count; i++) {
+            ipv6.add(ipv6Records.starts[i], ipv6Records.lengths[i], opaqueIds.intern(ipv6Records.opaqueIds[i]));
+        }
+        built = false;
+    }
+
+    /**
+     * Sorts the added prefixes into the index, a prefix that was already added keeps its first Opaque ID
+     */
+    public synchronized void build() {
+        ipv4.build();
+        ipv6.build();
+        built = true;
+    }
+
+    /**
+     * Maps each Opaque ID to the sibling cluster of its ASNs, and sums the address space of each cluster,
+     * counting the prefixes that are enclosed by a prefix of the same cluster once
+     * @param groups The ASNs of each Opaque ID
+     * @param clusterOf The cluster of an ASN, or -1 if it is in no cluster
+     * @param clusterCount The number of clusters
+     */
+    public synchronized void assignClusters(OpaqueIdGroups groups, IntUnaryOperator clusterOf, int clusterCount) {
+        opaqueClusters = new int[opaqueIds.size()];
+        for (int id = 0; id < opaqueClusters.length; id++) {
+            int group = groups.indexOf(opaqueIds.get(id));
+            int cluster = -1;
+            for (int i = 0; group >= 0 && cluster < 0 && i < groups.groupSize(group); i++) {
+                cluster = clusterOf.applyAsInt(groups.member(group, i));
+            }
+            opaqueClusters[id] = cluster;
+        }
+
+        clusterIpv4Addresses = new long[clusterCount];
+        clusterIpv6Blocks = new long[clusterCount];
+        clusterIpv4Prefixes = new int[clusterCount];
+        clusterIpv6Prefixes = new int[clusterCount];
+        sumAddressSpace(ipv4, 32, clusterIpv4Addresses, clusterIpv4Prefixes);
+        sumAddressSpace(ipv6, 64, clusterIpv6Blocks, clusterIpv6Prefixes);
+    }
+
+    /**
+     * @param bits The bits of the addresses, or of the /64 blocks of ipv6, that are counted
+     */
+    private void sumAddressSpace(Family family, int bits, long[] addresses, int[] prefixes) {
+        for (int i = 0; i < family.size; i++) {
+            int cluster = opaqueClusters[family.ids[i]];
+            if (cluster < 0)
+                continue;
+            prefixes[cluster]++;
+            int parent = family.parents[i];
+            while (parent >= 0 && opaqueClusters[family.ids[parent]] != cluster)
+                parent = family.parents[parent];
+            if (parent >= 0)
+                continue;
+            int hostBits = bits - family.lengths[i];
+            long size = hostBits >= 63 ? Long.MAX_VALUE : 1L << hostBits;
+            addresses[cluster] = addresses[cluster] > Long.MAX_VALUE - size ? Long.MAX_VALUE : addresses[cluster] + size;
+        }
+    }
+
+    /**
+     * @param address The address as an unsigned 32-bit number
+     * @return int The sibling cluster of the longest prefix that contains the address, or -1
+     */
+    public int clusterOfIpv4(long address) {
+        int prefix = ipv4.lookup(address << 32);
+        return prefix >= 0 ? clusterOfId(ipv4.ids[prefix]) : -1;
+    }
+
+    /**
+     * @param upperBits The upper 64 bits of the address
+     * @return int The sibling cluster of the longest prefix that contains the address, or -1
+     */
+    public int clusterOfIpv6(long upperBits) {
+        int prefix = ipv6.lookup(upperBits);
+        return prefix >= 0 ? clusterOfId(ipv6.ids[prefix]) : -1;
+    }
+
+    private int clusterOfId(int id) {
+        return id < opaqueClusters.length ? opaqueClusters[id] : -1;
+    }
+
+    /**
+     * @param address An ipv4 or ipv6 address in text form
+     * @return int The sibling cluster of the longest prefix that contains the address, or -1
+     * @throws IllegalArgumentException When the address is malformed
+     */
+    public int clusterOf(String address) {
+        long[] match = match(address);
+        return match[0] < 0 ? -1 : clusterOfId((int) match[1]);
+    }
+
+    /**
+     * @param address An ipv4 or ipv6 address in text form
+     * @return String The Opaque ID of the longest prefix that contains the address, or null
+     * @throws IllegalArgumentException When the address is malformed
+     */
+    public String opaqueIdOf(String address) {
+        long[] match = match(address);
+        return match[0] < 0 ? null : opaqueIds.get((int) match[1]);
+    }
+
+    /**
+     * @param address An ipv4 or ipv6 address in text form
+     * @return String The longest prefix that contains the address in CIDR notation, or null
+     * @throws IllegalArgumentException When the address is malformed
+     */
+    public String prefixOf(String address) {
+        long[] match = match(address);
+        if (match[0] < 0)
+            return null;
+
+        Family family = match[0] == 4 ? ipv4 : ipv6;
+        int prefix = (int) match[2];
+        long start = family.key(prefix);
+        if (family.ipv4) {
+            return (start >>> 56) + "." + (start >>> 48 & 255) + "." + (start >>> 40 & 255) + "." + (start >>> 32 & 255)
+                    + "/" + family.lengths[prefix];
+        }
+        // The upper four groups without the trailing zero groups, followed by ::
+        StringBuilder text = new StringBuilder();
+        for (int group = 0; group < 4 && start << 16 * group != 0; group++) {
+            text.append(Long.toHexString(start >>> 48 - 16 * group & 0xFFFF)).append(':');
+        }
+        return text.append(text.length() == 0 ? "::/" : ":/").append(family.lengths[prefix]).toString();
+    }
+
+    /**
+     * @return long[] The family of the longest prefix that contains the address, 4 or 6 or -1 if there is none,
+     * the Opaque ID and the index of the prefix
+     */
+    private long[] match(String address) {
+        if (!built)
+            throw new IllegalStateException("The prefix index is not built");
+
+        byte[] bytes = address.trim().getBytes(StandardCharsets.US_ASCII);
+        Family family;
+        long key;
+        if (address.indexOf(':') >= 0) {
+            long[] ipv6Address = new long[2];
+            if (!ByteLineTokenizer.parseIpv6(bytes, 0, bytes.length, ipv6Address))
+                throw new IllegalArgumentException("Malformed ipv6 address: " + address);
+            family = ipv6;
+            key = ipv6Address[0];
+        }
+        else {
+            long ipv4Address = ByteLineTokenizer.parseIpv4(bytes, 0, bytes.length);
+            if (ipv4Address < 0)
+                throw new IllegalArgumentException("Malformed ipv4 address: " + address);
+            family = ipv4;
+            key = ipv4Address << 32;
+        }
+
+        int prefix = family.lookup(key);
+        return prefix < 0 ? new long[]{-1, -1, -1} : new long[]{family.ipv4 ? 4 : 6, family.ids[prefix], prefix};
+    }
+
+    /**
+     * @return long The ipv4 addresses of the prefixes of the cluster
+     */
+    public long ipv4Addresses(int cluster) {
+        return clusterIpv4Addresses[cluster];
+    }
+
+    /**
+     * @return long The /64 blocks of the ipv6 prefixes of the cluster
+     */
+    public long ipv6Blocks(int cluster) {
+        return clusterIpv6Blocks[cluster];
+    }
+
+    public int ipv4Count() {
+        return ipv4.size;
+    }
+
+    public int ipv6Count() {
+        return ipv6.size;
+    }
+
+    /**
+     * @return int The prefixes that were added more than once and are indexed with their first Opaque ID
+     */
+    public int duplicates() {
+        return ipv4.duplicates + ipv6.duplicates;
+    }
+
+    /**
+     * @return long The bytes of the primitive arrays of the index, without the interned Opaque IDs
+     */
+    public long memoryBytes() {
+        return ipv4.memoryBytes() + ipv6.memoryBytes() + 4L * opaqueClusters.length
+                + 24L * clusterIpv4Addresses.length;
+    }
+
+    /**
+     * Writes the address space of each cluster, one line per cluster in the order of the SiblingASNs file:
+     * <code>&lt;ipv4 addresses&gt;|&lt;ipv4 prefixes&gt;|&lt;ipv6 /64 blocks&gt;|&lt;ipv6 prefixes&gt;</code>
+     * @param path The path of the file
+     * @param gzip If true, the file is gzip-compressed
+     * @param pool The pool that renders the partitions
+     * @throws IOException When writing the file fails
+     */
+    public void writeAddressSpace(Path path, boolean gzip, ForkJoinPool pool) throws IOException {
+        TextOutput.writeLines(path, clusterIpv4Addresses.length, (cluster, out) -> out
+                .append(String.valueOf(clusterIpv4Addresses[cluster])).append('|').append(clusterIpv4Prefixes[cluster])
+                .append('|').append(String.valueOf(clusterIpv6Blocks[cluster])).append('|')
+                .append(clusterIpv6Prefixes[cluster]).append('\n'), gzip, pool);
+    }
+
+    /**
+     * Writes the prefixes of the index, which must be built
+     * @param out The stream to write to
+     * @throws IOException When writing fails
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(opaqueIds.size());
+        for (int i = 0; i < opaqueIds.size(); i++) {
+            out.writeUTF(opaqueIds.get(i));
+        }
+        for (Family family: new Family[]{ipv4, ipv6}) {
+            out.writeInt(family.size);
+            for (int i = 0; i < family.size; i++) {
+                out.writeLong(family.key(i));
+                out.writeByte(family.lengths[i]);
+                out.writeInt(family.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the prefixes written by {@link #write}
+     * @param in The stream to read from
+     * @return PrefixIndex The built index of the prefixes
+     * @throws IOException When reading fails
+     */
+    public static PrefixIndex read(DataInputStream in) throws IOException {
+        PrefixIndex index = new PrefixIndex();
+        int ids = in.readInt();
+        for (int i = 0; i < ids; i++) {
+            index.opaqueIds.intern(in.readUTF());
+        }
+        for (Family family: new Family[]{index.ipv4, index.ipv6}) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                family.add(in.readLong(), in.readByte(), in.readInt());
+            }
+        }
+        index.build();
+
+        return index;
+    }
+
+    /**
+     * @return long The mask of the bits of a prefix of the given length, left-aligned in 64 bits
+     */
+    static long mask(int length) {
+        return length == 0 ? 0 : -1L << (64 - length);
+    }
+
+    /**
+     * Sorts the indices of the records by start in unsigned order and then by length,
+     * with a merge sort that keeps the records of the same prefix in the order of the indices
+     */
+    private static void sort(int[] order, long[] starts, byte[] lengths) {
+        int[] buffer = new int[order.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int low = 0; low < order.length - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, order.length);
+                int left = low;
+                int right = mid;
+                for (int i = low; i < high; i++) {
+                    if (right == high || left < mid && compare(order[left], order[right], starts, lengths) <= 0)
+                        buffer[i] = order[left++];
+                    else
+                        buffer[i] = order[right++];
+                }
+                System.arraycopy(buffer, low, order, low, high - low);
+            }
+        }
+    }
+
+    private static int compare(int a, int b, long[] starts, byte[] lengths) {
+        int c = Long.compareUnsigned(starts[a], starts[b]);
+        return c != 0 ? c : Integer.compare(lengths[a], lengths[b]);
+    }
+
+    private static final String USAGE = "Usage: PrefixIndex <SiblingASNs_<date>.sibs> <delegation file> ... "
+            + "[--query <address>] ...";
+
+    public static void main(String[] args) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--query") && i + 1 < args.length)
+                queries.add(args[++i]);
+            else
+                inputs.add(Paths.get(args[i]));
+        }
+        if (inputs.size() < 2) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        try (SiblingSnapshot snapshot = SiblingSnapshot.open(inputs.get(0))) {
+            String[] rirNames = inputs.subList(1, inputs.size()).stream().map(p -> p.getFileName().toString())
+                    .toArray(String[]::new);
+            OpaqueIdGroups groups = new OpaqueIdGroups(rirNames);
+            PrefixIndex index = new PrefixIndex();
+            long heapBefore = retainedHeap();
+            long start = System.nanoTime();
+            for (int rir = 0; rir < rirNames.length; rir++) {
+                DelegationParser.Result result = DelegationParser.parse(inputs.get(rir + 1), ForkJoinPool.commonPool(), true);
+                groups.addAll(rir, result.getOpaqueIds(), result.getAsns(), result.size());
+                index.addAll(result.getIpv4Prefixes(), result.getIpv6Prefixes());
+            }
+            groups.build();
+            index.build();
+            index.assignClusters(groups, snapshot::clusterOf, snapshot.clusterCount());
+            long elapsed = System.nanoTime() - start;
+            groups = null;
+            long heapAfter = retainedHeap();
+            System.out.printf("Indexed %d ipv4 and %d ipv6 prefixes of %d Opaque IDs in %d ms, %d duplicates, "
+                            + "%.1f MB of arrays, %.1f MB of retained heap%n", index.ipv4Count(), index.ipv6Count(),
+                    index.opaqueIds.size(), elapsed / 1000000, index.duplicates(),
+                    index.memoryBytes() / (1024.0 * 1024.0), (heapAfter - heapBefore) / (1024.0 * 1024.0));
+
+            BufferedReader reader = queries.isEmpty()
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) : null;
+            int q = 0;
+            String address;
+            while ((address = reader != null ? reader.readLine() : q < queries.size() ? queries.get(q++) : null) != null) {
+                if (address.trim().isEmpty())
+                    continue;
+                try {
+                    int cluster = index.clusterOf(address);
+                    System.out.println(address.trim() + "|" + index.prefixOf(address) + "|" + index.opaqueIdOf(address)
+                            + "|" + cluster + "|" + (cluster >= 0 ? Arrays.toString(snapshot.cluster(cluster)) : "[]"));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return long The heap retained after full garbage collections
+     */
+    private static long retainedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
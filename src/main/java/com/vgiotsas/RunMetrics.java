@@ -0,0 +1,282 @@
+package com.vgiotsas;
+
+import org.json.simple.JSONValue;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of a run of the collector: the wall time, bytes read, records processed and skipped
+ * and allocation of each stage, named counters such as the WHOIS queries, and the cluster size histogram.
+ * Stages that run concurrently, e.g. the fetch and parse of each source, are recorded separately and can be
+ * updated from any thread. The metrics are written as a JSON run report and optionally in the Prometheus
+ * text format, e.g. for the textfile collector of the node exporter.
+ */
+public class RunMetrics {
+
+    private static final String PROMETHEUS_PREFIX = "sibling_collector_";
+    // The upper bounds of the cluster size histogram buckets are the powers of two up to 2^CLUSTER_BUCKETS
+    private static final int CLUSTER_BUCKETS = 16;
+
+    /**
+     * The metrics of a stage, accumulated over all the times the stage ran
+     */
+    public static class Stage {
+        private final String name;
+        private final LongAdder wallNanos = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts timing the stage on the current thread, until the returned timer is closed.
+         * Only the allocations of the current thread are counted, not those of the pools it waits on.
+         * @return Timer The timer of this run of the stage
+         */
+        public Timer start() {
+            return new Timer(this);
+        }
+
+        /**
+         * @param in The stream read by the stage
+         * @return InputStream The stream, which adds the bytes read from it to the stage
+         */
+        public InputStream count(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0)
+                        bytesRead.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0)
+                        bytesRead.add(read);
+                    return read;
+                }
+            };
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead.add(bytes);
+        }
+
+        /**
+         * @param processed The number of records used by the stage
+         * @param skipped The number of invalid or incomplete records that were ignored
+         */
+        public void addRecords(long processed, long skipped) {
+            this.records.add(processed);
+            this.skipped.add(skipped);
+        }
+    }
+
+    /**
+     * Measures the wall time and the allocation of the current thread during a run of a stage
+     */
+    public static class Timer implements AutoCloseable {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private final Stage stage;
+        private final long start = System.nanoTime();
+        private final long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        Timer(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void close() {
+            stage.wallNanos.add(System.nanoTime() - start);
+            stage.allocatedBytes.add(THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated);
+        }
+    }
+
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private final long[] clusterSizes = new long[CLUSTER_BUCKETS + 1];
+    private long clusterCount = 0;
+    private long clusteredAsns = 0;
+    private int maxClusterSize = 0;
+
+    /**
+     * @param name The name of the stage, e.g. "parse net"
+     * @return Stage The metrics of the stage, created on first use, stages are reported in the order of creation
+     */
+    public synchronized Stage stage(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    /**
+     * Adds to a named counter, created on first use
+     * @param name The name of the counter in snake case, e.g. whois_queries
+     * @param value The value to add
+     */
+    public void count(String name, long value) {
+        LongAdder counter;
+        synchronized (this) {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        counter.add(value);
+    }
+
+    /**
+     * Records the number and the size distribution of the clusters of the run
+     * @param clusters The sibling clusters
+     */
+    public synchronized void recordClusters(List<int[]> clusters) {
+        for (int[] cluster: clusters) {
+            int bucket = 32 - Integer.numberOfLeadingZeros(Math.max(1, cluster.length - 1));
+            clusterSizes[Math.min(CLUSTER_BUCKETS, bucket)]++;
+            clusterCount++;
+            clusteredAsns += cluster.length;
+            maxClusterSize = Math.max(maxClusterSize, cluster.length);
+        }
+    }
+
+    /**
+     * @return String The run report as a JSON object
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"started\": ").append(startMillis).append(",\n");
+        json.append("  \"wallMillis\": ").append((System.nanoTime() - startNanos) / 1000000).append(",\n");
+        json.append("  \"stages\": [");
+        String separator = "\n";
+        for (Stage stage: stages.values()) {
+            json.append(separator).append("    {\"name\": \"").append(JSONValue.escape(stage.name))
+                    .append("\", \"wallMillis\": ").append(stage.wallNanos.sum() / 1000000)
+                    .append(", \"bytesRead\": ").append(stage.bytesRead.sum())
+                    .append(", \"records\": ").append(stage.records.sum())
+                    .append(", \"skipped\": ").append(stage.skipped.sum())
+                    .append(", \"allocatedBytes\": ").append(stage.allocatedBytes.sum()).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ],\n  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> counter: counters.entrySet()) {
+            json.append(separator).append("    \"").append(JSONValue.escape(counter.getKey())).append("\": ")
+                    .append(counter.getValue().sum());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"clusters\": {\"count\": ").append(clusterCount).append(", \"asns\": ")
+                .append(clusteredAsns).append(", \"maxSize\": ").append(maxClusterSize).append(", \"sizes\": [");
+        // The number of clusters of each bucket, whose sizes are above the previous bound and at most the bound
+        separator = "";
+        for (int i = 1; i <= CLUSTER_BUCKETS; i++) {
+            if (clusterSizes[i] == 0)
+                continue;
+            json.append(separator).append("{\"le\": ").append(i < CLUSTER_BUCKETS ? String.valueOf(1L << i) : "null")
+                    .append(", \"count\": ").append(clusterSizes[i]).append('}');
+            separator = ", ";
+        }
+        json.append("]}\n}\n");
+
+        return json.toString();
+    }
+
+    /**
+     * @return String The metrics in the Prometheus text exposition format
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        gauge(text, "run_start_timestamp_seconds", "Start time of the run");
+        text.append(PROMETHEUS_PREFIX).append("run_start_timestamp_seconds ").append(startMillis / 1000).append('\n');
+        gauge(text, "run_seconds", "Wall time of the run");
+        text.append(PROMETHEUS_PREFIX).append("run_seconds ").append(seconds(System.nanoTime() - startNanos)).append('\n');
+
+        stageGauge(text, "stage_seconds", "Wall time of the stage", stage -> seconds(stage.wallNanos.sum()));
+        stageGauge(text, "stage_read_bytes", "Bytes read by the stage", stage -> String.valueOf(stage.bytesRead.sum()));
+        stageGauge(text, "stage_records", "Records processed by the stage", stage -> String.valueOf(stage.records.sum()));
+        stageGauge(text, "stage_skipped_records", "Invalid or incomplete records skipped by the stage",
+                stage -> String.valueOf(stage.skipped.sum()));
+        stageGauge(text, "stage_allocated_bytes", "Bytes allocated by the thread of the stage",
+                stage -> String.valueOf(stage.allocatedBytes.sum()));
+
+        for (Map.Entry<String, LongAdder> counter: counters.entrySet()) {
+            gauge(text, counter.getKey(), counter.getKey().replace('_', ' ') + " in the run");
+            text.append(PROMETHEUS_PREFIX).append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+
+        text.append("# HELP ").append(PROMETHEUS_PREFIX).append("cluster_size Number of ASNs of the sibling clusters\n");
+        text.append("# TYPE ").append(PROMETHEUS_PREFIX).append("cluster_size histogram\n");
+        long cumulative = clusterSizes[0];
+        for (int i = 1; i < CLUSTER_BUCKETS; i++) {
+            cumulative += clusterSizes[i];
+            text.append(PROMETHEUS_PREFIX).append("cluster_size_bucket{le=\"").append(1L << i).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        text.append(PROMETHEUS_PREFIX).append("cluster_size_bucket{le=\"+Inf\"} ").append(clusterCount).append('\n');
+        text.append(PROMETHEUS_PREFIX).append("cluster_size_sum ").append(clusteredAsns).append('\n');
+        text.append(PROMETHEUS_PREFIX).append("cluster_size_count ").append(clusterCount).append('\n');
+
+        return text.toString();
+    }
+
+    /**
+     * Writes the JSON run report
+     * @param path The path of the report
+     * @throws IOException When writing the report fails
+     */
+    public void writeJson(Path path) throws IOException {
+        write(path, toJson());
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format to a temporary file that is then moved to the path,
+     * so that a scraper never reads a partial file
+     * @param path The path of the metrics file, e.g. in the directory of the node exporter textfile collector
+     * @throws IOException When writing the file fails
+     */
+    public void writePrometheus(Path path) throws IOException {
+        write(path, toPrometheus());
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface StageValue {
+        String of(Stage stage);
+    }
+
+    private void stageGauge(StringBuilder text, String name, String help, StageValue value) {
+        gauge(text, name, help);
+        for (Stage stage: stages.values()) {
+            text.append(PROMETHEUS_PREFIX).append(name).append("{stage=\"")
+                    .append(stage.name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"} ")
+                    .append(value.of(stage)).append('\n');
+        }
+    }
+
+    private static void gauge(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(" gauge\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e9);
+    }
+}
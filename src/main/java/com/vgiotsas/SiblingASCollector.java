@@ -1,20 +1,33 @@
 package com.vgiotsas;
 
 import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.DateFormat;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <h1>Sibling ASes Collector</h1>
@@ -37,103 +50,647 @@ public class SiblingASCollector{
         }
     }
 
-    private final String USER_AGENT = "Mozilla/5.0";
+    static final String PDB_NET_URL = "https://www.peeringdb.com/api/net";
+    static final String PDB_ORG_URL = "https://www.peeringdb.com/api/org";
+    static final String V6_DAY_URL = "http://worldipv6launch.appspot.com/asns.txt";
+    private static final String RIPE_AUT_NUM_DUMP = "input/ripe.db.aut-num.gz";
+    private static final String RIPE_ORGANISATION_DUMP = "input/ripe.db.organisation.gz";
+    static final String[] RIR_URLS = {"https://ftp.ripe.net/pub/stats/ripencc/delegated-ripencc-extended-latest",
+                                              "https://ftp.ripe.net/pub/stats/lacnic/delegated-lacnic-extended-latest",
+                                              "https://ftp.ripe.net/pub/stats/arin/delegated-arin-extended-latest",
+                                              "https://ftp.ripe.net/pub/stats/apnic/delegated-apnic-extended-latest",
+                                              "https://ftp.ripe.net/pub/stats/afrinic/delegated-afrinic-extended-latest"};
+
+    static final String[] RIR_NAMES = Arrays.stream(RIR_URLS).map(url -> url.split("/+")[4]).toArray(String[]::new);
+
+    // All the RIR delegation files are served by the RIPE mirror, so at most FETCH_PER_HOST of them are fetched at once
+    private static final int FETCH_THREADS = 8;
+    private static final int FETCH_PER_HOST = 2;
+    private static final int FETCH_TIMEOUT = 60000;
+    private static final int FETCH_RETRIES = 3;
+    private static final long FETCH_BACKOFF = 2000;
+    // The fields of the PeeringDB objects used to infer siblings
+    static final String[] PDB_NET_FIELDS = {"asn", "org_id", "aka", "website", "looking_glass"};
+    static final String[] PDB_ORG_FIELDS = {"id", "name"};
+    // The default maximum number of organizations sharing a website or looking glass domain used as evidence
+    static final int URL_FANOUT_CAP = 20;
+    // The LSH parameters of the organization name matching and the default similarity threshold
+    static final int ORG_NAME_BANDS = 16;
+    static final int ORG_NAME_ROWS = 4;
+    static final int ORG_NAME_MAX_BUCKET = 100;
+    static final double ORG_NAME_THRESHOLD = 0.6;
+    // The stages of the run that are resumed from the working directory, and their files
+    private static final String PARSE_STAGE = "parse";
+    private static final String PARSED_FILE = "parsed.bin";
+    private static final String ENRICH_STAGE = "enrich";
+    private static final String ASN_ORGS_FILE = "asn-orgs.tsv";
     //
-    private Map<Integer, List<Integer>> pdbSiblings = new HashMap<>();
-    private Map<Integer, List<Integer>> v6LaunchSiblings = new HashMap<>();
-    private Map<String, List<Integer>> opqIDSiblings = new HashMap<>();
+    private SiblingClusters clusters;
+    private OpaqueIdGroups opqIDSiblings = new OpaqueIdGroups(RIR_NAMES);
+    // The prefixes of the delegation files, or null if they are not indexed
+    private PrefixIndex prefixIndex = null;
+    private final boolean provenance;
+    private final int urlFanOutCap;
+    private final RunMetrics metrics = new RunMetrics();
+
+    public SiblingASCollector() {
+        this(false, URL_FANOUT_CAP);
+    }
+
+    /**
+     * @param provenance If true, the evidence of every sibling edge is recorded
+     * @param urlFanOutCap The maximum number of organizations sharing a website or looking glass domain
+     *                     for the domain to be used as sibling evidence
+     */
+    public SiblingASCollector(boolean provenance, int urlFanOutCap) {
+        this.clusters = new SiblingClusters(provenance);
+        this.provenance = provenance;
+        this.urlFanOutCap = urlFanOutCap;
+    }
 
-    private Map<Integer, String> rirASNOpqIds = new HashMap<>();
     /**
-     * The main method that collects and outputs the PeeringDB data
-     * @param args Unused
+     * Clusters the evidence keys through an external sort within a memory budget, without provenance
+     * @param spill The external sort of the evidence keys
+     * @param urlFanOutCap The maximum number of organizations sharing a website or looking glass domain
+     *                     for the domain to be used as sibling evidence
+     */
+    SiblingASCollector(EdgeSpill spill, int urlFanOutCap) {
+        this.clusters = new SiblingClusters(spill);
+        this.provenance = false;
+        this.urlFanOutCap = urlFanOutCap;
+    }
+
+    /**
+     * The main method that collects and outputs the PeeringDB data.
+     * The run is split in stages that persist their results in the working directory: the datasets are fetched
+     * and parsed into sibling clusters, the organizations of the ASNs are resolved through WHOIS, and the outputs
+     * are written. A failed run that is started again on the same day resumes after its last completed stage.
+     * @param args The command line options, see {@link CollectorOptions#usage()}
      * @throws Exception
      */
+    @SuppressWarnings("try")
     public static void main(String[] args) throws Exception{
-        SiblingASCollector parser = new SiblingASCollector();
-        String pdbNetUrl = "https://www.peeringdb.com/api/net";
-        String pdbOrgUrl = "https://www.peeringdb.com/api/org";
-        String v6DayUrl = "http://worldipv6launch.appspot.com/asns.txt";
-        ArrayList<String> pdbNetResponse = parser.sendGet(pdbNetUrl);
-        ArrayList<String> pdbOrgResponse = parser.sendGet(pdbOrgUrl);
-        ArrayList<String> v6dayResponse = parser.sendGet(v6DayUrl);
-
-        JSONObject pdbNetData = parser.parseJson(String.join("", pdbNetResponse));
-        JSONObject pdbOrgData = parser.parseJson(String.join("", pdbOrgResponse));
-
-        HashMap<String, Integer> orgNameToId = parser.parsePdbOrgData(pdbOrgData);
-        parser.pdbSiblings = parser.parsePdbData(pdbNetData, orgNameToId);
-        parser.v6LaunchSiblings = parser.parseV6DayData(v6dayResponse);
-        parser.getASNDelegations();
-        parser.mergeSiblings();
-
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date date = new Date();
-
-        FileWriter writer = new FileWriter("SiblingASNs_"+dateFormat.format(date)+".txt");
-        for(Integer orgId: parser.pdbSiblings.keySet()) {
-            if (parser.pdbSiblings.get(orgId).size() > 1) {
-                Set<Integer> siblingsSet = new HashSet<>(parser.pdbSiblings.get(orgId));
-                String ASNString = siblingsSet.stream().map(Object::toString)
-                        .collect(Collectors.joining(" "));
-
-                writer.write(ASNString + "\n");
+        CollectorOptions options = CollectorOptions.parse(args);
+        if (options.getArchiveRoot() != null) {
+            int failed = new Backfill(options).run();
+            if (failed > 0)
+                System.exit(1);
+            return;
+        }
+        MemoryReport memoryReport = new MemoryReport(options.isMemoryReport());
+        // The bridges are found in the graph of the recorded evidence
+        SiblingASCollector parser = options.getSpillBudget() > 0
+                ? new SiblingASCollector(new EdgeSpill(options.getSpillDir(), options.getSpillBudget()),
+                        options.getUrlFanOutCap())
+                : new SiblingASCollector(options.isProvenance() || options.getBridgeCutSize() > 0,
+                        options.getUrlFanOutCap());
+        RunMetrics metrics = parser.metrics;
+        if (options.isPrefixIndex())
+            parser.prefixIndex = new PrefixIndex();
+        String currentDate = new SimpleDateFormat("yyyyMMdd").format(new Date());
+        Checkpoint checkpoint = new Checkpoint(options.getWorkDir(), currentDate, options.isRestart());
+        SnapshotCache cache = new SnapshotCache(options.getSnapshotDir(), options.isOffline(), FETCH_TIMEOUT, checkpoint);
+
+        // Report the stages of the sources in a fixed order, although they run concurrently
+        List<String> urls = new ArrayList<>(Arrays.asList(PDB_ORG_URL, PDB_NET_URL, V6_DAY_URL));
+        urls.addAll(Arrays.asList(RIR_URLS));
+        for (String url: urls) {
+            metrics.stage("fetch " + SourceFetcher.sourceName(url));
+            parser.parseStage(url);
+        }
+
+        HashMap<String, Integer> pdbOrgNames = new HashMap<>();
+        List<int[]> siblingClusters;
+        if (checkpoint.isDone(PARSE_STAGE)) {
+            System.out.println("Resuming from the parsed datasets of " + checkpoint.getDirectory());
+            siblingClusters = parser.loadParsed(checkpoint.path(PARSED_FILE), pdbOrgNames);
+            parser.opqIDSiblings.build();
+        }
+        else {
+            pdbOrgNames = parser.fetchAndParse(cache);
+            memoryReport.record("parse");
+
+            RunMetrics.Stage merge = metrics.stage("merge");
+            try (RunMetrics.Timer timer = merge.start()) {
+                parser.opqIDSiblings.build();
+                if (parser.prefixIndex != null)
+                    parser.prefixIndex.build();
+                siblingClusters = parser.clusters.getClusters(2);
+                merge.addRecords(parser.clusters.size(), 0);
             }
+            if (parser.clusters.getSpill() != null)
+                parser.reportSpill(parser.clusters.getSpill());
+            if (options.getBridgeCutSize() > 0)
+                siblingClusters = parser.cutBridges(options.getBridgeCutSize(), currentDate);
+            // The evidence of the edges is only kept in memory, so the provenance is written with the clusters,
+            // after the bridges are cut so that its lines are the clusters of the SiblingASNs file
+            if (options.isProvenance()) {
+                try (Writer provenanceWriter = new OutputStreamWriter(TextOutput.open(Paths.get(TextOutput.fileName(
+                        "SiblingASNsProvenance_" + currentDate + ".txt", options.isGzip())), options.isGzip()),
+                        StandardCharsets.UTF_8)) {
+                    parser.clusters.writeProvenance(provenanceWriter, siblingClusters);
+                }
+            }
+            parser.saveParsed(checkpoint.path(PARSED_FILE), siblingClusters, pdbOrgNames);
+            checkpoint.markDone(PARSE_STAGE, PARSED_FILE);
         }
+        metrics.recordClusters(siblingClusters);
 
-        Set<Integer> printedASNs = new HashSet<>();
-        for(Integer key: parser.v6LaunchSiblings.keySet()){
-            if (!printedASNs.contains(key)) {
-                StringBuilder ASNString = new StringBuilder();
-                for (Integer asn: parser.v6LaunchSiblings.get(key)){
-                    printedASNs.add(asn);
-                    if (ASNString.length() == 0){
-                        ASNString.append(asn);
-                    }
-                    else {
-                        ASNString.append(" ").append(asn);
+        Map<Integer, String> asnOrgs;
+        Map<Integer, String> asnOrgNames = new HashMap<>();
+        if (checkpoint.isDone(ENRICH_STAGE)) {
+            System.out.println("Resuming from the organizations of " + checkpoint.getDirectory());
+            asnOrgs = loadAsnOrgs(checkpoint.path(ASN_ORGS_FILE), asnOrgNames);
+        }
+        else {
+            // The enricher appends every resolved organization to the WHOIS cache, so a rerun only queries
+            // the ASNs that were not resolved before the failure
+            WhoisParser wp = new WhoisParser();
+            RunMetrics.Stage whois = metrics.stage("whois");
+            try (RunMetrics.Timer timer = whois.start(); WhoisEnricher enricher = new WhoisEnricher(wp, options.getWhoisCache(),
+                    TimeUnit.DAYS.toMillis(options.getWhoisTtlDays()), options.getWhoisThreads(),
+                    options.getWhoisRate(), options.getWhoisServer())) {
+                // With a spill budget the names of the bulk dumps are read in a second pass over the dumps,
+                // only for the resolved organizations, instead of the names of every organization of the dumps
+                boolean bounded = options.getSpillBudget() > 0;
+                for (Map.Entry<String, String> dump: options.getWhoisDumps().entrySet()) {
+                    Map<String, String> orgNames = bounded ? null : new HashMap<>();
+                    enricher.addBulkIndex(dump.getKey(), wp.readBulkDump(dump.getValue(), dump.getKey(), orgNames));
+                    if (!bounded)
+                        enricher.addOrgNames(orgNames);
+                }
+                asnOrgs = parser.outputOpqIdASNs(currentDate, wp, enricher, options.isGzip());
+                if (bounded) {
+                    Set<String> orgs = new HashSet<>(asnOrgs.values());
+                    for (Map.Entry<String, String> dump: options.getWhoisDumps().entrySet()) {
+                        Map<String, String> orgNames = new HashMap<>();
+                        wp.readOrgNames(dump.getValue(), dump.getKey(), orgs, orgNames);
+                        enricher.addOrgNames(orgNames);
                     }
                 }
-                writer.write(ASNString.toString() + "\n");
+                asnOrgNames = enricher.orgNames(asnOrgs);
+                enricher.reportMetrics(metrics);
+            }
+            saveAsnOrgs(checkpoint.path(ASN_ORGS_FILE), asnOrgs, asnOrgNames);
+            checkpoint.markDone(ENRICH_STAGE, ASN_ORGS_FILE);
+            memoryReport.record("whois");
+        }
+
+        RunMetrics.Stage output = metrics.stage("output");
+        try (RunMetrics.Timer timer = output.start()) {
+            TextOutput.writeClusters(Paths.get(TextOutput.fileName("SiblingASNs_" + currentDate + ".txt",
+                    options.isGzip())), siblingClusters, options.isGzip(), ForkJoinPool.commonPool());
+            SiblingSnapshot.write(Paths.get("SiblingASNs_" + currentDate + ".sibs"), siblingClusters,
+                    asnOrgs::get, parser.opqIDSiblings::opaqueIdOf);
+            if (options.isMatchOrgNames())
+                parser.outputOrgNameMatches(currentDate, pdbOrgNames, asnOrgNames, options.getOrgNameThreshold());
+            if (options.isIncremental())
+                outputDelta(siblingClusters, options.getPrevious(), currentDate);
+            if (parser.prefixIndex != null)
+                parser.outputAddressSpace(siblingClusters, currentDate, options.isGzip());
+            output.addRecords(siblingClusters.size(), 0);
+        }
+        memoryReport.record("output");
+
+        if (options.getAs2orgFile() != null) {
+            RunMetrics.Stage validation = metrics.stage("validate");
+            try (RunMetrics.Timer timer = validation.start()) {
+                As2OrgValidator.Result result = As2OrgValidator.read(options.getAs2orgFile()).validate(siblingClusters);
+                result.reportMetrics(metrics);
+                validation.addRecords(result.knownAsns, result.unknownAsns);
+                System.out.println("Validation against " + options.getAs2orgFile().getFileName() + ": " + result);
             }
         }
+        memoryReport.print();
+
+        metrics.writeJson(Paths.get("RunReport_" + currentDate + ".json"));
+        if (options.getPrometheusFile() != null)
+            metrics.writePrometheus(options.getPrometheusFile());
+        checkpoint.clear();
+    }
 
-        for (String key: parser.opqIDSiblings.keySet()){
-            Set<Integer> siblingsSet = new HashSet<>(parser.opqIDSiblings.get(key));
-            String ASNString = siblingsSet.stream().map(Object::toString)
-                    .collect(Collectors.joining(" "));
-            writer.write(ASNString + "\n");
+    /**
+     * Adds the counters of the external sort of the evidence to the run metrics and deletes its runs
+     * @param spill The external sort of the evidence keys
+     * @throws IOException When a run cannot be deleted
+     */
+    private void reportSpill(EdgeSpill spill) throws IOException {
+        metrics.count("spill_runs", spill.runCount());
+        metrics.count("spill_edges", spill.spilledEdges());
+        metrics.count("spill_bytes", spill.spilledBytes());
+        metrics.count("spill_merge_passes", spill.mergePasses());
+        System.out.println("Sorted " + spill.spilledEdges() + " evidence edges in " + spill.runCount() + " runs of "
+                + spill.spilledBytes() / (1024 * 1024) + " MB and " + spill.mergePasses() + " merge passes");
+        spill.close();
+    }
+
+    /**
+     * Cuts the low-confidence bridges of the evidence graph in the clusters above a size, and writes the bridges
+     * and articulation points of these clusters to SiblingASNsBridges_&lt;date&gt;.txt
+     * @param maxSize The maximum size of a cluster whose low-confidence bridges are kept
+     * @param currentDate The current date in YYYYMMDD format
+     * @return List<int[]> The sibling clusters after the cuts
+     * @throws IOException When writing the report fails
+     */
+    @SuppressWarnings("try")
+    List<int[]> cutBridges(int maxSize, String currentDate) throws IOException {
+        RunMetrics.Stage stage = metrics.stage("bridges");
+        try (RunMetrics.Timer timer = stage.start()) {
+            BridgeAnalysis analysis = new BridgeAnalysis(clusters);
+            int cut = analysis.writeReport(Paths.get("SiblingASNsBridges_" + currentDate + ".txt"), maxSize);
+            List<int[]> siblingClusters = analysis.getClusters(maxSize, 2);
+            stage.addRecords(analysis.bridgeCount(), 0);
+            metrics.count("bridges_cut", cut);
+            metrics.count("articulation_points", analysis.articulationCount());
+            System.out.println("Cut " + cut + " bridges of the clusters above " + maxSize + " ASNs, "
+                    + siblingClusters.size() + " clusters");
+
+            return siblingClusters;
         }
-        writer.close();
     }
 
     /**
-     * Issues an HTTP GET request and returns the body of the reply as list of lines
-     * @param url The URL to which the GET request is sent
-     * @return ArrayList<String> The list of lines in the response body
-     * @throws Exception
+     * Downloads all the datasets concurrently and parses each one as soon as it arrives
+     * @param cache The snapshot cache of the datasets
+     * @return HashMap<String, Integer> The mapping between PeeringDB organization names and organization IDs
+     * @throws IOException When the fetch executor cannot be created
+     */
+    private HashMap<String, Integer> fetchAndParse(SnapshotCache cache) throws IOException {
+        List<CompletableFuture<?>> sources = new ArrayList<>();
+        try (SourceFetcher fetcher = new SourceFetcher(cache, FETCH_THREADS, FETCH_PER_HOST, FETCH_RETRIES,
+                FETCH_BACKOFF, metrics)) {
+            CompletableFuture<HashMap<String, Integer>> orgNameToId = fetcher.downloadPdb(PDB_ORG_URL, PDB_ORG_FIELDS)
+                    .thenApplyAsync(file -> SourceFetcher.parse(file, measured(PDB_ORG_URL, in -> parsePdbOrgData(
+                            new PdbJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8), PDB_ORG_FIELDS)))),
+                            fetcher.getExecutor());
+            sources.add(orgNameToId);
+            // The networks can only be parsed after the organizations to resolve the aka names
+            sources.add(fetcher.downloadPdb(PDB_NET_URL, PDB_NET_FIELDS).thenCombineAsync(orgNameToId, (file, orgs) ->
+                    SourceFetcher.parse(file, measured(PDB_NET_URL, in -> {
+                        parsePdbData(new PdbJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8), PDB_NET_FIELDS), orgs);
+                        return null;
+                    })), fetcher.getExecutor()));
+            sources.add(fetcher.fetch(V6_DAY_URL, measured(V6_DAY_URL, in -> {
+                // The lines are parsed as they are read instead of being collected first
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                parseV6DayData(reader.lines()::iterator);
+                return null;
+            })));
+            for (int i = 0; i < RIR_URLS.length; i++) {
+                int rir = i;
+                // The delegation files are mapped instead of streamed to parse their byte ranges in parallel
+                sources.add(fetcher.fetchFile(RIR_URLS[i], file -> {
+                    parseDelegations(file, rir);
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(sources.toArray(new CompletableFuture<?>[0])).join();
+            return orgNameToId.join();
+        }
+    }
+
+    /**
+     * Persists the sibling clusters, the Opaque ID records and the PeeringDB organization names of the parse stage
+     * @param path The file of the parse stage in the working directory
+     * @param siblingClusters The sibling clusters
+     * @param pdbOrgNames The mapping between PeeringDB organization names and organization IDs
+     * @throws IOException When the file cannot be written
+     */
+    private void saveParsed(Path path, List<int[]> siblingClusters, Map<String, Integer> pdbOrgNames) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(siblingClusters.size());
+            for (int[] cluster: siblingClusters) {
+                out.writeInt(cluster.length);
+                for (int asn: cluster) {
+                    out.writeInt(asn);
+                }
+            }
+            opqIDSiblings.write(out);
+            out.writeBoolean(prefixIndex != null);
+            if (prefixIndex != null)
+                prefixIndex.write(out);
+            out.writeInt(pdbOrgNames.size());
+            for (Map.Entry<String, Integer> org: pdbOrgNames.entrySet()) {
+                out.writeUTF(org.getKey());
+                out.writeInt(org.getValue());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the results of the parse stage written by {@link #saveParsed}
+     * @param path The file of the parse stage in the working directory
+     * @param pdbOrgNames The map where the PeeringDB organization names are restored
+     * @return List<int[]> The sibling clusters
+     * @throws IOException When the file cannot be read
+     */
+    private List<int[]> loadParsed(Path path, Map<String, Integer> pdbOrgNames) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int count = in.readInt();
+            List<int[]> siblingClusters = new ArrayList<>(count);
+            for (int c = 0; c < count; c++) {
+                int[] cluster = new int[in.readInt()];
+                for (int i = 0; i < cluster.length; i++) {
+                    cluster[i] = in.readInt();
+                }
+                siblingClusters.add(cluster);
+            }
+            opqIDSiblings = OpaqueIdGroups.read(in, RIR_NAMES);
+            if (in.readBoolean()) {
+                PrefixIndex loaded = PrefixIndex.read(in);
+                if (prefixIndex != null)
+                    prefixIndex = loaded;
+            }
+            else if (prefixIndex != null) {
+                System.out.println("The parsed datasets have no prefixes, run with --restart to index them");
+                prefixIndex.build();
+            }
+            int orgs = in.readInt();
+            for (int i = 0; i < orgs; i++) {
+                pdbOrgNames.put(in.readUTF(), in.readInt());
+            }
+
+            return siblingClusters;
+        }
+    }
+
+    /**
+     * Persists the organizations resolved by the enrich stage, one ASN and organization per line,
+     * followed by the name of the organization if it is known
+     * @param path The file of the enrich stage in the working directory
+     * @param asnOrgs The organization of each ASN
+     * @param asnOrgNames The organization name of the ASNs that have one
+     * @throws IOException When the file cannot be written
+     */
+    private static void saveAsnOrgs(Path path, Map<Integer, String> asnOrgs, Map<Integer, String> asnOrgNames)
+            throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String> asnOrg: asnOrgs.entrySet()) {
+                writer.write(Asns.toString(asnOrg.getKey()) + "\t" + asnOrg.getValue().replaceAll("[\t\r\n]", " "));
+                String name = asnOrgNames.get(asnOrg.getKey());
+                if (name != null)
+                    writer.write("\t" + name.replaceAll("[\t\r\n]", " "));
+                writer.write("\n");
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param path The file of the enrich stage in the working directory
+     * @param asnOrgNames The map where the organization name of each ASN that has one is put
+     * @return Map<Integer, String> The organization of each ASN written by {@link #saveAsnOrgs}
+     * @throws IOException When the file cannot be read
+     */
+    private static Map<Integer, String> loadAsnOrgs(Path path, Map<Integer, String> asnOrgNames) throws IOException {
+        Map<Integer, String> asnOrgs = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lf = line.split("\t", 3);
+                asnOrgs.put(Integer.parseUnsignedInt(lf[0]), lf[1]);
+                if (lf.length == 3)
+                    asnOrgNames.put(Integer.parseUnsignedInt(lf[0]), lf[2]);
+            }
+        }
+
+        return asnOrgs;
+    }
+
+    /**
+     * Outputs the sets of ASNs with the same Opaque ID in a file, along with the organization of each ASN,
+     * ordered by their ASNs
+     * @param currentDate The current date in YYYYMMDD format
+     * @param wp The WHOIS parser to read the RIPE dump
+     * @param enricher The WHOIS enrichment service that resolves the organization of the remaining ASNs
+     * @param gzip If true, the file is gzip-compressed
+     * @return Map<Integer, String> The organization of each ASN of the groups with more than one ASN
+     * @throws IOException When output to local file fails
+     */
+    private Map<Integer, String> outputOpqIdASNs(String currentDate, WhoisParser wp, WhoisEnricher enricher,
+                                                 boolean gzip) throws IOException{
+        // Opaque IDs with only one ASN don't have sibling ASNs, so only the ASNs of the other groups are resolved
+        int[] groups = this.opqIDSiblings.sortedGroups(2);
+        IntIntHashMap groupAsns = new IntIntHashMap(-1);
+        for (int group: groups){
+            for (int i = 0; i < this.opqIDSiblings.groupSize(group); i++){
+                groupAsns.put(this.opqIDSiblings.member(group, i), group);
+            }
+        }
+
+        // Read the ASN-to-Org mapping of the ASNs of the groups from the RIPE dump
+        // RIPE throttles the requests to its whois server but provides a dump at:
+        // ftp://ftp.ripe.net/ripe/dbase/split/
+        HashMap<Integer, String> asnOrg = new HashMap<>();
+        if (new File(RIPE_AUT_NUM_DUMP).exists())
+            asnOrg = wp.readWhoisAutNum(RIPE_AUT_NUM_DUMP, groupAsns::containsKey);
+
+        // Issue the WHOIS queries of all the groups at once, the enricher bounds the concurrency per RIR
+        Map<Integer, CompletableFuture<String>> asnOrgs = new HashMap<>();
+        for (int group: groups){
+            for (int i = 0; i < this.opqIDSiblings.groupSize(group); i++){
+                int asn = this.opqIDSiblings.member(group, i);
+                String rirName = this.opqIDSiblings.rirOf(asn);
+                if (asnOrg.containsKey(asn))
+                    asnOrgs.put(asn, CompletableFuture.completedFuture(asnOrg.get(asn)));
+                else if (rirName != null)
+                    asnOrgs.computeIfAbsent(asn, k -> enricher.lookup(asn, rirName));
+            }
+        }
+
+        Map<Integer, String> groupOrgs = new HashMap<>();
+        int unresolved = 0;
+        for (int group: groups){
+            for (int i = 0; i < this.opqIDSiblings.groupSize(group); i++){
+                int asn = this.opqIDSiblings.member(group, i);
+                String org = asnOrgs.containsKey(asn) ? asnOrgs.get(asn).join() : null;
+                if (org == null || org.length() == 0)
+                    unresolved++;
+                else
+                    groupOrgs.put(asn, org);
+            }
+        }
+        // The names of the organizations of the RIPE dump are in the organisation objects of its split dump,
+        // only the names of the resolved organizations are read
+        if (new File(RIPE_ORGANISATION_DUMP).exists()) {
+            Map<String, String> orgNames = new HashMap<>();
+            wp.readOrgNames(RIPE_ORGANISATION_DUMP, "ripe", new HashSet<>(groupOrgs.values()), orgNames);
+            enricher.addOrgNames(orgNames);
+        }
+
+        TextOutput.writeLines(Paths.get(TextOutput.fileName("OpaqueIdAsnGroups_" + currentDate + ".txt", gzip)),
+                groups.length, (line, out) -> {
+                    int group = groups[line];
+                    for (int i = 0; i < this.opqIDSiblings.groupSize(group); i++){
+                        if (i > 0)
+                            out.append(' ');
+                        out.appendUnsigned(this.opqIDSiblings.member(group, i));
+                    }
+                    out.append('|');
+                    for (int i = 0; i < this.opqIDSiblings.groupSize(group); i++){
+                        int asn = this.opqIDSiblings.member(group, i);
+                        if (i > 0)
+                            out.append('\t');
+                        String org = groupOrgs.get(asn);
+                        if (org == null)
+                            out.append("AS").appendUnsigned(asn);
+                        else
+                            out.append(org);
+                    }
+                    out.append('\n');
+                }, gzip, ForkJoinPool.commonPool());
+        metrics.stage("whois").addRecords(groupOrgs.size(), unresolved);
+
+        return groupOrgs;
+    }
+
+    /**
+     * Outputs the proposed matches between similar organization names of PeeringDB and of the RIRs
+     * in OrgNameMatches_&lt;date&gt;.txt, one match per line as score|source|name|source|name
+     * @param currentDate The current date in YYYYMMDD format
+     * @param pdbOrgNames The names of the PeeringDB organizations
+     * @param asnOrgNames The organization name of the ASNs with an Opaque ID shared with other ASNs, e.g. the
+     *                    ARIN OrgName of their OrgId, for the ASNs whose organization has a known name
+     * @param threshold The minimum similarity of two names
+     * @throws IOException When output to local file fails
+     */
+    private void outputOrgNameMatches(String currentDate, Map<String, Integer> pdbOrgNames,
+                                      Map<Integer, String> asnOrgNames, double threshold) throws IOException {
+        // Source 0 is PeeringDB and source i + 1 is the i-th RIR, each distinct name of a source is added once
+        OrgNameMatcher matcher = new OrgNameMatcher(ORG_NAME_BANDS, ORG_NAME_ROWS, ORG_NAME_MAX_BUCKET);
+        for (String name: pdbOrgNames.keySet()) {
+            matcher.add(name, 0);
+        }
+        Set<String> added = new HashSet<>();
+        for (Map.Entry<Integer, String> asnOrgName: asnOrgNames.entrySet()) {
+            String rirName = this.opqIDSiblings.rirOf(asnOrgName.getKey());
+            if (rirName != null && added.add(rirName + "|" + asnOrgName.getValue()))
+                matcher.add(asnOrgName.getValue(), Arrays.asList(RIR_NAMES).indexOf(rirName) + 1);
+        }
+
+        List<OrgNameMatcher.Match> matches = matcher.match(threshold);
+        try (Writer writer = new BufferedWriter(new FileWriter("OrgNameMatches_" + currentDate + ".txt"))) {
+            for (OrgNameMatcher.Match match: matches) {
+                writer.write(String.format(Locale.ROOT, "%.3f|%s|%s|%s|%s%n", match.score,
+                        sourceName(matcher.source(match.a)), matcher.name(match.a),
+                        sourceName(matcher.source(match.b)), matcher.name(match.b)));
+            }
+        }
+        System.out.println("Matched " + matches.size() + " pairs of " + matcher.size() + " organization names");
+        if (matcher.skippedBuckets() > 0)
+            System.out.println("Skipped " + matcher.skippedBuckets() + " LSH buckets of more than " + ORG_NAME_MAX_BUCKET
+                    + " organization names, with " + matcher.skippedPairs() + " candidate pairs");
+        metrics.count("org_name_matches", matches.size());
+        metrics.count("org_name_skipped_buckets", matcher.skippedBuckets());
+        metrics.count("org_name_skipped_pairs", matcher.skippedPairs());
+    }
+
+    private static String sourceName(int source) {
+        return source == 0 ? "peeringdb" : RIR_NAMES[source - 1];
+    }
+
+    /**
+     * Outputs the changes of the sibling clusters since a previous run in SiblingASNsDelta_&lt;date&gt;.txt
+     * @param siblingClusters The sibling clusters of this run
+     * @param previous The SiblingASNs file of the previous run, or null to use the latest earlier one
+     * @param currentDate The current date in YYYYMMDD format
+     * @throws IOException When reading the previous file or writing the delta fails
+     */
+    private static void outputDelta(List<int[]> siblingClusters, Path previous, String currentDate)
+            throws IOException {
+        if (previous == null) {
+            // The file names sort by date, so the latest earlier run is the greatest name before this run's date
+            String siblingsFile = "SiblingASNs_" + currentDate;
+            File[] earlier = new File(".").listFiles((dir, name) -> name.startsWith("SiblingASNs_")
+                    && (name.endsWith(".txt") || name.endsWith(".txt.gz")) && name.compareTo(siblingsFile) < 0);
+            if (earlier == null || earlier.length == 0) {
+                System.out.println("No previous SiblingASNs file, skipping the delta");
+                return;
+            }
+            Arrays.sort(earlier);
+            previous = earlier[earlier.length - 1].toPath();
+        }
+
+        ClusterDelta delta = new ClusterDelta(SiblingArchive.readSnapshot(previous), siblingClusters);
+        delta.write(Paths.get("SiblingASNsDelta_" + currentDate + ".txt"), previous.getFileName().toString());
+        System.out.println("Changes since " + previous.getFileName() + ": " + delta.summary());
+    }
+
+    /**
+     * Maps the prefixes of the delegation files to the sibling clusters of their Opaque IDs, and writes the
+     * address space of each cluster to SiblingASNsAddressSpace_&lt;date&gt;.txt, in the order of the clusters
+     * @param siblingClusters The sibling clusters in the order of the SiblingASNs file
+     * @param currentDate The current date in YYYYMMDD format
+     * @param gzip If true, the file is gzip-compressed
+     * @throws IOException When writing the file fails
      */
-    private ArrayList<String> sendGet(String url) throws Exception {
+    private void outputAddressSpace(List<int[]> siblingClusters, String currentDate, boolean gzip) throws IOException {
+        IntIntHashMap asnCluster = new IntIntHashMap(-1);
+        for (int c = 0; c < siblingClusters.size(); c++) {
+            for (int asn: siblingClusters.get(c)) {
+                asnCluster.putIfAbsent(asn, c);
+            }
+        }
+        prefixIndex.assignClusters(opqIDSiblings, asnCluster::get, siblingClusters.size());
+        prefixIndex.writeAddressSpace(Paths.get(TextOutput.fileName("SiblingASNsAddressSpace_" + currentDate + ".txt",
+                gzip)), gzip, ForkJoinPool.commonPool());
+        metrics.count("prefix_index_ipv4", prefixIndex.ipv4Count());
+        metrics.count("prefix_index_ipv6", prefixIndex.ipv6Count());
+        metrics.count("prefix_index_bytes", prefixIndex.memoryBytes());
+        System.out.println("Indexed " + prefixIndex.ipv4Count() + " ipv4 and " + prefixIndex.ipv6Count()
+                + " ipv6 prefixes in " + prefixIndex.memoryBytes() / 1024 + " KB");
+    }
 
-        URL obj = new URL(url);
-        HttpURLConnection con = (HttpURLConnection) obj.openConnection();
+    /**
+     * @return SiblingClusters The sibling clusters inferred from the parsed data
+     */
+    SiblingClusters getClusters() {
+        return clusters;
+    }
 
-        // optional default is GET
-        con.setRequestMethod("GET");
+    /**
+     * @return OpaqueIdGroups The ASNs of each Opaque ID of the parsed delegation files
+     */
+    OpaqueIdGroups getOpaqueIdGroups() {
+        return opqIDSiblings;
+    }
 
-        //add request header
-        con.setRequestProperty("User-Agent", USER_AGENT);
+    /**
+     * Wraps the parser of a dataset to record its time, bytes read and allocation in the "parse" stage of the dataset
+     * @param url The URL of the dataset
+     * @param parser The parser of the dataset
+     * @return SourceFetcher.SourceParser<T> The measured parser
+     */
+    @SuppressWarnings("try")
+    <T> SourceFetcher.SourceParser<T> measured(String url, SourceFetcher.SourceParser<T> parser) {
+        RunMetrics.Stage stage = parseStage(url);
+        return in -> {
+            try (RunMetrics.Timer timer = stage.start()) {
+                return parser.parse(stage.count(in));
+            }
+        };
+    }
 
-        //int responseCode = con.getResponseCode();
-        BufferedReader in = new BufferedReader(
-                new InputStreamReader(con.getInputStream()));
+    private RunMetrics.Stage parseStage(String url) {
+        return metrics.stage("parse " + SourceFetcher.sourceName(url));
+    }
+
+    /**
+     * Reads a dataset as a list of lines
+     * @param in The stream of the dataset
+     * @return ArrayList<String> The list of lines in the dataset
+     * @throws IOException When reading the stream fails
+     */
+    static ArrayList<String> readLines(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
         String inputLine;
-        // StringBuffer response = new StringBuffer();
         ArrayList<String> response = new ArrayList<>();
-        while ((inputLine = in.readLine()) != null) {
+        while ((inputLine = reader.readLine()) != null) {
             response.add(inputLine);
         }
-        in.close();
 
         return response;
     }
@@ -143,7 +700,7 @@ public class SiblingASCollector{
      * @param jsonString The string that represents a JSON object
      * @return JSONObject The decoded JSON object
      */
-    private JSONObject parseJson(String jsonString){
+    JSONObject parseJson(String jsonString){
         JSONObject jsonObject = null;
         JSONParser parser = new JSONParser();
         try{
@@ -159,44 +716,51 @@ public class SiblingASCollector{
     }
 
     /**
-     * Parses the PeeringDB JSON response from api/org to extract and return the OrgName to Org ID mapping
-     * @param pdbOrgData The JSON response from the PeeringDB API
+     * Parses the PeeringDB objects from api/org to extract and return the OrgName to Org ID mapping
+     * @param orgs_array The organization objects, either the data array of a JSON response or a PdbJsonReader
      * @return HashMap<String, Integer> The mapping between organizations and ASNs under each organization
      */
-    private HashMap<String, Integer> parsePdbOrgData(@NotNull JSONObject pdbOrgData) {
+    HashMap<String, Integer> parsePdbOrgData(@NotNull Iterable<?> orgs_array) {
         HashMap<String, Integer> orgNameToId = new HashMap<>();
-        JSONArray orgs_array = (JSONArray) pdbOrgData.get("data");
+        int skipped = 0;
         if (orgs_array != null){
             for (Object obj : orgs_array) {
-                if (obj instanceof JSONObject) {
-                    JSONObject jsonObj = (JSONObject) obj;
+                if (obj instanceof Map) {
+                    Map<?, ?> jsonObj = (Map<?, ?>) obj;
                     String orgName = (String) jsonObj.get("name");
-                    Integer orgId = (int) (long) jsonObj.get("id");
-                    orgNameToId.put(orgName, orgId);
+                    Object orgId = jsonObj.get("id");
+                    if (orgName == null || orgId == null) {
+                        skipped++;
+                        continue;
+                    }
+                    orgNameToId.put(orgName, (int) (long) orgId);
                 }
             }
         }
+        parseStage(PDB_ORG_URL).addRecords(orgNameToId.size(), skipped);
 
         return orgNameToId;
     }
 
     /**
-     * Parses the PeeringDB JSON response from api/net to extract and return the ASN to Org ID mapping
-     * @param pdbResponse The JSON response from the PeeringDB API
+     * Parses the PeeringDB objects from api/net and adds the organization, aka, website and looking glass
+     * of each network as sibling evidence
+     * @param nets_array The network objects, either the data array of a JSON response or a PdbJsonReader
      * @param orgNameToId The mapping between organization names and organization IDs
-     * @return HashMap<Integer, ArrayList<Integer>> The mapping between organizations and ASNs under each organization
      */
-    private HashMap<Integer, List<Integer>> parsePdbData(@NotNull JSONObject pdbResponse, HashMap<String, Integer> orgNameToId){
-        HashMap<Integer, List<Integer>> org2ASN = new HashMap<>();
-        HashMap<Integer, Set<Integer>> siblingOrgs = new HashMap<>();
-        HashMap<String, Set<Integer>> websiteOrgs = new HashMap<>();
-        HashMap<String, Set<Integer>> lookingGlassOrgs = new HashMap<>();
-        JSONArray nets_array = (JSONArray) pdbResponse.get("data");
-
+    void parsePdbData(@NotNull Iterable<?> nets_array, HashMap<String, Integer> orgNameToId){
+        UrlIndex websites = new UrlIndex(urlFanOutCap, provenance);
+        UrlIndex lookingGlasses = new UrlIndex(urlFanOutCap, provenance);
+        int records = 0;
+        int skipped = 0;
         if (nets_array != null){
             for (Object obj : nets_array) {
-                if (obj instanceof JSONObject) {
-                    JSONObject jsonObj = (JSONObject) obj;
+                if (obj instanceof Map) {
+                    Map<?, ?> jsonObj = (Map<?, ?>) obj;
+                    if (jsonObj.get("asn") == null || jsonObj.get("org_id") == null) {
+                        skipped++;
+                        continue;
+                    }
 
                     Integer asn = (int) (long) jsonObj.get("asn");
                     Integer orgId = (int) (long) jsonObj.get("org_id");
@@ -204,165 +768,91 @@ public class SiblingASCollector{
                     String website = (String) jsonObj.get("website");
                     String lookingGlass = (String) jsonObj.get("looking_glass");
 
-                    if (website.startsWith("http")){
-                        websiteOrgs.computeIfAbsent(website, k -> new HashSet<>()).add(orgId);
-                    }
-                    if (lookingGlass.startsWith("http")){
-                        lookingGlassOrgs.computeIfAbsent(lookingGlass, k -> new HashSet<>()).add(orgId);
-                    }
+                    clusters.addEvidence(SiblingClusters.Evidence.ORG_ID, orgId, asn);
+                    // Networks with the same website or looking glass domain belong to sibling organizations
+                    websites.add(website, asn, orgId);
+                    lookingGlasses.add(lookingGlass, asn, orgId);
+                    // A network whose aka is the name of another organization belongs to a sibling organization
                     if (orgNameToId.containsKey(aka)){
-                        Integer akaOrgId = orgNameToId.get(aka);
-                        if (!akaOrgId.equals(orgId)){
-                            siblingOrgs.computeIfAbsent(akaOrgId, k -> new HashSet<>()).add(orgId);
-                            siblingOrgs.computeIfAbsent(orgId, k -> new HashSet<>()).add(akaOrgId);
-                        }
-                    }
-                    org2ASN.computeIfAbsent(orgId, k -> new ArrayList<>()).add(asn);
-                }
-            }
-
-            // Merge ASNs that have the same website or looking glass URL
-            for (HashMap<String, Set<Integer>> urlOrgs : new HashMap[]{websiteOrgs, lookingGlassOrgs}) {
-                for (String url : urlOrgs.keySet()){
-                    Set<Integer> orgs = urlOrgs.get(url);
-                    for (Integer orgId : orgs){
-                        siblingOrgs.computeIfAbsent(orgId, k -> new HashSet<>()).addAll(orgs);
-                        siblingOrgs.get(orgId).remove(orgId);
-                    }
-                }
-            }
-
-            // Merge ASNs that belong to sibling organizations
-            List<Integer> orgIds = new ArrayList<>(org2ASN.keySet());
-            for (Integer orgId: orgIds) {
-                if (siblingOrgs.containsKey(orgId) && org2ASN.containsKey(orgId)) {
-                    for (Integer siblingOrgId : siblingOrgs.get(orgId)) {
-                        List<Integer> siblingOrgASNs = org2ASN.get(siblingOrgId);
-                        if (siblingOrgASNs != null) {
-                            try {
-                                org2ASN.get(orgId).addAll(siblingOrgASNs);
-                                org2ASN.remove(siblingOrgId);
-                                siblingOrgs.remove(siblingOrgId);
-                            } catch (NullPointerException npe) {
-                                System.out.println(siblingOrgId);
-                            }
-                        }
+                        clusters.addEvidence(SiblingClusters.Evidence.AKA, orgNameToId.get(aka), asn);
                     }
+                    records++;
                 }
             }
         }
-
-        return org2ASN;
+        parseStage(PDB_NET_URL).addRecords(records, skipped);
+
+        // The domains can only be matched once the organizations of all the networks are known
+        int ignored = websites.addEvidence(clusters, SiblingClusters.Evidence.WEBSITE)
+                + lookingGlasses.addEvidence(clusters, SiblingClusters.Evidence.LOOKING_GLASS);
+        if (ignored > 0)
+            System.out.println("Ignored " + ignored + " website and looking glass domains of more than "
+                    + urlFanOutCap + " organizations");
+        if (provenance) {
+            clusters.setKeyNames(SiblingClusters.Evidence.WEBSITE, websites::domain);
+            clusters.setKeyNames(SiblingClusters.Evidence.LOOKING_GLASS, lookingGlasses::domain);
+        }
     }
 
     /**
      * Parses the list of ASNs from the World IPv6 Launch site to extract self-reported sibling ASNs
      * @param lines The lines obtained by querying the World IPv6 launch page of participating ASNs
      */
-    private HashMap<Integer, List<Integer>> parseV6DayData(@NotNull ArrayList<String> lines){
-        HashMap<Integer, List<Integer>> asnSiblings = new HashMap<>();
+    void parseV6DayData(@NotNull Iterable<String> lines){
+        int records = 0;
+        int skipped = 0;
         for (String line: lines){
             String[] lf = line.split("\\|")[0].split(",");
             if (lf.length > 1){
-                for (String aLf : lf) {
-                    Integer key = Integer.parseInt(aLf);
-                    List<Integer> siblings = Arrays.stream(lf).map(Integer::valueOf).collect(Collectors.toList());
-                    asnSiblings.put(key, siblings);
-                }
-            }
-        }
-
-        return asnSiblings;
-    }
-
-    /**
-     * Takes the siblings collected by each different data source and merges them in a single dataset
-     */
-    private void mergeSiblings(){
-        for (Integer orgId: pdbSiblings.keySet()){
-            List<Integer> commonSiblings = new LinkedList<>();
-            for (Integer asn: pdbSiblings.get(orgId)) {
-                if (v6LaunchSiblings.containsKey(asn)) {
-                    commonSiblings = v6LaunchSiblings.get(asn);
-                    break;
-                }
-            }
-
-            // if the two sets of sibling ASNs contain a common ASN, merge them
-            if (commonSiblings.size() > 0) {
-                for (Integer asn : commonSiblings) {
-                    // Delete the siblings from the v6Lanuch dataset to avoid duplicates
-                    v6LaunchSiblings.remove(asn);
-                    // Add the ASN to the PeeringDB dataset
-                    pdbSiblings.get(orgId).add(asn);
-                }
-            }
-
-            // Merge PDB siblings with those inferred from the Opaque IDs of extended RIRs
-            List<Integer> intersection_pdb = new ArrayList<>(pdbSiblings.get(orgId));
-            intersection_pdb.retainAll(rirASNOpqIds.keySet());
-            if (intersection_pdb.size() > 0){
-                for (Integer common_asn: intersection_pdb){
-                    String opqId = rirASNOpqIds.get(common_asn);
-                    try{
-                        pdbSiblings.get(orgId).addAll(opqIDSiblings.get(opqId));
-                    }catch (java.lang.NullPointerException ex){
-                        continue;
+                int[] asns = new int[lf.length];
+                try {
+                    for (int i = 0; i < lf.length; i++) {
+                        asns[i] = Asns.parse(lf[i]);
                     }
-                    opqIDSiblings.remove(opqId);
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
                 }
+                for (int asn : asns) {
+                    clusters.addEdge(SiblingClusters.Evidence.V6_LAUNCH, asns[0], asn);
+                }
+                records++;
             }
         }
-
-        // Merge the siblings inferred from the Opaque IDs of extended RIRs with those from the IPv6 Launch day
-        for (String opqId: opqIDSiblings.keySet()){
-            List<Integer> intersection_v6launch = new ArrayList<>(opqIDSiblings.get(opqId));
-            intersection_v6launch.retainAll(v6LaunchSiblings.keySet());
-            if (intersection_v6launch.size() > 0){
-                Integer common_asn = intersection_v6launch.get(0);
-                opqIDSiblings.get(opqId).addAll(v6LaunchSiblings.get(common_asn));
-                v6LaunchSiblings.keySet().removeAll(v6LaunchSiblings.get(common_asn));
-            }
-        }
+        parseStage(V6_DAY_URL).addRecords(records, skipped);
     }
 
     /***
-     * Parses the extended RIR delegation files for ASN assignments to organizations
-     * with the same Opaque ID.
-     * @throws Exception
+     * Parses an extended RIR delegation file for ASN assignments to organizations
+     * and adds the Opaque ID of each ASN as sibling evidence.
+     * The file is memory-mapped and parsed in parallel byte ranges on the common fork/join pool.
+     * @param file The delegation file
+     * @param rir The index of the RIR of the delegation file in RIR_URLS
+     * @throws IOException When reading the file fails
      */
-    private void getASNDelegations() throws Exception {
-        String[] rirURLs = {"https://ftp.ripe.net/pub/stats/ripencc/delegated-ripencc-extended-latest",
-                            "https://ftp.ripe.net/pub/stats/lacnic/delegated-lacnic-extended-latest",
-                            "https://ftp.ripe.net/pub/stats/arin/delegated-arin-extended-latest",
-                            "https://ftp.ripe.net/pub/stats/apnic/delegated-apnic-extended-latest",
-                            "https://ftp.ripe.net/pub/stats/afrinic/delegated-afrinic-extended-latest"};
-        for (String url: rirURLs){
-            ArrayList<String> delegationsResponse = this.sendGet(url);
-            for (String line: delegationsResponse){
-                String[] lf = line.split("\\|");
-                if (lf.length > 6 && lf[2].equals("asn")){
-                    String opqID = lf[lf.length - 1];
-                    if (!opqIDSiblings.containsKey(opqID)){
-                        opqIDSiblings.put(opqID, new ArrayList<>());
-                    }
-                    opqIDSiblings.get(opqID).add(Integer.parseInt(lf[3]));
-                }
-            }
+    @SuppressWarnings("try")
+    void parseDelegations(Path file, int rir) throws IOException {
+        RunMetrics.Stage stage = parseStage(RIR_URLS[rir]);
+        try (RunMetrics.Timer timer = stage.start()) {
+            stage.addBytesRead(Files.size(file));
+            addDelegations(DelegationParser.parse(file, ForkJoinPool.commonPool(), prefixIndex != null), rir);
         }
+    }
 
-        // Remove Opaque IDs with only one ASN since they don't have have sibling ASNs
-        //opqIDSiblings.entrySet().removeIf(entry -> entry.getValue().size() < 2);
-        Iterator<Map.Entry<String,List<Integer>>> iter = opqIDSiblings.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<String,List<Integer>> entry = iter.next();
-            if (entry.getValue().size() < 2){
-                iter.remove();
-            }else{
-                for (Integer asn: entry.getValue()) {
-                    rirASNOpqIds.put(asn, entry.getKey());
-                }
-            }
+    /**
+     * Adds the Opaque ID of each ASN of a parsed delegation file as sibling evidence, and its prefixes to the
+     * prefix index if the prefixes are indexed
+     * @param records The (Opaque ID, ASN) pairs of the delegation file
+     * @param rir The index of the RIR of the delegation file in RIR_URLS
+     */
+    void addDelegations(DelegationParser.Result records, int rir) {
+        clusters.addEvidence(SiblingClusters.Evidence.OPAQUE_ID, records.getOpaqueIds(), records.getAsns(), records.size());
+        opqIDSiblings.addAll(rir, records.getOpaqueIds(), records.getAsns(), records.size());
+        if (prefixIndex != null && records.getIpv4Prefixes() != null) {
+            prefixIndex.addAll(records.getIpv4Prefixes(), records.getIpv6Prefixes());
+            parseStage(RIR_URLS[rir]).addRecords(records.getIpv4Prefixes().size() + records.getIpv6Prefixes().size(),
+                    records.skippedPrefixes());
         }
+        parseStage(RIR_URLS[rir]).addRecords(records.size(), records.skipped());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,720 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A time-indexed archive of the daily SiblingASNs files, or of the OpaqueIdAsnGroups files, that answers
+ * point-in-time membership, history and churn queries from a memory-mapped file without reading the text files.
+ * <p>
+ * A cluster version is a set of ASNs with the range of consecutive snapshots in which it appeared unchanged,
+ * so a stable cluster is stored once for all the days it exists, and sets that reappear share their members.
+ * All the values are big-endian 32-bit integers. The file starts with a header:
+ * <pre>
+ * magic "SIBA" | version | dates (d) | contents (c) | members (m) | versions (v) | ASNs (n) | ASN versions (h)
+ * </pre>
+ * followed by the columns:
+ * <ul>
+ *     <li>dates[d]: the dates of the snapshots as yyyyMMdd in ascending order</li>
+ *     <li>contentOffsets[c + 1], members[m]: the sorted ASNs of each distinct set</li>
+ *     <li>versionStarts[v], versionEnds[v], versionContents[v]: the indices of the first and last snapshot
+ *     of each version and its set, versions are ordered by their first snapshot</li>
+ *     <li>asns[n], asnOffsets[n + 1], asnVersions[h]: the ASNs in ascending order and the versions of each ASN,
+ *     ordered by their first snapshot</li>
+ * </ul>
+ * Usage:
+ * <pre>
+ * java com.vgiotsas.SiblingArchive build &lt;archive&gt; [--prefix SiblingASNs_] &lt;file or directory&gt; ...
+ * java com.vgiotsas.SiblingArchive at &lt;archive&gt; &lt;asn&gt; &lt;yyyyMMdd&gt;
+ * java com.vgiotsas.SiblingArchive history &lt;archive&gt; &lt;asn&gt;
+ * java com.vgiotsas.SiblingArchive together &lt;archive&gt; &lt;asn&gt; &lt;asn&gt;
+ * java com.vgiotsas.SiblingArchive churn &lt;archive&gt; &lt;from yyyyMMdd&gt; &lt;to yyyyMMdd&gt;
+ * </pre>
+ * Building an existing archive only adds the snapshots after its last date.
+ */
+public class SiblingArchive implements Closeable {
+
+    private static final int MAGIC = 0x53494241;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final Pattern SNAPSHOT_DATE = Pattern.compile("_(\\d{8})\\.txt(\\.gz)?$");
+
+    /**
+     * A set of ASNs and the snapshots in which it appeared unchanged
+     */
+    public static class ClusterVersion {
+        public final int id;
+        // The dates of the first and last snapshot of the version as yyyyMMdd
+        public final int start;
+        public final int end;
+        public final int[] members;
+
+        ClusterVersion(int id, int start, int end, int[] members) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.members = members;
+        }
+    }
+
+    /**
+     * The changes between a snapshot and the previous one
+     */
+    public static class Transition {
+        public final int date;
+        // The versions that appeared and disappeared with the snapshot
+        public final int started;
+        public final int ended;
+        // The number of ASNs of the versions that appeared
+        public final int asns;
+
+        Transition(int date, int started, int ended, int asns) {
+            this.date = date;
+            this.started = started;
+            this.ended = ended;
+            this.asns = asns;
+        }
+    }
+
+    /**
+     * Accumulates the snapshots in date order and writes the archive
+     */
+    public static class Builder {
+        private int[] dates = new int[64];
+        private int dateCount = 0;
+        private final List<int[]> contents = new ArrayList<>();
+        private final LongIntHashMap contentIds = new LongIntHashMap(-1);
+        private int[] versionStarts = new int[1024];
+        private int[] versionEnds = new int[1024];
+        private int[] versionContents = new int[1024];
+        private int versionCount = 0;
+        // The version of each set in the last snapshot
+        private IntIntHashMap current = new IntIntHashMap(-1);
+
+        /**
+         * @param archive An existing archive, whose snapshots are followed by the added ones
+         * @return Builder A builder with the snapshots of the archive
+         */
+        public static Builder from(SiblingArchive archive) {
+            Builder builder = new Builder();
+            for (int d = 0; d < archive.dateCount; d++) {
+                builder.addDate(archive.date(d));
+            }
+            for (int c = 0; c < archive.contentCount; c++) {
+                builder.intern(archive.content(c));
+            }
+            for (int v = 0; v < archive.versionCount; v++) {
+                int start = archive.buffer.getInt(archive.versionStarts + 4 * v);
+                int end = archive.buffer.getInt(archive.versionEnds + 4 * v);
+                int content = archive.buffer.getInt(archive.versionContents + 4 * v);
+                builder.addVersion(start, end, content);
+                if (end == archive.dateCount - 1)
+                    builder.current.put(content, v);
+            }
+
+            return builder;
+        }
+
+        /**
+         * Adds the clusters of a snapshot
+         * @param date The date of the snapshot as yyyyMMdd, after the date of the last added snapshot
+         * @param clusters The clusters of the snapshot, each as a sorted array of ASNs
+         * @throws IllegalArgumentException When the date is not after the last added date
+         */
+        public void addSnapshot(int date, List<int[]> clusters) {
+            if (dateCount > 0 && date <= dates[dateCount - 1])
+                throw new IllegalArgumentException("Snapshot " + date + " is not after " + dates[dateCount - 1]);
+
+            int index = addDate(date);
+            IntIntHashMap next = new IntIntHashMap(clusters.size() * 2, -1);
+            for (int[] cluster: clusters) {
+                int content = intern(cluster);
+                // The same set twice in a snapshot is archived once
+                if (next.containsKey(content))
+                    continue;
+                int version = current.get(content);
+                if (version >= 0)
+                    versionEnds[version] = index;
+                else
+                    version = addVersion(index, index, content);
+                next.put(content, version);
+            }
+            current = next;
+        }
+
+        /**
+         * @return int The date of the last added snapshot, or 0 if there is none
+         */
+        public int lastDate() {
+            return dateCount > 0 ? dates[dateCount - 1] : 0;
+        }
+
+        public int dateCount() {
+            return dateCount;
+        }
+
+        /**
+         * Writes the archive to a temporary file that is then moved to the path, so that readers never see
+         * a partial file
+         * @param path The path of the archive
+         * @throws IOException When writing the file fails
+         */
+        public void write(Path path) throws IOException {
+            int memberCount = 0;
+            for (int[] content: contents) {
+                memberCount += content.length;
+            }
+
+            // The (ASN, version) pairs sorted by ASN and then by version, which is the order of the first snapshot
+            long[] asnVersions = new long[0];
+            int pairs = 0;
+            for (int v = 0; v < versionCount; v++) {
+                int[] content = contents.get(versionContents[v]);
+                if (pairs + content.length > asnVersions.length)
+                    asnVersions = Arrays.copyOf(asnVersions, Math.max(pairs + content.length, asnVersions.length * 2));
+                for (int asn: content) {
+                    asnVersions[pairs++] = ((long) asn << 32) | v;
+                }
+            }
+            Arrays.sort(asnVersions, 0, pairs);
+            int asnCount = 0;
+            for (int i = 0; i < pairs; i++) {
+                if (i == 0 || (asnVersions[i] >> 32) != (asnVersions[i - 1] >> 32))
+                    asnCount++;
+            }
+
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dateCount);
+                out.writeInt(contents.size());
+                out.writeInt(memberCount);
+                out.writeInt(versionCount);
+                out.writeInt(asnCount);
+                out.writeInt(pairs);
+                for (int d = 0; d < dateCount; d++) {
+                    out.writeInt(dates[d]);
+                }
+                int offset = 0;
+                for (int[] content: contents) {
+                    out.writeInt(offset);
+                    offset += content.length;
+                }
+                out.writeInt(offset);
+                for (int[] content: contents) {
+                    for (int asn: content) {
+                        out.writeInt(asn);
+                    }
+                }
+                for (int v = 0; v < versionCount; v++) {
+                    out.writeInt(versionStarts[v]);
+                }
+                for (int v = 0; v < versionCount; v++) {
+                    out.writeInt(versionEnds[v]);
+                }
+                for (int v = 0; v < versionCount; v++) {
+                    out.writeInt(versionContents[v]);
+                }
+                for (int i = 0; i < pairs; i++) {
+                    if (i == 0 || (asnVersions[i] >> 32) != (asnVersions[i - 1] >> 32))
+                        out.writeInt((int) (asnVersions[i] >> 32));
+                }
+                for (int i = 0; i < pairs; i++) {
+                    if (i == 0 || (asnVersions[i] >> 32) != (asnVersions[i - 1] >> 32))
+                        out.writeInt(i);
+                }
+                out.writeInt(pairs);
+                for (int i = 0; i < pairs; i++) {
+                    out.writeInt((int) asnVersions[i]);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int addDate(int date) {
+            if (dateCount == dates.length)
+                dates = Arrays.copyOf(dates, dateCount * 2);
+            dates[dateCount] = date;
+            return dateCount++;
+        }
+
+        private int addVersion(int start, int end, int content) {
+            if (versionCount == versionStarts.length) {
+                versionStarts = Arrays.copyOf(versionStarts, versionCount * 2);
+                versionEnds = Arrays.copyOf(versionEnds, versionCount * 2);
+                versionContents = Arrays.copyOf(versionContents, versionCount * 2);
+            }
+            versionStarts[versionCount] = start;
+            versionEnds[versionCount] = end;
+            versionContents[versionCount] = content;
+            return versionCount++;
+        }
+
+        /**
+         * @return int The ID of the set, which is shared by the equal sets unless their hashes collide
+         */
+        private int intern(int[] content) {
+            long hash = hash(content);
+            int id = contentIds.get(hash);
+            if (id >= 0 && Arrays.equals(contents.get(id), content))
+                return id;
+
+            contents.add(content);
+            if (id < 0)
+                contentIds.put(hash, contents.size() - 1);
+            return contents.size() - 1;
+        }
+
+        private static long hash(int[] content) {
+            long hash = content.length;
+            for (int asn: content) {
+                hash = (hash ^ asn) * 0x9E3779B97F4A7C15L;
+                hash ^= hash >>> 29;
+            }
+            return hash;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int dateCount;
+    private final int contentCount;
+    private final int versionCount;
+    private final int asnCount;
+    // The start of each column in the file
+    private final int dates;
+    private final int contentOffsets;
+    private final int members;
+    private final int versionStarts;
+    private final int versionEnds;
+    private final int versionContents;
+    private final int asns;
+    private final int asnOffsets;
+    private final int asnVersions;
+
+    private SiblingArchive(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+            throw new IOException("Not a sibling archive");
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a sibling archive");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported sibling archive version " + buffer.getInt(4));
+
+        dateCount = buffer.getInt(8);
+        contentCount = buffer.getInt(12);
+        int memberCount = buffer.getInt(16);
+        versionCount = buffer.getInt(20);
+        asnCount = buffer.getInt(24);
+        int pairs = buffer.getInt(28);
+        dates = HEADER_SIZE;
+        contentOffsets = dates + 4 * dateCount;
+        members = contentOffsets + 4 * (contentCount + 1);
+        versionStarts = members + 4 * memberCount;
+        versionEnds = versionStarts + 4 * versionCount;
+        versionContents = versionEnds + 4 * versionCount;
+        asns = versionContents + 4 * versionCount;
+        asnOffsets = asns + 4 * asnCount;
+        asnVersions = asnOffsets + 4 * (asnCount + 1);
+        if ((long) asnVersions + 4L * pairs != channel.size())
+            throw new IOException("Truncated sibling archive");
+    }
+
+    /**
+     * Memory-maps an archive
+     * @param path The path of the archive
+     * @return SiblingArchive The reader of the archive
+     * @throws IOException When the file cannot be read or is not an archive of a supported version
+     */
+    public static SiblingArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SiblingArchive(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return List<ClusterVersion> The clusters of the ASN in the latest snapshot at or before the date, empty if
+     * the ASN was not in any cluster then, and with more than one group only for the OpaqueIdAsnGroups files
+     */
+    public List<ClusterVersion> clustersAt(int asn, int date) {
+        List<ClusterVersion> clusters = new ArrayList<>(1);
+        int index = dateIndex(date);
+        int a = asnIndex(asn);
+        if (index < 0 || a < 0)
+            return clusters;
+
+        for (int i = buffer.getInt(asnOffsets + 4 * a); i < buffer.getInt(asnOffsets + 4 * (a + 1)); i++) {
+            int version = buffer.getInt(asnVersions + 4 * i);
+            if (buffer.getInt(versionStarts + 4 * version) > index)
+                break;
+            if (buffer.getInt(versionEnds + 4 * version) >= index)
+                clusters.add(version(version));
+        }
+
+        return clusters;
+    }
+
+    /**
+     * @return List<ClusterVersion> The clusters of the ASN over time, ordered by their first snapshot
+     */
+    public List<ClusterVersion> history(int asn) {
+        List<ClusterVersion> history = new ArrayList<>();
+        int a = asnIndex(asn);
+        if (a >= 0) {
+            for (int i = buffer.getInt(asnOffsets + 4 * a); i < buffer.getInt(asnOffsets + 4 * (a + 1)); i++) {
+                history.add(version(buffer.getInt(asnVersions + 4 * i)));
+            }
+        }
+
+        return history;
+    }
+
+    /**
+     * @return List<ClusterVersion> The versions of the clusters in which both ASNs were siblings,
+     * the first one tells when they became siblings
+     */
+    public List<ClusterVersion> together(int asnA, int asnB) {
+        List<ClusterVersion> together = new ArrayList<>();
+        for (ClusterVersion version: history(asnA)) {
+            if (Asns.binarySearch(version.members, asnB) >= 0)
+                together.add(version);
+        }
+
+        return together;
+    }
+
+    /**
+     * @param from The first date of the range as yyyyMMdd
+     * @param to The last date of the range as yyyyMMdd
+     * @return List<Transition> The changes of each snapshot of the range since the previous snapshot
+     */
+    public List<Transition> churn(int from, int to) {
+        int first = Math.max(1, dateIndex(from - 1) + 1);
+        int last = dateIndex(to);
+        List<Transition> transitions = new ArrayList<>();
+        if (last < first)
+            return transitions;
+
+        int[] started = new int[last - first + 1];
+        int[] ended = new int[last - first + 1];
+        int[] asnsOfStarted = new int[last - first + 1];
+        for (int v = 0; v < versionCount; v++) {
+            int start = buffer.getInt(versionStarts + 4 * v);
+            if (start > last)
+                break;
+            int end = buffer.getInt(versionEnds + 4 * v);
+            if (start >= first) {
+                started[start - first]++;
+                int content = buffer.getInt(versionContents + 4 * v);
+                asnsOfStarted[start - first] += buffer.getInt(contentOffsets + 4 * (content + 1))
+                        - buffer.getInt(contentOffsets + 4 * content);
+            }
+            // A version that ends before the last snapshot of the archive disappears with the next one
+            if (end + 1 >= first && end + 1 <= last)
+                ended[end + 1 - first]++;
+        }
+        for (int i = first; i <= last; i++) {
+            transitions.add(new Transition(date(i), started[i - first], ended[i - first], asnsOfStarted[i - first]));
+        }
+
+        return transitions;
+    }
+
+    /**
+     * @return int The date of the i-th snapshot as yyyyMMdd
+     */
+    public int date(int i) {
+        return buffer.getInt(dates + 4 * i);
+    }
+
+    public int dateCount() {
+        return dateCount;
+    }
+
+    public int versionCount() {
+        return versionCount;
+    }
+
+    public int asnCount() {
+        return asnCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return int The index of the latest snapshot at or before the date, or -1 if all the snapshots are later
+     */
+    private int dateIndex(int date) {
+        int low = 0;
+        int high = dateCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (date(mid) <= date)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+
+        return high;
+    }
+
+    /**
+     * Binary search of the ASN in the sorted ASN column
+     */
+    private int asnIndex(int asn) {
+        int low = 0;
+        int high = asnCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt(asns + 4 * mid);
+            if (value < asn)
+                low = mid + 1;
+            else if (value > asn)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    private ClusterVersion version(int version) {
+        return new ClusterVersion(version, date(buffer.getInt(versionStarts + 4 * version)),
+                date(buffer.getInt(versionEnds + 4 * version)), content(buffer.getInt(versionContents + 4 * version)));
+    }
+
+    private int[] content(int content) {
+        int start = buffer.getInt(contentOffsets + 4 * content);
+        int[] asnsOfContent = new int[buffer.getInt(contentOffsets + 4 * (content + 1)) - start];
+        for (int i = 0; i < asnsOfContent.length; i++) {
+            asnsOfContent[i] = buffer.getInt(members + 4 * (start + i));
+        }
+
+        return asnsOfContent;
+    }
+
+    /**
+     * Reads the clusters of a SiblingASNs or OpaqueIdAsnGroups file, the ASNs of each line up to the first |.
+     * The lines of the early SiblingASNs files are &lt;organization name&gt;|&lt;ASNs&gt; instead.
+     * @param path The path of the file, gzip-compressed if its name ends with .gz
+     * @return List<int[]> The clusters, each as a sorted array of ASNs
+     * @throws IOException When reading the file fails
+     */
+    static List<int[]> readSnapshot(Path path) throws IOException {
+        List<int[]> clusters = new ArrayList<>();
+        try (InputStream in = path.toString().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(path), 65536)
+                : Files.newInputStream(path)) {
+            ByteLineTokenizer lines = new ByteLineTokenizer(in);
+            while (lines.nextLine()) {
+                if (lines.split('|', 2) == 2 && !lines.fieldAsString(0).matches("[0-9 ]*")) {
+                    String[] named = lines.fieldAsString(1).split("\\s+");
+                    int[] cluster = new int[named.length];
+                    int size = 0;
+                    for (String asn: named) {
+                        if (asn.matches("[0-9]{1,10}") && Long.parseLong(asn) <= 0xFFFFFFFFL)
+                            cluster[size++] = (int) Long.parseLong(asn);
+                    }
+                    if (size > 0) {
+                        cluster = Arrays.copyOf(cluster, size);
+                        Asns.sort(cluster);
+                        clusters.add(cluster);
+                    }
+                    continue;
+                }
+
+                int fields = lines.split(' ', 0);
+                int[] cluster = new int[fields];
+                int size = 0;
+                for (int i = 0; i < fields; i++) {
+                    long asn = lines.fieldAsLong(i);
+                    if (asn < 0 || asn > Asns.MAX_ASN) {
+                        // The organizations of an OpaqueIdAsnGroups line start with the field of the last ASN
+                        String field = lines.fieldAsString(i);
+                        String last = field.indexOf('|') > 0 ? field.substring(0, field.indexOf('|')) : "";
+                        if (last.matches("[0-9]{1,10}") && Long.parseLong(last) <= 0xFFFFFFFFL)
+                            cluster[size++] = (int) Long.parseLong(last);
+                        break;
+                    }
+                    cluster[size++] = (int) asn;
+                }
+                if (size > 0) {
+                    cluster = Arrays.copyOf(cluster, size);
+                    Asns.sort(cluster);
+                    clusters.add(cluster);
+                }
+            }
+        }
+
+        return clusters;
+    }
+
+    /**
+     * @return int The date of the snapshot file as yyyyMMdd, or -1 if its name has no date
+     */
+    static int snapshotDate(Path path) {
+        Matcher matcher = SNAPSHOT_DATE.matcher(path.getFileName().toString());
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Lists the snapshot files of the inputs by date, one file per date, the uncompressed one if both exist
+     * @param prefix The prefix of the snapshot files in the directories, e.g. SiblingASNs_
+     * @param inputs The snapshot files and the directories with snapshot files
+     * @param after The date after which the snapshots are listed, as yyyyMMdd
+     * @return TreeMap<Integer, Path> The snapshot file of each date
+     * @throws IOException When a directory cannot be listed
+     */
+    static TreeMap<Integer, Path> snapshotFiles(String prefix, List<Path> inputs, int after) throws IOException {
+        TreeMap<Integer, Path> snapshots = new TreeMap<>();
+        for (Path input: inputs) {
+            List<Path> files = new ArrayList<>();
+            if (Files.isDirectory(input)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(input, prefix + "*")) {
+                    stream.forEach(files::add);
+                }
+            }
+            else {
+                files.add(input);
+            }
+            for (Path file: files) {
+                int date = snapshotDate(file);
+                if (date > after && (!snapshots.containsKey(date) || !file.toString().endsWith(".gz")))
+                    snapshots.put(date, file);
+            }
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Adds the snapshot files after the last date of an archive, or creates it
+     * @param archive The path of the archive
+     * @param prefix The prefix of the snapshot files in the directories, e.g. SiblingASNs_
+     * @param inputs The snapshot files and the directories with snapshot files
+     * @return int The number of added snapshots
+     * @throws IOException When reading a snapshot or the archive or writing the archive fails
+     */
+    public static int build(Path archive, String prefix, List<Path> inputs) throws IOException {
+        Builder builder;
+        if (Files.exists(archive)) {
+            try (SiblingArchive existing = open(archive)) {
+                builder = Builder.from(existing);
+            }
+        }
+        else {
+            builder = new Builder();
+        }
+
+        TreeMap<Integer, Path> snapshots = snapshotFiles(prefix, inputs, builder.lastDate());
+        for (Map.Entry<Integer, Path> snapshot: snapshots.entrySet()) {
+            builder.addSnapshot(snapshot.getKey(), readSnapshot(snapshot.getValue()));
+        }
+        if (!snapshots.isEmpty() || !Files.exists(archive))
+            builder.write(archive);
+
+        return snapshots.size();
+    }
+
+    private static String format(ClusterVersion version) {
+        StringBuilder sb = new StringBuilder().append(version.start).append('-').append(version.end).append('|');
+        for (int i = 0; i < version.members.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(Asns.toString(version.members[i]));
+        }
+
+        return sb.toString();
+    }
+
+    private static final String USAGE = "Usage: SiblingArchive build <archive> [--prefix SiblingASNs_] <file or directory> ...\n"
+            + "       SiblingArchive at <archive> <asn> <yyyyMMdd>\n"
+            + "       SiblingArchive history <archive> <asn>\n"
+            + "       SiblingArchive together <archive> <asn> <asn>\n"
+            + "       SiblingArchive churn <archive> <from yyyyMMdd> <to yyyyMMdd>";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        Path path = Paths.get(args[1]);
+        if (args[0].equals("build")) {
+            String prefix = "SiblingASNs_";
+            List<Path> inputs = new ArrayList<>();
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("--prefix") && i + 1 < args.length)
+                    prefix = args[++i];
+                else
+                    inputs.add(Paths.get(args[i]));
+            }
+            long start = System.nanoTime();
+            int added = build(path, prefix, inputs);
+            try (SiblingArchive archive = open(path)) {
+                System.out.printf("Added %d snapshots in %d ms, %d snapshots, %d cluster versions, %d ASNs%n", added,
+                        (System.nanoTime() - start) / 1000000, archive.dateCount(), archive.versionCount(),
+                        archive.asnCount());
+            }
+            return;
+        }
+
+        try (SiblingArchive archive = open(path)) {
+            switch (args[0]) {
+                case "at":
+                    if (args.length < 4)
+                        break;
+                    List<ClusterVersion> clusters = archive.clustersAt(Asns.parse(args[2]), Integer.parseInt(args[3]));
+                    if (clusters.isEmpty())
+                        System.out.println("AS" + args[2] + " has no siblings on " + args[3]);
+                    for (ClusterVersion v: clusters) {
+                        System.out.println(format(v));
+                    }
+                    return;
+                case "history":
+                    for (ClusterVersion v: archive.history(Asns.parse(args[2]))) {
+                        System.out.println(format(v));
+                    }
+                    return;
+                case "together":
+                    if (args.length < 4)
+                        break;
+                    for (ClusterVersion v: archive.together(Asns.parse(args[2]), Asns.parse(args[3]))) {
+                        System.out.println(format(v));
+                    }
+                    return;
+                case "churn":
+                    if (args.length < 4)
+                        break;
+                    int started = 0;
+                    int ended = 0;
+                    List<Transition> transitions = archive.churn(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                    for (Transition transition: transitions) {
+                        System.out.println(transition.date + "|" + transition.started + "|" + transition.ended + "|"
+                                + transition.asns);
+                        started += transition.started;
+                        ended += transition.ended;
+                    }
+                    System.out.println("total|" + started + "|" + ended + "|" + transitions.size() + " snapshots");
+                    return;
+                default:
+                    break;
+            }
+        }
+        System.out.println(USAGE);
+    }
+}
@@ -0,0 +1,560 @@
+package com.vgiotsas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Clusters ASNs into sibling groups using a disjoint-set forest over primitive int arrays,
+ * with path compression and union by rank.
+ * Every source of sibling evidence contributes union edges, either between two ASNs or between an ASN and
+ * an evidence key (e.g. an organization ID or an Opaque ID) that links all the ASNs reported with the same key.
+ * The resulting clusters are the transitive closure of all the evidence, independent of the order of the edges.
+ * <p>
+ * With provenance enabled, every edge is also recorded in packed primitive arrays with the bit of its source and a
+ * reference to its evidence key (the organization ID, or the ID of the interned URL or Opaque ID), so that the
+ * evidence behind each cluster can be output. The recorded edges take 13 bytes each.
+ * <p>
+ * With an {@link EdgeSpill}, the (key, ASN) edges are not interned but sorted on disk within a memory budget,
+ * and merged into the disjoint-set forest when the clusters are requested, so that the heap of the clusters only
+ * grows with the number of ASNs and not with the number of keys and edges. The clusters are the same in both modes.
+ */
+public class SiblingClusters {
+
+    /**
+     * The sources of sibling evidence. Sources that share a key space link ASNs across sources,
+     * e.g. an <code>aka</code> that matches an organization name links the ASN to the ASNs of that organization.
+     */
+    public enum Evidence {
+        ORG_ID, AKA(ORG_ID), WEBSITE, LOOKING_GLASS, OPAQUE_ID, V6_LAUNCH;
+
+        private final Evidence keySpace;
+
+        Evidence() {
+            this.keySpace = this;
+        }
+
+        Evidence(Evidence keySpace) {
+            this.keySpace = keySpace;
+        }
+    }
+
+    // Dense index of each ASN in the disjoint-set arrays
+    private int[] asns = new int[1024];
+    private int[] parent = new int[1024];
+    private byte[] rank = new byte[1024];
+    private int size = 0;
+    private final IntIntHashMap asnIndex = new IntIntHashMap(-1);
+
+    // The index of the first ASN seen with each evidence key, per key space.
+    // String keys are interned and their IDs are used as int keys.
+    private final IntIntHashMap[] keyAnchors = new IntIntHashMap[Evidence.values().length];
+    private final StringTable[] keyStrings = new StringTable[Evidence.values().length];
+    // The names of the numeric keys that are IDs of strings kept outside the clusters, for the provenance output
+    private final Map<Evidence, IntFunction<String>> keyNames = new EnumMap<>(Evidence.class);
+
+    // The recorded edges: the dense indices of the two ASNs packed in a long, the bit of the source
+    // and the evidence key, or -1 for edges between two ASNs
+    private final boolean provenance;
+    private long[] edgeIndices;
+    private byte[] edgeSources;
+    private int[] edgeKeys;
+    private int edges = 0;
+    // The source of the first ASN of each key, which links the anchor to the key, per key space
+    private final IntIntHashMap[] anchorSources = new IntIntHashMap[Evidence.values().length];
+    // The external sort of the edges to keys, or null if the keys are held in memory
+    private final EdgeSpill spill;
+
+    public SiblingClusters() {
+        this(false);
+    }
+
+    /**
+     * @param provenance If true, the source and evidence key of every edge are recorded for {@link #writeProvenance}
+     */
+    public SiblingClusters(boolean provenance) {
+        this.provenance = provenance;
+        this.spill = null;
+        if (provenance) {
+            edgeIndices = new long[1024];
+            edgeSources = new byte[1024];
+            edgeKeys = new int[1024];
+        }
+    }
+
+    /**
+     * Clusters the edges to keys through an external sort, without provenance
+     * @param spill The external sort of the edges to keys
+     */
+    public SiblingClusters(EdgeSpill spill) {
+        this.provenance = false;
+        this.spill = spill;
+    }
+
+    /**
+     * Adds an edge between an ASN and an evidence key, which links the ASN with every other ASN of the same key
+     * @param source The source of the evidence
+     * @param key The evidence key, e.g. the Opaque ID or the website URL
+     * @param asn The ASN reported with the key
+     */
+    public synchronized void addEvidence(Evidence source, String key, int asn) {
+        int keySpace = source.keySpace.ordinal();
+        if (spill != null) {
+            try {
+                spill.add(keySpace, key, asn);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        if (keyStrings[keySpace] == null)
+            keyStrings[keySpace] = new StringTable();
+        addEvidence(source, keyStrings[keySpace].intern(key), asn);
+    }
+
+    /**
+     * Adds the edges of a batch of (key, ASN) pairs under a single lock acquisition
+     * @param source The source of the evidence
+     * @param keys The evidence keys
+     * @param asns The ASN reported with each key
+     * @param count The number of pairs
+     */
+    public synchronized void addEvidence(Evidence source, String[] keys, int[] asns, int count) {
+        for (int i = 0; i < count; i++) {
+            addEvidence(source, keys[i], asns[i]);
+        }
+    }
+
+    /**
+     * Adds an edge between an ASN and a numeric evidence key, e.g. the organization ID.
+     * A key space must use either numeric or string keys.
+     * @param source The source of the evidence
+     * @param key The evidence key
+     * @param asn The ASN reported with the key
+     */
+    public synchronized void addEvidence(Evidence source, int key, int asn) {
+        int keySpace = source.keySpace.ordinal();
+        if (spill != null) {
+            try {
+                spill.add(keySpace, key, asn);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        if (keyAnchors[keySpace] == null)
+            keyAnchors[keySpace] = new IntIntHashMap(-1);
+        int index = indexOf(asn);
+        int anchor = keyAnchors[keySpace].putIfAbsent(key, index);
+        if (anchor >= 0) {
+            union(anchor, index);
+            recordEdge(source, anchor, index, key);
+        }
+        else if (provenance) {
+            if (anchorSources[keySpace] == null)
+                anchorSources[keySpace] = new IntIntHashMap(-1);
+            anchorSources[keySpace].put(key, source.ordinal());
+        }
+    }
+
+    /**
+     * Adds an edge between two sibling ASNs
+     * @param source The source of the evidence
+     * @param asnA The first ASN
+     * @param asnB The second ASN
+     */
+    public synchronized void addEdge(Evidence source, int asnA, int asnB) {
+        int indexA = indexOf(asnA);
+        int indexB = indexOf(asnB);
+        union(indexA, indexB);
+        recordEdge(source, indexA, indexB, -1);
+    }
+
+    /**
+     * Returns the sibling clusters with at least minSize ASNs, each as a sorted array of ASNs
+     * @param minSize The minimum number of ASNs in a returned cluster
+     * @return List<int[]> The clusters ordered by their smallest ASN
+     */
+    public synchronized List<int[]> getClusters(int minSize) {
+        mergeSpill();
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            counts[find(i)]++;
+        }
+
+        int[][] members = new int[size][];
+        int[] filled = new int[size];
+        for (int i = 0; i < size; i++) {
+            int root = find(i);
+            if (counts[root] >= minSize) {
+                if (members[root] == null)
+                    members[root] = new int[counts[root]];
+                members[root][filled[root]++] = asns[i];
+            }
+        }
+
+        List<int[]> clusters = new ArrayList<>();
+        for (int[] cluster: members) {
+            if (cluster != null) {
+                Asns.sort(cluster);
+                clusters.add(cluster);
+            }
+        }
+        clusters.sort((a, b) -> Asns.compare(a[0], b[0]));
+
+        return clusters;
+    }
+
+    /**
+     * Sets the names of the numeric keys of a key space, e.g. the domains of the website IDs of a UrlIndex,
+     * to write them in the provenance output instead of the IDs
+     * @param keySpace The key space
+     * @param names The name of each key
+     */
+    public synchronized void setKeyNames(Evidence keySpace, IntFunction<String> names) {
+        keyNames.put(keySpace.keySpace, names);
+    }
+
+    /**
+     * Writes the evidence of each cluster with at least minSize ASNs, one cluster per line in the order of
+     * {@link #getClusters}, as the ASNs of the cluster followed by its edges:
+     * <pre>
+     * 100 200 300|100 200 ORG_ID=42,WEBSITE=example.net;100 300 OPAQUE_ID=ripencc-1234
+     * </pre>
+     * The edges of the same pair of ASNs are merged into their distinct evidence, ordered by source and key,
+     * and the edges from an ASN to itself are omitted.
+     * @param writer The writer of the output
+     * @param minSize The minimum number of ASNs in a written cluster
+     * @throws IOException When writing fails
+     * @throws IllegalStateException When provenance is not enabled
+     */
+    public synchronized void writeProvenance(Writer writer, int minSize) throws IOException {
+        writeProvenance(writer, getClusters(minSize));
+    }
+
+    /**
+     * Writes the evidence of the given clusters, e.g. the clusters left after the bridges of a
+     * {@link BridgeAnalysis} are cut, one cluster per line like {@link #writeProvenance(Writer, int)}.
+     * The edges between an ASN of the cluster and an ASN outside any of the given clusters or in another one
+     * were cut, and are written after a second separator on the line of the cluster of their first ASN,
+     * or of their second ASN if the first is in none:
+     * <pre>
+     * 100 200|100 200 ORG_ID=42|200 900 WEBSITE=example.net
+     * </pre>
+     * @param writer The writer of the output
+     * @param clusters The clusters, each as a sorted array of ASNs with evidence
+     * @throws IOException When writing fails
+     * @throws IllegalStateException When provenance is not enabled
+     */
+    public synchronized void writeProvenance(Writer writer, List<int[]> clusters) throws IOException {
+        if (!provenance)
+            throw new IllegalStateException("Provenance is not recorded");
+
+        int[] clusterOfIndex = new int[size];
+        Arrays.fill(clusterOfIndex, -1);
+        for (int c = 0; c < clusters.size(); c++) {
+            for (int asn: clusters.get(c)) {
+                clusterOfIndex[asnIndex.get(asn)] = c;
+            }
+        }
+
+        // Group the edges by cluster, the kept edges of a cluster before its cut edges, with a counting sort
+        int[] edgeGroup = new int[edges];
+        int[] offsets = new int[2 * clusters.size() + 1];
+        for (int e = 0; e < edges; e++) {
+            int clusterA = clusterOfIndex[(int) (edgeIndices[e] >>> 32)];
+            int clusterB = clusterOfIndex[(int) edgeIndices[e]];
+            int cluster = clusterA >= 0 ? clusterA : clusterB;
+            edgeGroup[e] = cluster < 0 ? -1 : 2 * cluster + (clusterA == clusterB ? 0 : 1);
+            if (edgeGroup[e] >= 0)
+                offsets[edgeGroup[e] + 1]++;
+        }
+        for (int g = 0; g < 2 * clusters.size(); g++) {
+            offsets[g + 1] += offsets[g];
+        }
+        int[] grouped = new int[offsets[2 * clusters.size()]];
+        int[] next = Arrays.copyOf(offsets, 2 * clusters.size());
+        for (int e = 0; e < edges; e++) {
+            if (edgeGroup[e] >= 0)
+                grouped[next[edgeGroup[e]]++] = e;
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int c = 0; c < clusters.size(); c++) {
+            line.setLength(0);
+            for (int asn: clusters.get(c)) {
+                if (line.length() > 0)
+                    line.append(' ');
+                line.append(Asns.toString(asn));
+            }
+            line.append('|');
+            appendEdges(line, grouped, offsets[2 * c], offsets[2 * c + 1]);
+            if (offsets[2 * c + 2] > offsets[2 * c + 1]) {
+                line.append('|');
+                appendEdges(line, grouped, offsets[2 * c + 1], offsets[2 * c + 2]);
+            }
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * Appends the edges of a range of the grouped edges, merged by pair of ASNs
+     */
+    private void appendEdges(StringBuilder line, int[] grouped, int from, int to) {
+        // Replace the pair of ASNs and the source and key of each edge by their ranks among the distinct values
+        // of the range, so that the edges sort as packed longs by pair, source and key, and the repeated
+        // evidence of a pair is adjacent
+        int count = to - from;
+        long[] pairs = new long[count];
+        long[] evidence = new long[count];
+        for (int i = 0; i < count; i++) {
+            int e = grouped[from + i];
+            pairs[i] = edgePair(e);
+            evidence[i] = edgeEvidence(e);
+        }
+        long[] distinctPairs = distinct(pairs);
+        long[] distinctEvidence = distinct(evidence);
+        long[] ranked = new long[count];
+        for (int i = 0; i < count; i++) {
+            int e = grouped[from + i];
+            ranked[i] = (long) Arrays.binarySearch(distinctPairs, edgePair(e)) << 32
+                    | Arrays.binarySearch(distinctEvidence, edgeEvidence(e));
+        }
+        Arrays.sort(ranked);
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && ranked[i] == ranked[i - 1])
+                continue;
+            int pairRank = (int) (ranked[i] >>> 32);
+            if (i == 0 || pairRank != (int) (ranked[i - 1] >>> 32)) {
+                if (i > 0)
+                    line.append(';');
+                long pair = distinctPairs[pairRank] ^ Long.MIN_VALUE;
+                line.append(Asns.toString((int) (pair >>> 32))).append(' ').append(Asns.toString((int) pair)).append(' ');
+            }
+            else {
+                line.append(',');
+            }
+            long sourceKey = distinctEvidence[(int) ranked[i]];
+            appendEvidence(line, (int) (sourceKey >>> 32), (int) sourceKey);
+        }
+    }
+
+    /**
+     * @return int The number of recorded edges, 0 if provenance is not enabled
+     */
+    public synchronized int edgeCount() {
+        return edges;
+    }
+
+    /**
+     * @return int The number of distinct ASNs with at least one piece of evidence
+     */
+    public synchronized int size() {
+        mergeSpill();
+        return size;
+    }
+
+    /**
+     * Unites the ASNs of each key of the spilled edges, the edges added later are spilled and merged again
+     */
+    private void mergeSpill() {
+        if (spill == null)
+            return;
+
+        try {
+            spill.merge((anchorAsn, asn) -> union(indexOf(anchorAsn), indexOf(asn)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return EdgeSpill The external sort of the edges to keys, or null if the keys are held in memory
+     */
+    public EdgeSpill getSpill() {
+        return spill;
+    }
+
+    private int find(int index) {
+        int root = index;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        // Path compression
+        while (parent[index] != root) {
+            int next = parent[index];
+            parent[index] = root;
+            index = next;
+        }
+
+        return root;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB)
+            return;
+
+        if (rank[rootA] < rank[rootB]) {
+            parent[rootA] = rootB;
+        }
+        else if (rank[rootA] > rank[rootB]) {
+            parent[rootB] = rootA;
+        }
+        else {
+            parent[rootB] = rootA;
+            rank[rootA]++;
+        }
+    }
+
+    private void recordEdge(Evidence source, int indexA, int indexB, int key) {
+        if (!provenance || indexA == indexB)
+            return;
+
+        if (edges == edgeIndices.length) {
+            edgeIndices = Arrays.copyOf(edgeIndices, edges * 2);
+            edgeSources = Arrays.copyOf(edgeSources, edges * 2);
+            edgeKeys = Arrays.copyOf(edgeKeys, edges * 2);
+        }
+        edgeIndices[edges] = ((long) indexA << 32) | indexB;
+        edgeSources[edges] = (byte) (1 << source.ordinal());
+        edgeKeys[edges] = key;
+        edges++;
+    }
+
+    /**
+     * @return long The ASNs of the edge packed in a long, the smaller one first, with the sign bit flipped so that
+     *              the pairs sort as signed longs in the unsigned order of the ASNs
+     */
+    private long edgePair(int edge) {
+        int asnA = asns[(int) (edgeIndices[edge] >>> 32)];
+        int asnB = asns[(int) edgeIndices[edge]];
+        boolean ordered = Asns.compare(asnA, asnB) <= 0;
+        return (((long) (ordered ? asnA : asnB) << 32) | ((ordered ? asnB : asnA) & 0xFFFFFFFFL)) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * @return long The sources of the edge in the upper 32 bits and its evidence key in the lower 32 bits
+     */
+    private long edgeEvidence(int edge) {
+        return ((long) (edgeSources[edge] & 0xFF) << 32) | (edgeKeys[edge] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return long[] The sorted distinct values, the values are sorted in place
+     */
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1])
+                values[size++] = values[i];
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Appends the sources of an edge, each with its evidence key if it has one
+     */
+    private void appendEvidence(StringBuilder line, int sources, int key) {
+        for (Evidence source: Evidence.values()) {
+            if ((sources & (1 << source.ordinal())) == 0)
+                continue;
+
+            line.append(source.name());
+            if (key >= 0)
+                line.append('=').append(keyName(source, key));
+        }
+    }
+
+    /**
+     * @return String The name of an evidence key, or the key itself if it has no name
+     */
+    private String keyName(Evidence source, int key) {
+        StringTable strings = keyStrings[source.keySpace.ordinal()];
+        IntFunction<String> names = keyNames.get(source.keySpace);
+        String name = strings != null ? strings.get(key) : names != null ? names.apply(key) : null;
+        return name != null ? name : String.valueOf(key);
+    }
+
+    /**
+     * @return int The ASN of a dense index
+     */
+    synchronized int asnAt(int index) {
+        return asns[index];
+    }
+
+    /**
+     * @return long The dense indices of the two ASNs of a recorded edge, packed in a long, the anchor of the key first
+     */
+    synchronized long edgeIndices(int edge) {
+        return edgeIndices[edge];
+    }
+
+    /**
+     * @return Evidence The source of a recorded edge
+     */
+    synchronized Evidence edgeSource(int edge) {
+        return Evidence.values()[Integer.numberOfTrailingZeros(edgeSources[edge])];
+    }
+
+    /**
+     * @return int The evidence key of a recorded edge, or -1 for an edge between two ASNs
+     */
+    synchronized int edgeKey(int edge) {
+        return edgeKeys[edge];
+    }
+
+    /**
+     * @return Evidence The source of the first ASN of the key of a recorded edge, which links the anchor to the key
+     */
+    synchronized Evidence anchorSource(int edge) {
+        Evidence source = edgeSource(edge);
+        IntIntHashMap sources = anchorSources[source.keySpace.ordinal()];
+        int anchorSource = sources != null ? sources.get(edgeKeys[edge]) : -1;
+        return anchorSource >= 0 ? Evidence.values()[anchorSource] : source;
+    }
+
+    /**
+     * @return String A source with an evidence key of its key space, e.g. WEBSITE=example.net
+     */
+    synchronized String evidenceName(Evidence source, int key) {
+        return source.name() + "=" + keyName(source, key);
+    }
+
+    public boolean isProvenance() {
+        return provenance;
+    }
+
+    /**
+     * @return int The index of the key space of a source of evidence, shared by the sources with the same keys
+     */
+    static int keySpace(Evidence source) {
+        return source.keySpace.ordinal();
+    }
+
+    /**
+     * Returns the dense index of the ASN, adding it as a singleton set if it has not been seen before
+     */
+    private int indexOf(int asn) {
+        int index = asnIndex.get(asn);
+        if (index >= 0)
+            return index;
+
+        if (size == asns.length) {
+            asns = Arrays.copyOf(asns, size * 2);
+            parent = Arrays.copyOf(parent, size * 2);
+            rank = Arrays.copyOf(rank, size * 2);
+        }
+        index = size++;
+        asns[index] = asn;
+        parent[index] = index;
+        asnIndex.put(asn, index);
+
+        return index;
+    }
+}
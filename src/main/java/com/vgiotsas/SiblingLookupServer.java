@@ -0,0 +1,303 @@
+package com.vgiotsas;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An HTTP server on localhost that answers sibling lookups from the latest binary snapshot of the collector.
+ * The snapshot directory is polled for a new <code>SiblingASNs_&lt;date&gt;.sibs</code> file, which replaces the
+ * current snapshot with an atomic swap, so that requests in flight finish on the old snapshot without any pause.
+ * <pre>
+ * GET  /siblings?asn=3356             {"asn":3356,"cluster":12,"siblings":[...]}
+ * GET  /are-siblings?a=3356&amp;b=3549    {"a":3356,"b":3549,"siblings":true}
+ * POST /batch                          one "a b" pair per line, answered with true or false per line,
+ *                                      or one ASN per line, answered with its cluster or -1
+ * POST /reload                         check the directory for a new snapshot immediately
+ * GET  /stats                          the snapshot and the latency percentiles of each endpoint
+ * </pre>
+ * Usage:
+ * <pre>
+ * java com.vgiotsas.SiblingLookupServer [--port 8080] [--dir .] [--reload-seconds 10] [--threads 8]
+ * </pre>
+ */
+public class SiblingLookupServer implements Closeable {
+
+    private static final String SNAPSHOT_PREFIX = "SiblingASNs_";
+    private static final String SNAPSHOT_SUFFIX = ".sibs";
+    private static final String JSON = "application/json";
+    private static final String TEXT = "text/plain; charset=utf-8";
+
+    /**
+     * A snapshot with the file and modification time it was loaded from
+     */
+    private static class LoadedSnapshot {
+        private final SiblingSnapshot snapshot;
+        private final Path path;
+        private final long modified;
+
+        LoadedSnapshot(SiblingSnapshot snapshot, Path path, long modified) {
+            this.snapshot = snapshot;
+            this.path = path;
+            this.modified = modified;
+        }
+    }
+
+    private interface Handler {
+        /**
+         * @return String The response body
+         */
+        String handle(HttpExchange exchange) throws IOException;
+    }
+
+    private final Path directory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicReference<LoadedSnapshot> current = new AtomicReference<>();
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    /**
+     * Starts the server on the loopback interface
+     * @param port The port of the server
+     * @param directory The directory where the collector writes its snapshots
+     * @param reloadSeconds The interval between the checks for a new snapshot
+     * @param threads The number of request threads
+     * @throws IOException When the server cannot be started or the latest snapshot cannot be read
+     */
+    public SiblingLookupServer(int port, Path directory, int reloadSeconds, int threads) throws IOException {
+        this.directory = directory;
+        reload();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        addEndpoint("/siblings", "GET", JSON, this::siblings);
+        addEndpoint("/are-siblings", "GET", JSON, this::areSiblings);
+        addEndpoint("/batch", "POST", TEXT, this::batch);
+        addEndpoint("/reload", "POST", TEXT, exchange -> {
+            reload();
+            return current.get() != null ? current.get().path.getFileName() + "\n" : "no snapshot\n";
+        });
+        addEndpoint("/stats", "GET", TEXT, exchange -> stats());
+        server.start();
+
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (IOException e) {
+                System.out.println("Failed to reload the snapshot: " + e);
+            }
+        }, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Swaps to the latest snapshot of the directory if it is not the current one
+     * @throws IOException When the latest snapshot cannot be read
+     */
+    public synchronized void reload() throws IOException {
+        Path latest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            // The file names sort by date
+            for (Path file: files) {
+                if (latest == null || file.getFileName().toString().compareTo(latest.getFileName().toString()) > 0)
+                    latest = file;
+            }
+        }
+        if (latest == null)
+            return;
+
+        long modified = Files.getLastModifiedTime(latest).toMillis();
+        LoadedSnapshot loaded = current.get();
+        if (loaded != null && loaded.path.equals(latest) && loaded.modified == modified)
+            return;
+
+        LoadedSnapshot previous = current.getAndSet(new LoadedSnapshot(SiblingSnapshot.open(latest), latest, modified));
+        // The mapping of the previous snapshot stays valid after its channel is closed,
+        // so the requests that still use it are not affected
+        if (previous != null)
+            previous.snapshot.close();
+        System.out.println("Serving " + latest.getFileName() + " with " + current.get().snapshot.clusterCount() + " clusters");
+    }
+
+    @Override
+    public void close() throws IOException {
+        reloader.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+        LoadedSnapshot loaded = current.getAndSet(null);
+        if (loaded != null)
+            loaded.snapshot.close();
+    }
+
+    private String siblings(HttpExchange exchange) {
+        SiblingSnapshot snapshot = snapshot();
+        int asn = asnParameter(exchange, "asn");
+        StringBuilder json = new StringBuilder("{\"asn\":").append(Asns.toString(asn))
+                .append(",\"cluster\":").append(snapshot.clusterOf(asn)).append(",\"siblings\":[");
+        int[] siblings = snapshot.siblingsOf(asn);
+        for (int i = 0; i < siblings.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append(Asns.toString(siblings[i]));
+        }
+
+        return json.append("]}\n").toString();
+    }
+
+    private String areSiblings(HttpExchange exchange) {
+        SiblingSnapshot snapshot = snapshot();
+        int a = asnParameter(exchange, "a");
+        int b = asnParameter(exchange, "b");
+        return "{\"a\":" + Asns.toString(a) + ",\"b\":" + Asns.toString(b) + ",\"siblings\":" + snapshot.areSiblings(a, b)
+                + "}\n";
+    }
+
+    private String batch(HttpExchange exchange) throws IOException {
+        // All the lookups of a batch are answered from the same snapshot
+        SiblingSnapshot snapshot = snapshot();
+        StringBuilder response = new StringBuilder();
+        ByteLineTokenizer lines = new ByteLineTokenizer(exchange.getRequestBody());
+        while (lines.nextLine()) {
+            int fields = lines.split(' ', 2);
+            long a = lines.fieldAsLong(0);
+            if (a < 0 || a > Asns.MAX_ASN)
+                throw new IllegalArgumentException("Invalid ASN: " + lines.fieldAsString(0));
+            if (fields > 1) {
+                long b = lines.fieldAsLong(1);
+                if (b < 0 || b > Asns.MAX_ASN)
+                    throw new IllegalArgumentException("Invalid ASN: " + lines.fieldAsString(1));
+                response.append(snapshot.areSiblings((int) a, (int) b)).append('\n');
+            }
+            else {
+                response.append(snapshot.clusterOf((int) a)).append('\n');
+            }
+        }
+
+        return response.toString();
+    }
+
+    private String stats() {
+        StringBuilder stats = new StringBuilder();
+        LoadedSnapshot loaded = current.get();
+        if (loaded != null)
+            stats.append("snapshot ").append(loaded.path.getFileName()).append(" clusters ")
+                    .append(loaded.snapshot.clusterCount()).append(" asns ").append(loaded.snapshot.asnCount()).append('\n');
+        stats.append(String.format("%-14s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "p50 us", "p90 us", "p99 us", "p999 us"));
+        for (Map.Entry<String, LatencyHistogram> endpoint: latencies.entrySet()) {
+            LatencyHistogram histogram = endpoint.getValue();
+            stats.append(String.format("%-14s %10d %10d %10d %10d %10d%n", endpoint.getKey(), histogram.count(),
+                    histogram.percentile(0.5), histogram.percentile(0.9), histogram.percentile(0.99),
+                    histogram.percentile(0.999)));
+        }
+
+        return stats.toString();
+    }
+
+    private SiblingSnapshot snapshot() {
+        LoadedSnapshot loaded = current.get();
+        if (loaded == null)
+            throw new IllegalStateException("No snapshot in " + directory);
+        return loaded.snapshot;
+    }
+
+    /**
+     * Registers an endpoint whose latency is recorded in its own histogram.
+     * Requests with another method are answered with 405, invalid requests with 400, requests before the first
+     * snapshot with 503 and I/O errors with 500. The errors are plain text.
+     * @param path The path of the endpoint
+     * @param method The only method the endpoint accepts
+     * @param contentType The content type of the successful responses
+     * @param handler The handler of the requests
+     */
+    private void addEndpoint(String path, String method, String contentType, Handler handler) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        latencies.put(path, histogram);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    status = 405;
+                    exchange.getResponseHeaders().set("Allow", method);
+                    body = "Expected a " + method + " request\n";
+                }
+                else {
+                    body = handler.handle(exchange);
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = e.getMessage() + "\n";
+            } catch (IllegalStateException e) {
+                status = 503;
+                body = e.getMessage() + "\n";
+            } catch (IOException e) {
+                status = 500;
+                body = e + "\n";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", status == 200 ? contentType : TEXT);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+            histogram.record(System.nanoTime() - start);
+        });
+    }
+
+    private static int asnParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter: query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    try {
+                        return Asns.parse(parameter.substring(name.length() + 1));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid parameter " + name + ", expected an ASN from 0 to "
+                                + Asns.MAX_ASN);
+                    }
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Missing parameter " + name);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        Path directory = Paths.get(".");
+        int reloadSeconds = 10;
+        int threads = 8;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--dir":
+                    directory = Paths.get(args[i + 1]);
+                    break;
+                case "--reload-seconds":
+                    reloadSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Usage: SiblingLookupServer [--port 8080] [--dir .] [--reload-seconds 10] [--threads 8]");
+                    return;
+            }
+        }
+
+        new SiblingLookupServer(port, directory, reloadSeconds, threads);
+        System.out.println("Sibling lookup server listening on localhost:" + port);
+    }
+}
@@ -0,0 +1,298 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.IntFunction;
+
+/**
+ * A compact binary snapshot of the sibling clusters, written next to the SiblingASNs text file, and its reader.
+ * The reader memory-maps the file and answers the lookups from the mapped sections without loading them on the heap.
+ * <p>
+ * All the values are big-endian 32-bit integers. The file starts with a header:
+ * <pre>
+ * magic "SIBS" | version | ASN count (n) | cluster count (c) | string count (s) | string bytes
+ * </pre>
+ * followed by the sections:
+ * <ul>
+ *     <li>asns[n]: the clustered ASNs in ascending order</li>
+ *     <li>clusters[n]: the cluster of each ASN, clusters are numbered in the order of their smallest ASN</li>
+ *     <li>orgs[n], opaqueIds[n]: the organization and the Opaque ID of each ASN in the string table, or -1</li>
+ *     <li>offsets[c + 1], members[n]: the ASNs of cluster i are members[offsets[i]] to members[offsets[i + 1] - 1]</li>
+ *     <li>stringOffsets[s + 1], followed by the UTF-8 bytes of the strings</li>
+ * </ul>
+ */
+public class SiblingSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x53494253;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int asnCount;
+    private final int clusterCount;
+    private final int stringCount;
+    // The start of each section in the file
+    private final int asns;
+    private final int clusters;
+    private final int orgs;
+    private final int opaqueIds;
+    private final int offsets;
+    private final int members;
+    private final int stringOffsets;
+    private final int strings;
+
+    private SiblingSnapshot(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+            throw new IOException("Not a sibling snapshot");
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a sibling snapshot");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported sibling snapshot version " + buffer.getInt(4));
+
+        asnCount = buffer.getInt(8);
+        clusterCount = buffer.getInt(12);
+        stringCount = buffer.getInt(16);
+        asns = HEADER_SIZE;
+        clusters = asns + 4 * asnCount;
+        orgs = clusters + 4 * asnCount;
+        opaqueIds = orgs + 4 * asnCount;
+        offsets = opaqueIds + 4 * asnCount;
+        members = offsets + 4 * (clusterCount + 1);
+        stringOffsets = members + 4 * asnCount;
+        strings = stringOffsets + 4 * (stringCount + 1);
+        if ((long) strings + buffer.getInt(20) != channel.size())
+            throw new IOException("Truncated sibling snapshot");
+    }
+
+    /**
+     * Memory-maps a snapshot
+     * @param path The path of the snapshot
+     * @return SiblingSnapshot The reader of the snapshot
+     * @throws IOException When the file cannot be read or is not a snapshot of a supported version
+     */
+    public static SiblingSnapshot open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SiblingSnapshot(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file that is then moved to the path, so that readers never see a partial file
+     * @param path The path of the snapshot
+     * @param clusterList The clusters, each as a sorted array of ASNs, ordered by their smallest ASN
+     * @param orgOf The organization of an ASN, or null if it is unknown
+     * @param opaqueIdOf The Opaque ID of an ASN, or null if it is unknown
+     * @throws IOException When writing the file fails
+     */
+    public static void write(Path path, List<int[]> clusterList, IntFunction<String> orgOf,
+                             IntFunction<String> opaqueIdOf) throws IOException {
+        int asnCount = 0;
+        for (int[] cluster: clusterList) {
+            asnCount += cluster.length;
+        }
+
+        // Sort the ASNs with their cluster by packing both in a long
+        long[] asnClusters = new long[asnCount];
+        int n = 0;
+        for (int c = 0; c < clusterList.size(); c++) {
+            for (int asn: clusterList.get(c)) {
+                asnClusters[n++] = ((long) asn << 32) | c;
+            }
+        }
+        Arrays.sort(asnClusters);
+
+        StringTable table = new StringTable();
+        int[] orgRefs = new int[asnCount];
+        int[] opaqueIdRefs = new int[asnCount];
+        for (int i = 0; i < asnCount; i++) {
+            int asn = (int) (asnClusters[i] >>> 32);
+            String org = orgOf.apply(asn);
+            String opaqueId = opaqueIdOf.apply(asn);
+            orgRefs[i] = org != null ? table.intern(org) : -1;
+            opaqueIdRefs[i] = opaqueId != null ? table.intern(opaqueId) : -1;
+        }
+        byte[][] stringBytes = new byte[table.size()][];
+        int stringSize = 0;
+        for (int i = 0; i < table.size(); i++) {
+            stringBytes[i] = table.get(i).getBytes(StandardCharsets.UTF_8);
+            stringSize += stringBytes[i].length;
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(asnCount);
+            out.writeInt(clusterList.size());
+            out.writeInt(table.size());
+            out.writeInt(stringSize);
+            for (long asnCluster: asnClusters) {
+                out.writeInt((int) (asnCluster >>> 32));
+            }
+            for (long asnCluster: asnClusters) {
+                out.writeInt((int) asnCluster);
+            }
+            for (int ref: orgRefs) {
+                out.writeInt(ref);
+            }
+            for (int ref: opaqueIdRefs) {
+                out.writeInt(ref);
+            }
+            int offset = 0;
+            for (int[] cluster: clusterList) {
+                out.writeInt(offset);
+                offset += cluster.length;
+            }
+            out.writeInt(offset);
+            for (int[] cluster: clusterList) {
+                for (int asn: cluster) {
+                    out.writeInt(asn);
+                }
+            }
+            offset = 0;
+            for (byte[] bytes: stringBytes) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (byte[] bytes: stringBytes) {
+                out.write(bytes);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return int The cluster of the ASN, or -1 if the ASN has no siblings
+     */
+    public int clusterOf(int asn) {
+        int index = indexOf(asn);
+        return index >= 0 ? buffer.getInt(clusters + 4 * index) : -1;
+    }
+
+    public boolean areSiblings(int asnA, int asnB) {
+        int cluster = clusterOf(asnA);
+        return cluster >= 0 && cluster == clusterOf(asnB);
+    }
+
+    /**
+     * @return int[] The sorted ASNs of the cluster of the ASN, including the ASN, or an empty array if it has no siblings
+     */
+    public int[] siblingsOf(int asn) {
+        int cluster = clusterOf(asn);
+        return cluster >= 0 ? cluster(cluster) : new int[0];
+    }
+
+    /**
+     * @return int[] The sorted ASNs of the cluster
+     */
+    public int[] cluster(int cluster) {
+        int start = buffer.getInt(offsets + 4 * cluster);
+        int[] asnsOfCluster = new int[buffer.getInt(offsets + 4 * (cluster + 1)) - start];
+        for (int i = 0; i < asnsOfCluster.length; i++) {
+            asnsOfCluster[i] = buffer.getInt(members + 4 * (start + i));
+        }
+
+        return asnsOfCluster;
+    }
+
+    /**
+     * @return String The organization of the ASN, or null if it is unknown
+     */
+    public String orgOf(int asn) {
+        int index = indexOf(asn);
+        return index >= 0 ? string(buffer.getInt(orgs + 4 * index)) : null;
+    }
+
+    /**
+     * @return String The Opaque ID of the ASN, or null if it is unknown
+     */
+    public String opaqueIdOf(int asn) {
+        int index = indexOf(asn);
+        return index >= 0 ? string(buffer.getInt(opaqueIds + 4 * index)) : null;
+    }
+
+    public int asnCount() {
+        return asnCount;
+    }
+
+    public int clusterCount() {
+        return clusterCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Binary search of the ASN in the sorted ASN section
+     */
+    private int indexOf(int asn) {
+        int low = 0;
+        int high = asnCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt(asns + 4 * mid);
+            if (value < asn)
+                low = mid + 1;
+            else if (value > asn)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    private String string(int ref) {
+        if (ref < 0 || ref >= stringCount)
+            return null;
+
+        int start = buffer.getInt(stringOffsets + 4 * ref);
+        byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * (ref + 1)) - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(strings + start);
+        view.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints the siblings of the given ASNs:
+     * <pre>
+     * java com.vgiotsas.SiblingSnapshot SiblingASNs_20180118.sibs 3356 [3549 ...]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: SiblingSnapshot <snapshot> <asn> [asn ...]");
+            return;
+        }
+        try (SiblingSnapshot snapshot = open(Paths.get(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                int asn = Asns.parse(args[i]);
+                StringJoiner siblings = new StringJoiner(", ", "[", "]");
+                for (int sibling: snapshot.siblingsOf(asn)) {
+                    siblings.add(Asns.toString(sibling));
+                }
+                System.out.println(Asns.toString(asn) + "|" + snapshot.clusterOf(asn) + "|" + snapshot.orgOf(asn) + "|"
+                        + snapshot.opaqueIdOf(asn) + "|" + siblings);
+            }
+        }
+    }
+}
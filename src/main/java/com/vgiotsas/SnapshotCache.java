@@ -0,0 +1,274 @@
+package com.vgiotsas;
+
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * On-disk cache of the upstream datasets, keyed by URL.
+ * Each cached dataset is stored next to a properties file with its ETag and Last-Modified headers,
+ * which are sent back as conditional request headers so that unchanged datasets are not downloaded again.
+ * PeeringDB datasets are updated incrementally with the <code>since</code> parameter of the API,
+ * and only the changed objects are downloaded and patched into the cached copy.
+ * In offline mode the collector runs entirely from the datasets of the snapshot directory.
+ * With a checkpoint, the datasets already fetched by a failed attempt of the same run are not requested again.
+ */
+public class SnapshotCache {
+
+    private static final String USER_AGENT = "Mozilla/5.0";
+    // Overlap of the incremental PeeringDB updates to tolerate clock differences with the server
+    private static final long SINCE_OVERLAP_SECONDS = 300;
+
+    private final Path directory;
+    private final boolean offline;
+    private final int timeoutMillis;
+    private final Checkpoint checkpoint;
+
+    /**
+     * @param directory The snapshot directory where the datasets are cached
+     * @param offline If true, the datasets are only read from the snapshot directory
+     * @param timeoutMillis The connect and read timeout of each request
+     * @throws IOException When the snapshot directory cannot be created
+     */
+    public SnapshotCache(Path directory, boolean offline, int timeoutMillis) throws IOException {
+        this(directory, offline, timeoutMillis, null);
+    }
+
+    /**
+     * @param directory The snapshot directory where the datasets are cached
+     * @param offline If true, the datasets are only read from the snapshot directory
+     * @param timeoutMillis The connect and read timeout of each request
+     * @param checkpoint The checkpoint of the run where each fetched dataset is recorded, or null
+     * @throws IOException When the snapshot directory cannot be created
+     */
+    public SnapshotCache(Path directory, boolean offline, int timeoutMillis, Checkpoint checkpoint) throws IOException {
+        this.directory = directory;
+        this.offline = offline;
+        this.timeoutMillis = timeoutMillis;
+        this.checkpoint = checkpoint;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Returns the cached copy of a dataset, downloading it first if it has changed since it was cached
+     * @param url The URL of the dataset
+     * @return Path The cached dataset
+     * @throws IOException When the download fails, or the dataset is not cached in offline mode
+     */
+    public Path fetch(String url) throws IOException {
+        Path file = pathOf(url);
+        if (offline || isFetched(url))
+            return cached(file);
+
+        Properties meta = loadMeta(url);
+        HttpURLConnection con = openConnection(url);
+        if (Files.exists(file)) {
+            if (meta.getProperty("etag") != null)
+                con.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+            if (meta.getProperty("last-modified") != null)
+                con.setRequestProperty("If-Modified-Since", meta.getProperty("last-modified"));
+        }
+
+        int responseCode = con.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            con.disconnect();
+            markFetched(url);
+            return file;
+        }
+        checkResponse(con, url);
+
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (InputStream in = con.getInputStream()) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        meta.clear();
+        if (con.getHeaderField("ETag") != null)
+            meta.setProperty("etag", con.getHeaderField("ETag"));
+        if (con.getHeaderField("Last-Modified") != null)
+            meta.setProperty("last-modified", con.getHeaderField("Last-Modified"));
+        saveMeta(url, meta);
+        markFetched(url);
+
+        return file;
+    }
+
+    /**
+     * Returns the cached copy of a PeeringDB API dataset, downloading only the objects that changed since the
+     * previous download and patching them into the cached copy. The cached copy keeps only the given fields.
+     * @param url The URL of the PeeringDB API endpoint
+     * @param fields The fields of each object to keep in the cached copy
+     * @return Path The cached dataset, in the format of the PeeringDB API
+     * @throws IOException When the download fails, or the dataset is not cached in offline mode
+     */
+    public Path fetchPdb(String url, String[] fields) throws IOException {
+        Path file = pathOf(url);
+        if (offline || isFetched(url))
+            return cached(file);
+
+        Properties meta = loadMeta(url);
+        long now = System.currentTimeMillis() / 1000;
+        String since = meta.getProperty("since");
+        String[] keptFields = withFields(fields, "id", "status");
+
+        LinkedHashMap<Object, Map<String, Object>> updates = new LinkedHashMap<>();
+        boolean incremental = since != null && Files.exists(file);
+        String requestUrl = incremental ? url + (url.contains("?") ? "&" : "?") + "since=" + since : url;
+        HttpURLConnection con = openConnection(requestUrl);
+        checkResponse(con, requestUrl);
+
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (PdbJsonReader response = new PdbJsonReader(
+                new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8), keptFields);
+             Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8))) {
+            out.write("{\"data\": [");
+            boolean first = true;
+            if (incremental) {
+                // Only the changed objects are returned, replace them in the cached copy
+                for (Map<String, Object> update: response) {
+                    updates.put(update.get("id"), update);
+                }
+                try (PdbJsonReader previous = new PdbJsonReader(
+                        new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), keptFields)) {
+                    for (Map<String, Object> record: previous) {
+                        Map<String, Object> update = updates.remove(record.get("id"));
+                        first = writeRecord(out, update != null ? update : record, first);
+                    }
+                }
+                // The remaining updates are new objects
+                for (Map<String, Object> record: updates.values()) {
+                    first = writeRecord(out, record, first);
+                }
+            }
+            else {
+                for (Map<String, Object> record: response) {
+                    first = writeRecord(out, record, first);
+                }
+            }
+            out.write("]}\n");
+        } catch (IOException | IllegalStateException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        meta.setProperty("since", Long.toString(now - SINCE_OVERLAP_SECONDS));
+        saveMeta(url, meta);
+        markFetched(url);
+
+        return file;
+    }
+
+    /**
+     * Writes a PeeringDB object unless it has been deleted
+     * @return boolean True if no object has been written yet
+     */
+    private static boolean writeRecord(Writer out, Map<String, Object> record, boolean first) throws IOException {
+        if ("deleted".equals(record.get("status")))
+            return first;
+        if (!first)
+            out.write(",\n");
+        out.write(JSONObject.toJSONString(record));
+        return false;
+    }
+
+    /**
+     * @return Path The file of the snapshot directory where the dataset of the URL is cached
+     */
+    public Path pathOf(String url) {
+        return directory.resolve(fileName(url));
+    }
+
+    /**
+     * @return String The name of the file where the dataset of the URL is cached
+     */
+    static String fileName(String url) {
+        return url.replaceFirst("^[a-z]+://", "").replaceAll("[^A-Za-z0-9.-]+", "_");
+    }
+
+    private boolean isFetched(String url) {
+        return checkpoint != null && checkpoint.isDone("fetch " + url);
+    }
+
+    private void markFetched(String url) throws IOException {
+        if (checkpoint != null)
+            checkpoint.markDone("fetch " + url);
+    }
+
+    private Path cached(Path file) throws IOException {
+        if (!Files.exists(file))
+            throw new FileNotFoundException("Dataset not found in snapshot directory: " + file);
+        return file;
+    }
+
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        con.setRequestMethod("GET");
+        con.setRequestProperty("User-Agent", USER_AGENT);
+        con.setConnectTimeout(timeoutMillis);
+        con.setReadTimeout(timeoutMillis);
+        return con;
+    }
+
+    private static void checkResponse(HttpURLConnection con, String url) throws IOException {
+        int responseCode = con.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            con.disconnect();
+            throw new HttpStatusException(responseCode, url);
+        }
+    }
+
+    private Properties loadMeta(String url) throws IOException {
+        Properties meta = new Properties();
+        Path metaFile = Paths.get(pathOf(url) + ".properties");
+        if (Files.exists(metaFile)) {
+            try (Reader in = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+                meta.load(in);
+            }
+        }
+
+        return meta;
+    }
+
+    private void saveMeta(String url, Properties meta) throws IOException {
+        meta.setProperty("url", url);
+        try (Writer out = Files.newBufferedWriter(Paths.get(pathOf(url) + ".properties"), StandardCharsets.UTF_8)) {
+            meta.store(out, null);
+        }
+    }
+
+    private static String[] withFields(String[] fields, String... extra) {
+        LinkedHashSet<String> all = new LinkedHashSet<>(Arrays.asList(fields));
+        all.addAll(Arrays.asList(extra));
+        return all.toArray(new String[0]);
+    }
+
+    /**
+     * An unsuccessful HTTP response, which is only worth retrying for server errors and throttling
+     */
+    static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int responseCode;
+
+        HttpStatusException(int responseCode, String url) {
+            super("HTTP " + responseCode + " for " + url);
+            this.responseCode = responseCode;
+        }
+
+        boolean isRetryable() {
+            return responseCode >= 500 || responseCode == 429;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/**
+ * Downloads the upstream datasets concurrently on a bounded thread pool.
+ * The number of concurrent downloads per host is limited, since several datasets are served by the same mirror,
+ * and failed downloads are retried with exponential backoff.
+ * Each dataset is stored in the snapshot cache and handed to its parser as soon as it has been downloaded,
+ * while the remaining downloads are still in progress.
+ */
+public class SourceFetcher implements Closeable {
+
+    /**
+     * Parses the body of a downloaded dataset
+     * @param <T> The type of the parsed result
+     */
+    public interface SourceParser<T> {
+        T parse(InputStream in) throws Exception;
+    }
+
+    /**
+     * Parses a downloaded dataset from its file, e.g. to map it instead of streaming it
+     * @param <T> The type of the parsed result
+     */
+    public interface FileParser<T> {
+        T parse(Path file) throws Exception;
+    }
+
+    /**
+     * Downloads a dataset into the snapshot cache
+     */
+    private interface Download {
+        Path get() throws IOException;
+    }
+
+    private final SnapshotCache cache;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Semaphore> hostLimits = new ConcurrentHashMap<>();
+    private final int perHostLimit;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final RunMetrics metrics;
+
+    /**
+     * @param cache The snapshot cache where the datasets are downloaded
+     * @param threads The number of downloads and parsers that run concurrently
+     * @param perHostLimit The maximum number of concurrent downloads from the same host
+     * @param maxRetries The number of times a failed download is retried
+     * @param backoffMillis The delay before the first retry, doubled for every subsequent retry
+     * @param metrics The metrics of the run, where the time and size of each download is recorded
+     */
+    public SourceFetcher(SnapshotCache cache, int threads, int perHostLimit, int maxRetries, long backoffMillis,
+                         RunMetrics metrics) {
+        this.cache = cache;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.perHostLimit = perHostLimit;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Downloads a dataset and parses it as soon as the download completes
+     * @param url The URL of the dataset
+     * @param parser The parser of the downloaded dataset
+     * @return CompletableFuture<T> The parsed result
+     */
+    public <T> CompletableFuture<T> fetch(String url, SourceParser<T> parser) {
+        return download(url).thenApplyAsync(file -> parse(file, parser), executor);
+    }
+
+    /**
+     * Downloads a dataset and parses its file as soon as the download completes
+     * @param url The URL of the dataset
+     * @param parser The parser of the downloaded file
+     * @return CompletableFuture<T> The parsed result
+     */
+    public <T> CompletableFuture<T> fetchFile(String url, FileParser<T> parser) {
+        return download(url).thenApplyAsync(file -> {
+            try {
+                return parser.parse(file);
+            } catch (Exception e) {
+                throw new CompletionException("Failed to parse " + file, e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Downloads a dataset unless the cached copy is up to date
+     * @param url The URL of the dataset
+     * @return CompletableFuture<Path> The cached dataset
+     */
+    public CompletableFuture<Path> download(String url) {
+        return download(url, () -> cache.fetch(url));
+    }
+
+    /**
+     * Downloads the objects of a PeeringDB API dataset that changed since they were cached
+     * @param url The URL of the PeeringDB API endpoint
+     * @param fields The fields of each object to keep in the cached copy
+     * @return CompletableFuture<Path> The cached dataset
+     */
+    public CompletableFuture<Path> downloadPdb(String url, String[] fields) {
+        return download(url, () -> cache.fetchPdb(url, fields));
+    }
+
+    /**
+     * Parses a downloaded file
+     * @param file The downloaded file
+     * @param parser The parser of the file contents
+     * @return T The parsed result
+     */
+    public static <T> T parse(Path file, SourceParser<T> parser) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return parser.parse(in);
+        } catch (Exception e) {
+            throw new CompletionException("Failed to parse " + file, e);
+        }
+    }
+
+    /**
+     * @return Executor The executor on which the downloads and parsers run, to chain dependent parsers
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param url The URL of a dataset
+     * @return String The name of the dataset in the run metrics, the last segment of its URL
+     */
+    public static String sourceName(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @SuppressWarnings("try")
+    private CompletableFuture<Path> download(String url, Download download) {
+        return CompletableFuture.supplyAsync(() -> {
+            RunMetrics.Stage stage = metrics.stage("fetch " + sourceName(url));
+            try (RunMetrics.Timer timer = stage.start()) {
+                Path file = downloadWithRetries(url, download);
+                stage.addBytesRead(Files.size(file));
+                return file;
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException("Failed to download " + url, e);
+            }
+        }, executor);
+    }
+
+    private Path downloadWithRetries(String url, Download download) throws IOException, InterruptedException {
+        Semaphore hostLimit = hostLimits.computeIfAbsent(new URL(url).getHost(), k -> new Semaphore(perHostLimit));
+        long delay = backoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            hostLimit.acquire();
+            try {
+                return download.get();
+            } catch (FileNotFoundException e) {
+                // Missing from the snapshot directory in offline mode
+                throw e;
+            } catch (IOException e) {
+                // Client errors other than throttling will not succeed on retry
+                if (attempt >= maxRetries || (e instanceof SnapshotCache.HttpStatusException
+                        && !((SnapshotCache.HttpStatusException) e).isRetryable()))
+                    throw e;
+                System.out.println("Retrying " + url + " in " + delay + "ms: " + e.getMessage());
+            } finally {
+                hostLimit.release();
+            }
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings into dense int IDs, so that the collections keyed by strings such as Opaque IDs
+ * can be stored in primitive int arrays. Each distinct string is stored once.
+ */
+public class StringTable {
+
+    private String[] strings = new String[64];
+    private int[] slots = newSlots(128);
+    private int size = 0;
+
+    /**
+     * @return int The ID of the string, adding it to the table if it is not in it
+     */
+    public int intern(String value) {
+        int slot = find(value);
+        if (slots[slot] >= 0)
+            return slots[slot];
+
+        if (size == strings.length)
+            strings = Arrays.copyOf(strings, size * 2);
+        strings[size] = value;
+        slots[slot] = size;
+        if (++size * 2 > slots.length)
+            rehash();
+
+        return size - 1;
+    }
+
+    /**
+     * @return int The ID of the string, or -1 if it is not in the table
+     */
+    public int indexOf(String value) {
+        return slots[find(value)];
+    }
+
+    /**
+     * @return String The string with the given ID
+     */
+    public String get(int id) {
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(String value) {
+        int mask = slots.length - 1;
+        int slot = IntIntHashMap.mix(value.hashCode()) & mask;
+        while (slots[slot] >= 0 && !strings[slots[slot]].equals(value)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        for (int id = 0; id < size; id++) {
+            slots[find(strings[id])] = id;
+        }
+    }
+
+    private static int[] newSlots(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
@@ -0,0 +1,55 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A local WHOIS server that answers queries from a directory of recorded responses, to test the
+ * WHOIS enrichment without querying the RIR servers. The response to the query <code>AS123</code> is read
+ * from the file <code>AS123</code> of the directory.
+ * <pre>
+ * java com.vgiotsas.StubWhoisServer 4343 responses/
+ * java com.vgiotsas.SiblingASCollector --whois-server localhost:4343
+ * </pre>
+ */
+public class StubWhoisServer {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: StubWhoisServer <port> <responses directory>");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        Path responses = Paths.get(args[1]);
+
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Stub WHOIS server listening on port " + port);
+            while (true) {
+                Socket client = server.accept();
+                new Thread(() -> answer(client, responses)).start();
+            }
+        }
+    }
+
+    private static void answer(Socket client, Path responses) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = socket.getOutputStream()) {
+            String query = in.readLine();
+            Path response = query == null ? null : responses.resolve(query.trim().replaceAll("[^A-Za-z0-9.-]", "_"));
+            if (response != null && Files.isRegularFile(response)) {
+                Files.copy(response, out);
+            }
+            else {
+                out.write("%ERROR:101: no entries found\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.vgiotsas;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the line-oriented outputs of the collector. The lines are rendered in partitions of consecutive
+ * lines into reusable byte buffers, the partitions of a batch are rendered in parallel on a fork/join pool and
+ * written in order through a single buffered file channel, optionally gzip-compressed, so that the content
+ * of the file only depends on the order of the lines.
+ */
+public class TextOutput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // The number of lines rendered by a task
+    static final int PARTITION_LINES = 4096;
+
+    /**
+     * Renders one line of the output
+     */
+    public interface LineRenderer {
+        /**
+         * @param line The index of the line
+         * @param out The buffer where the line is appended, including its line feed
+         */
+        void render(int line, ByteOutputBuffer out);
+    }
+
+    /**
+     * Opens an output file through a buffered file channel
+     * @param path The path of the file, which is replaced if it exists
+     * @param gzip If true, the content is gzip-compressed
+     * @return OutputStream The stream of the file
+     * @throws IOException When the file cannot be created
+     */
+    public static OutputStream open(Path path, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), BUFFER_SIZE);
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /**
+     * @param name The name of an uncompressed output file
+     * @param gzip If true, the output is gzip-compressed
+     * @return String The name of the file with a .gz suffix if it is compressed
+     */
+    public static String fileName(String name, boolean gzip) {
+        return gzip ? name + ".gz" : name;
+    }
+
+    /**
+     * Writes the lines of an output
+     * @param path The path of the file
+     * @param lines The number of lines
+     * @param renderer The renderer of each line
+     * @param gzip If true, the file is gzip-compressed
+     * @param pool The pool that renders the partitions
+     * @throws IOException When writing the file fails
+     */
+    public static void writeLines(Path path, int lines, LineRenderer renderer, boolean gzip, ForkJoinPool pool)
+            throws IOException {
+        int partitions = (lines + PARTITION_LINES - 1) / PARTITION_LINES;
+        // Each batch has one partition per thread, which bounds the rendered output held in memory,
+        // and each partition is written as soon as it and the partitions before it are rendered
+        int batch = Math.max(1, pool.getParallelism());
+        ByteOutputBuffer[] buffers = new ByteOutputBuffer[batch];
+        for (int i = 0; i < batch; i++) {
+            buffers[i] = new ByteOutputBuffer(BUFFER_SIZE);
+        }
+
+        try (OutputStream out = open(path, gzip)) {
+            for (int first = 0; first < partitions; first += batch) {
+                int start = first;
+                int count = Math.min(batch, partitions - first);
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+                for (int i = 0; i < count; i++) {
+                    int partition = start + i;
+                    ByteOutputBuffer buffer = buffers[i];
+                    tasks[i] = pool.submit(() -> {
+                        buffer.clear();
+                        int end = Math.min(lines, (partition + 1) * PARTITION_LINES);
+                        for (int line = partition * PARTITION_LINES; line < end; line++) {
+                            renderer.render(line, buffer);
+                        }
+                    });
+                }
+                for (int i = 0; i < count; i++) {
+                    tasks[i].join();
+                    buffers[i].writeTo(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the clusters one per line, as their ASNs separated by spaces
+     * @param path The path of the file
+     * @param clusters The clusters in the order of the lines
+     * @param gzip If true, the file is gzip-compressed
+     * @param pool The pool that renders the partitions
+     * @throws IOException When writing the file fails
+     */
+    public static void writeClusters(Path path, List<int[]> clusters, boolean gzip, ForkJoinPool pool) throws IOException {
+        writeLines(path, clusters.size(), (line, out) -> {
+            int[] cluster = clusters.get(line);
+            for (int i = 0; i < cluster.length; i++) {
+                if (i > 0)
+                    out.append(' ');
+                out.appendUnsigned(cluster[i]);
+            }
+            out.append('\n');
+        }, gzip, pool);
+    }
+}
@@ -0,0 +1,183 @@
+package com.vgiotsas;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Matches the networks that share a website or looking glass by the registrable domain of the URL, so that
+ * <code>http://x.com</code>, <code>https://www.x.com/</code> and <code>https://x.com/lg</code> are the same key.
+ * The domains are stored as 64-bit hashes with a dense ID each, and the URLs of all the networks are collected
+ * before any evidence is added, so that the domains shared by more organizations than the fan-out cap
+ * (social network pages, shared looking glass providers) can be ignored instead of creating giant false clusters.
+ */
+public class UrlIndex {
+
+    // Second-level labels under which the country code TLDs register domains, e.g. example.co.uk
+    private static final Set<String> SECOND_LEVEL_LABELS = new HashSet<>(Arrays.asList(
+            "ac", "co", "com", "edu", "gov", "net", "org", "ne", "or", "go", "gob", "nic", "mil", "ltd", "plc"));
+
+    private final int fanOutCap;
+    private final boolean keepDomains;
+
+    // The dense ID of each domain hash, the number of distinct organizations of each domain
+    // and the distinct (domain, organization) pairs
+    private final LongIntHashMap domainIds = new LongIntHashMap(-1);
+    private int[] domainOrgs = new int[1024];
+    private String[] domains;
+    private final LongIntHashMap domainOrgPairs = new LongIntHashMap(-1);
+
+    // The (domain ID, ASN) records in the order they were added
+    private int[] recordDomains = new int[1024];
+    private int[] recordAsns = new int[1024];
+    private int records = 0;
+
+    /**
+     * @param fanOutCap The maximum number of organizations of a domain that is used as sibling evidence
+     * @param keepDomains If true, the normalized domains are kept to be reported by {@link #domain(int)}
+     */
+    public UrlIndex(int fanOutCap, boolean keepDomains) {
+        this.fanOutCap = fanOutCap;
+        this.keepDomains = keepDomains;
+        this.domains = keepDomains ? new String[1024] : null;
+    }
+
+    /**
+     * Records the URL of a network
+     * @param url The URL of the network
+     * @param asn The ASN of the network
+     * @param orgId The organization of the network
+     * @return boolean False if the value is not a URL and has not been recorded
+     */
+    public boolean add(String url, int asn, int orgId) {
+        String domain = registrableDomain(url);
+        if (domain == null)
+            return false;
+
+        long hash = hash64(domain);
+        int id = domainIds.putIfAbsent(hash, domainIds.size());
+        if (id < 0) {
+            id = domainIds.size() - 1;
+            if (id == domainOrgs.length)
+                domainOrgs = Arrays.copyOf(domainOrgs, id * 2);
+            if (keepDomains) {
+                if (id == domains.length)
+                    domains = Arrays.copyOf(domains, id * 2);
+                domains[id] = domain;
+            }
+        }
+        // The pair is packed exactly, a hash of the pair could merge two pairs and undercount the organizations
+        if (domainOrgPairs.putIfAbsent(((long) id << 32) | (orgId & 0xFFFFFFFFL), 1) < 0)
+            domainOrgs[id]++;
+
+        if (records == recordAsns.length) {
+            recordDomains = Arrays.copyOf(recordDomains, records * 2);
+            recordAsns = Arrays.copyOf(recordAsns, records * 2);
+        }
+        recordDomains[records] = id;
+        recordAsns[records] = asn;
+        records++;
+
+        return true;
+    }
+
+    /**
+     * Adds the recorded networks as sibling evidence keyed by the ID of their domain,
+     * except the networks of domains with more organizations than the fan-out cap
+     * @param clusters The clusters to add the evidence to
+     * @param source The source of the evidence
+     * @return int The number of ignored domains
+     */
+    public int addEvidence(SiblingClusters clusters, SiblingClusters.Evidence source) {
+        for (int i = 0; i < records; i++) {
+            if (domainOrgs[recordDomains[i]] <= fanOutCap)
+                clusters.addEvidence(source, recordDomains[i], recordAsns[i]);
+        }
+
+        int ignored = 0;
+        for (int id = 0; id < domainIds.size(); id++) {
+            if (domainOrgs[id] > fanOutCap)
+                ignored++;
+        }
+
+        return ignored;
+    }
+
+    /**
+     * @return String The normalized domain with the ID, or null if the domains are not kept
+     */
+    public String domain(int id) {
+        return keepDomains ? domains[id] : null;
+    }
+
+    /**
+     * Normalizes a URL to its registrable domain: the scheme, user info, port, path, query and
+     * <code>www.</code> prefix are removed and only the last two labels of the host are kept,
+     * or the last three under the second-level labels of the country code TLDs.
+     * @param url The URL, with an http or https scheme or starting with www.
+     * @return String The lower-case registrable domain, or null if the value is not a URL
+     */
+    static String registrableDomain(String url) {
+        if (url == null)
+            return null;
+
+        String host = url.trim().toLowerCase(Locale.ROOT);
+        if (host.startsWith("http://"))
+            host = host.substring(7);
+        else if (host.startsWith("https://"))
+            host = host.substring(8);
+        else if (!host.startsWith("www."))
+            return null;
+
+        int end = host.length();
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c == '/' || c == '?' || c == '#' || c == '\\') {
+                end = i;
+                break;
+            }
+        }
+        host = host.substring(host.lastIndexOf('@', end - 1) + 1, end);
+        if (host.startsWith("["))
+            return host.indexOf(']') > 0 ? host.substring(0, host.indexOf(']') + 1) : null;
+        if (host.indexOf(':') >= 0)
+            host = host.substring(0, host.indexOf(':'));
+        while (host.endsWith("."))
+            host = host.substring(0, host.length() - 1);
+        if (host.startsWith("www."))
+            host = host.substring(4);
+        if (host.isEmpty() || host.indexOf(' ') >= 0)
+            return null;
+
+        String[] labels = host.split("\\.");
+        if (labels.length < 2)
+            return null;
+        // IPv4 addresses are kept whole
+        if (Character.isDigit(labels[labels.length - 1].charAt(0)))
+            return host;
+
+        int keep = 2;
+        if (labels.length > 2 && labels[labels.length - 1].length() == 2
+                && SECOND_LEVEL_LABELS.contains(labels[labels.length - 2]))
+            keep = 3;
+
+        return String.join(".", Arrays.copyOfRange(labels, labels.length - keep, labels.length));
+    }
+
+    /**
+     * @return long The 64-bit FNV-1a hash of the string, with a final avalanche step
+     */
+    static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
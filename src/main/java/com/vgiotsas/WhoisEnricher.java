@@ -0,0 +1,327 @@
+package com.vgiotsas;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the organization identifier of ASNs through the WHOIS server of their RIR.
+ * Each RIR has its own worker pool whose queries are spaced to respect the rate limit of the registry,
+ * concurrent lookups of the same ASN share a single query, and the results are kept in a persistent cache
+ * so that ASNs are only queried again after their cache entry expires.
+ * ASNs of RIRs with a bulk WHOIS dump are resolved from the dump without any query.
+ * Each resolved organization is also appended to the cache file and flushed in batches, so that a run that
+ * fails midway does not query again the ASNs resolved before the failure; the file is compacted on close.
+ * The organization identifiers are handles, so the names of the organizations are kept apart, from the name
+ * field of the WHOIS responses and from the organization objects of the bulk dumps.
+ */
+public class WhoisEnricher implements Closeable {
+
+    private static class CacheEntry {
+        private final String org;
+        private final long timestamp;
+        // The name of the organization, or an empty string if the response had none
+        private final String name;
+
+        CacheEntry(String org, long timestamp, String name) {
+            this.org = org;
+            this.timestamp = timestamp;
+            this.name = name;
+        }
+    }
+
+    private final WhoisParser wp;
+    private final HashMap<String, TreeMap<Integer, String>> orderedRirFields;
+    private final Path cacheFile;
+    private final long ttlMillis;
+    private final int threadsPerRir;
+    private final long queryIntervalMillis;
+    private final String serverHost;
+    private final int serverPort;
+
+    private final ConcurrentHashMap<Integer, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ExecutorService> rirPools = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, long[]> rirNextQuery = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AsnRangeIndex> bulkIndexes = new ConcurrentHashMap<>();
+    // The name of each organization identifier
+    private final ConcurrentHashMap<String, String> orgNames = new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder bulkHits = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // The number of resolved organizations appended to the cache file between flushes
+    static final int JOURNAL_BATCH = 50;
+    private Writer journal = null;
+    private int journalPending = 0;
+    private boolean closed = false;
+
+    /**
+     * @param wp The parser of the WHOIS responses
+     * @param cacheFile The file where the resolved organizations are persisted between runs
+     * @param ttlMillis The time after which a cached organization is queried again
+     * @param threadsPerRir The number of concurrent queries to the WHOIS server of each RIR
+     * @param queriesPerSecond The maximum rate of queries to the WHOIS server of each RIR
+     * @param server The host:port of a WHOIS server that replaces the RIR servers, e.g. a local stub, or null
+     * @throws IOException When the cache file cannot be read
+     */
+    public WhoisEnricher(WhoisParser wp, Path cacheFile, long ttlMillis, int threadsPerRir, double queriesPerSecond,
+                         String server) throws IOException {
+        this.wp = wp;
+        this.orderedRirFields = wp.getOrderedRirFields();
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMillis;
+        this.threadsPerRir = threadsPerRir;
+        this.queryIntervalMillis = (long) (1000 / queriesPerSecond);
+        if (server != null) {
+            String[] hostPort = server.split(":");
+            this.serverHost = hostPort[0];
+            this.serverPort = hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 43;
+        }
+        else {
+            this.serverHost = null;
+            this.serverPort = 43;
+        }
+        loadCache();
+    }
+
+    /**
+     * Resolves the organization of an ASN, from the cache or by querying the WHOIS server of its RIR
+     * @param asn The ASN to resolve
+     * @param rirName The name of the RIR of the ASN as it appears in the delegation files, e.g. arin
+     * @return CompletableFuture<String> The organization identifier, or an empty string if it cannot be resolved
+     */
+    public CompletableFuture<String> lookup(int asn, String rirName) {
+        AsnRangeIndex bulkIndex = bulkIndexes.get(whoisRirName(rirName));
+        if (bulkIndex != null) {
+            bulkHits.increment();
+            String org = bulkIndex.get(asn);
+            return CompletableFuture.completedFuture(org != null ? org : "");
+        }
+
+        CacheEntry entry = cache.get(asn);
+        if (entry != null && System.currentTimeMillis() - entry.timestamp < ttlMillis) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(entry.org);
+        }
+
+        // Share the query of an ASN that is already being resolved
+        return pending.computeIfAbsent(asn, k -> CompletableFuture.supplyAsync(() -> {
+            try {
+                queries.increment();
+                CacheEntry resolved = query(asn, rirName);
+                cache.put(asn, resolved);
+                addOrgName(resolved.org, resolved.name);
+                journal(asn, resolved);
+                return resolved.org;
+            } catch (IOException | InterruptedException e) {
+                failures.increment();
+                System.out.println("WHOIS query failed for AS" + Asns.toString(asn) + ": " + e.getMessage());
+                // Fall back to the expired entry, failures are not cached
+                return entry != null ? entry.org : "";
+            } finally {
+                pending.remove(asn);
+            }
+        }, rirPools.computeIfAbsent(rirName, r -> Executors.newFixedThreadPool(threadsPerRir))));
+    }
+
+    /**
+     * @return CacheEntry The organization identifier of the ASN and the name of the organization
+     */
+    private CacheEntry query(int asn, String rirName) throws IOException, InterruptedException {
+        String whoisRir = whoisRirName(rirName);
+        throttle(whoisRir);
+        String host = serverHost != null ? serverHost : "whois." + whoisRir + ".net";
+        String whoisResponse = wp.queryWhois("AS" + Asns.toString(asn), host, serverPort);
+
+        HashMap<String, ArrayList<String>> asnIdentifiers = wp.parseWhois(whoisResponse, whoisRir);
+        String org = "";
+        TreeMap<Integer, String> fields = orderedRirFields.get(whoisRir);
+        if (fields != null) {
+            for (String tag: fields.values()) {
+                if (asnIdentifiers.containsKey(tag)) {
+                    org = asnIdentifiers.get(tag).get(0);
+                    break;
+                }
+            }
+        }
+        String nameField = wp.orgNameField(whoisRir);
+        String name = nameField != null && asnIdentifiers.containsKey(nameField)
+                ? asnIdentifiers.get(nameField).get(0) : "";
+
+        return new CacheEntry(org, System.currentTimeMillis(), name);
+    }
+
+    /**
+     * Resolves all the ASNs of a RIR from the ASN to organization mapping of its bulk WHOIS dump
+     * @param rirName The name of the RIR in input/rirFields.txt
+     * @param asnOrg The mapping read with {@link WhoisParser#readBulkDump}
+     */
+    public void addBulkIndex(String rirName, AsnRangeIndex asnOrg) {
+        bulkIndexes.put(rirName, asnOrg);
+    }
+
+    /**
+     * Adds the names of organization identifiers, e.g. of the organization objects of a bulk WHOIS dump
+     * @param names The name of each organization identifier
+     */
+    public void addOrgNames(Map<String, String> names) {
+        for (Map.Entry<String, String> name: names.entrySet()) {
+            addOrgName(name.getKey(), name.getValue());
+        }
+    }
+
+    /**
+     * @param asnOrgs The organization identifier of each ASN
+     * @return Map<Integer, String> The name of the organization of each ASN whose identifier has a known name
+     */
+    public Map<Integer, String> orgNames(Map<Integer, String> asnOrgs) {
+        Map<Integer, String> asnNames = new HashMap<>();
+        for (Map.Entry<Integer, String> asnOrg: asnOrgs.entrySet()) {
+            String name = orgNames.get(asnOrg.getValue());
+            if (name != null)
+                asnNames.put(asnOrg.getKey(), name);
+        }
+
+        return asnNames;
+    }
+
+    private void addOrgName(String org, String name) {
+        if (!org.isEmpty() && !name.isEmpty())
+            orgNames.put(org, name);
+    }
+
+    /**
+     * Adds the number of WHOIS queries issued and failed and of the lookups answered from the cache
+     * and the bulk dumps to the run metrics
+     * @param metrics The metrics of the run
+     */
+    public void reportMetrics(RunMetrics metrics) {
+        metrics.count("whois_queries", queries.sum());
+        metrics.count("whois_failed_queries", failures.sum());
+        metrics.count("whois_cache_hits", cacheHits.sum());
+        metrics.count("whois_bulk_dump_hits", bulkHits.sum());
+    }
+
+    /**
+     * @return String The name of the RIR in input/rirFields.txt and in its WHOIS server name
+     */
+    private static String whoisRirName(String rirName) {
+        return rirName.equals("ripencc") ? "ripe" : rirName;
+    }
+
+    /**
+     * Waits until the next query slot of the RIR, so that queries are at least queryIntervalMillis apart
+     */
+    private void throttle(String rirName) throws InterruptedException {
+        long[] nextQuery = rirNextQuery.computeIfAbsent(rirName, k -> new long[1]);
+        long wait;
+        synchronized (nextQuery) {
+            long now = System.currentTimeMillis();
+            long slot = Math.max(now, nextQuery[0]);
+            nextQuery[0] = slot + queryIntervalMillis;
+            wait = slot - now;
+        }
+        if (wait > 0)
+            Thread.sleep(wait);
+    }
+
+    private void loadCache() throws IOException {
+        if (!Files.exists(cacheFile))
+            return;
+
+        // The entries appended after the last compaction replace the earlier entries of their ASN,
+        // and the last line may be cut short by a failed run. The name of the organization is a fourth
+        // field that the entries of earlier versions do not have.
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lf = line.split("\t");
+                try {
+                    if (lf.length == 3 || lf.length == 4) {
+                        CacheEntry entry = new CacheEntry(lf[1], Long.parseLong(lf[2]), lf.length == 4 ? lf[3] : "");
+                        cache.put(Integer.parseUnsignedInt(lf[0]), entry);
+                        addOrgName(entry.org, entry.name);
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring malformed WHOIS cache entry: " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a resolved organization to the cache file, flushing every JOURNAL_BATCH entries.
+     * A failed append only loses the entry for a rerun, so it is reported without failing the lookup.
+     */
+    private synchronized void journal(int asn, CacheEntry entry) {
+        if (closed)
+            return;
+        try {
+            if (journal == null) {
+                // Start on a new line if the last line was cut short
+                boolean newLine = false;
+                if (Files.exists(cacheFile) && Files.size(cacheFile) > 0) {
+                    try (RandomAccessFile file = new RandomAccessFile(cacheFile.toFile(), "r")) {
+                        file.seek(file.length() - 1);
+                        newLine = file.read() != '\n';
+                    }
+                }
+                journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile.toFile(), true),
+                        StandardCharsets.UTF_8));
+                if (newLine)
+                    journal.write('\n');
+            }
+            journal.write(cacheLine(asn, entry));
+            if (++journalPending >= JOURNAL_BATCH) {
+                journal.flush();
+                journalPending = 0;
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to append AS" + Asns.toString(asn) + " to the WHOIS cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Persists the cache of resolved organizations
+     * @throws IOException When the cache file cannot be written
+     */
+    public void saveCache() throws IOException {
+        Path tmp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), "whois-cache", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, CacheEntry> entry: cache.entrySet()) {
+                writer.write(cacheLine(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return String The line of the cache file of an entry, asn, organization, timestamp and the name if it has one
+     */
+    private static String cacheLine(int asn, CacheEntry entry) {
+        String line = Asns.toString(asn) + "\t" + entry.org.replaceAll("[\t\r\n]", " ") + "\t" + entry.timestamp;
+        if (!entry.name.isEmpty())
+            line += "\t" + entry.name.replaceAll("[\t\r\n]", " ");
+        return line + "\n";
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ExecutorService pool: rirPools.values()) {
+            pool.shutdown();
+        }
+        synchronized (this) {
+            closed = true;
+            if (journal != null)
+                journal.close();
+            journal = null;
+        }
+        saveCache();
+    }
+}
@@ -0,0 +1,311 @@
+package com.vgiotsas;
+
+import org.apache.commons.net.whois.WhoisClient;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.zip.GZIPInputStream;
+
+public class WhoisParser {
+
+    private static final int WHOIS_TIMEOUT = 30000;
+    private static final long MAX_ASN = 0xFFFFFFFFL;
+    private static final byte[] AUT_NUM = ByteLineTokenizer.ascii("aut-num");
+    private static final byte[] AS_HANDLE = ByteLineTokenizer.ascii("ashandle");
+    private static final byte[] AS_NUMBER = ByteLineTokenizer.ascii("asnumber");
+    private static final byte[] ORG = ByteLineTokenizer.ascii("org");
+
+    private HashMap<String, ArrayList<String>> rirFields = new HashMap<>();
+
+    private HashMap<String, TreeMap<Integer, String>> orderedRirFields = new HashMap<>();
+
+    public WhoisParser(){
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new FileReader("input/rirFields.txt"));
+            String line = reader.readLine();
+            while (line != null) {
+                String[] lf = line.split(",");
+                if (lf.length == 3 && !lf[0].startsWith("#")){
+                    if (!rirFields.containsKey(lf[0])){
+                        rirFields.put(lf[0], new ArrayList<>());
+                        orderedRirFields.put(lf[0], new TreeMap<>());
+                    }
+                    rirFields.get(lf[0]).add(lf[1]);
+                    orderedRirFields.get(lf[0]).put(Integer.parseInt(lf[2]), lf[1]);
+                }
+                // read next line
+                line = reader.readLine();
+            }
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public String queryWhois(String query, String hostName) {
+
+        StringBuilder result = new StringBuilder();
+
+        try {
+            result.append(queryWhois(query, hostName, WhoisClient.DEFAULT_PORT));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return result.toString();
+
+    }
+
+    public String queryWhois(String query, String hostName, int port) throws IOException {
+        WhoisClient whois = new WhoisClient();
+        whois.setDefaultTimeout(WHOIS_TIMEOUT);
+        whois.connect(hostName, port);
+        try {
+            whois.setSoTimeout(WHOIS_TIMEOUT);
+            return whois.query(query);
+        } finally {
+            whois.disconnect();
+        }
+    }
+
+    public HashMap<Integer, String> readWhoisAutNum(String autNumDump) throws IOException {
+        return readWhoisAutNum(autNumDump, asn -> true);
+    }
+
+    /**
+     * Reads the organization of the wanted ASNs from the aut-num objects of the RIPE split dump, so that the map
+     * grows with the wanted ASNs rather than with the dump
+     * @param autNumDump The path of the gzipped aut-num dump
+     * @param wanted The ASNs whose organization is kept
+     * @return HashMap<Integer, String> The organization of each wanted ASN of the dump
+     * @throws IOException When reading the dump fails
+     */
+    public HashMap<Integer, String> readWhoisAutNum(String autNumDump, IntPredicate wanted) throws IOException {
+        HashMap<Integer, String> asnOrg = new HashMap<>();
+        GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(autNumDump), 65536);
+        ByteLineTokenizer lines = new ByteLineTokenizer(gzip);
+        int asn = 0;
+        while (lines.nextLine())
+        {
+            int fields = lines.split(':', 0);
+            if (lines.fieldStartsWithIgnoreCase(0, AUT_NUM)){
+                // An aut-num line without a value or with a malformed ASN is skipped with its org
+                long value = fields > 1 ? lines.fieldAsLong(1) : -1;
+                asn = value > 0 && value <= MAX_ASN && wanted.test((int) value) ? (int) value : 0;
+            }
+            else if(fields > 1 && lines.fieldStartsWithIgnoreCase(0, ORG) && asn != 0){
+                asnOrg.put(asn, lines.fieldAsString(1));
+                asn = 0;
+            }
+        }
+        gzip.close();
+
+        return asnOrg;
+    }
+
+    /**
+     * Reads a bulk WHOIS dump of a RIR and maps each ASN range to its organization identifier in a single pass.
+     * The dump is a sequence of RPSL objects (or ARIN bulk WHOIS records) separated by blank lines,
+     * optionally gzipped. For each aut-num object the identifier is the value of the first field configured
+     * for the RIR in input/rirFields.txt, so that the result matches a live query parsed with parseWhois.
+     * Other objects, such as organisation and mntner, are skipped. The ranges are kept as ranges, since the ARIN
+     * dump has reserved blocks of tens of millions of ASNs.
+     * @param dumpPath The path of the dump
+     * @param rirName The name of the RIR in input/rirFields.txt
+     * @return AsnRangeIndex The built index of the ASN ranges and their organization identifiers
+     * @throws IOException When reading the dump fails
+     */
+    public AsnRangeIndex readBulkDump(String dumpPath, String rirName) throws IOException {
+        return readBulkDump(dumpPath, rirName, null);
+    }
+
+    /**
+     * Reads a bulk WHOIS dump like {@link #readBulkDump(String, String)}, and in the same pass maps the handle of each
+     * organization object of the dump, such as an RPSL organisation or an ARIN Org record, to its name
+     * @param dumpPath The path of the dump
+     * @param rirName The name of the RIR in input/rirFields.txt
+     * @param orgNames The map where the name of each organization handle is put, or null to skip the names
+     * @return AsnRangeIndex The built index of the ASN ranges and their organization identifiers
+     * @throws IOException When reading the dump fails
+     */
+    public AsnRangeIndex readBulkDump(String dumpPath, String rirName, Map<String, String> orgNames) throws IOException {
+        AsnRangeIndex asnOrg = new AsnRangeIndex();
+        readDump(dumpPath, rirName, asnOrg, orgNames, null);
+        asnOrg.build();
+
+        return asnOrg;
+    }
+
+    /**
+     * Reads only the names of the wanted organization handles of a bulk WHOIS dump, e.g. in a second pass over
+     * the dump once the organizations of the ASNs are resolved, so that the map grows with the wanted handles
+     * rather than with the dump
+     * @param dumpPath The path of the dump
+     * @param rirName The name of the RIR in input/rirFields.txt
+     * @param handles The organization handles whose names are read
+     * @param orgNames The map where the name of each wanted handle is put
+     * @throws IOException When reading the dump fails
+     */
+    public void readOrgNames(String dumpPath, String rirName, Set<String> handles, Map<String, String> orgNames)
+            throws IOException {
+        readDump(dumpPath, rirName, null, orgNames, handles);
+    }
+
+    /**
+     * Reads the objects of a bulk WHOIS dump
+     * @param asnOrg The index where the ASN ranges are added, or null to skip them
+     * @param orgNames The map where the organization names are put, or null to skip them
+     * @param handles The handles whose names are put, or null for all of them
+     */
+    private void readDump(String dumpPath, String rirName, AsnRangeIndex asnOrg, Map<String, String> orgNames,
+                          Set<String> handles) throws IOException {
+        String nameField = orgNameField(rirName);
+        byte[] nameFieldName = nameField != null ? ByteLineTokenizer.ascii(nameField.toLowerCase()) : null;
+        // Field names are compared case-insensitively, e.g. the ARIN bulk dump uses OrgID instead of OrgId
+        ArrayList<byte[]> fieldNames = new ArrayList<>();
+        if (orderedRirFields.containsKey(rirName)) {
+            for (String field: orderedRirFields.get(rirName).values()) {
+                fieldNames.add(ByteLineTokenizer.ascii(field.toLowerCase()));
+            }
+        }
+
+        InputStream in = new FileInputStream(dumpPath);
+        if (dumpPath.endsWith(".gz"))
+            in = new GZIPInputStream(in, 65536);
+        try (InputStream dump = in) {
+            ByteLineTokenizer lines = new ByteLineTokenizer(dump);
+            long firstAsn = -1;
+            long lastAsn = -1;
+            String org = null;
+            int orgRank = Integer.MAX_VALUE;
+            // The value of the first attribute of the object, its handle, and the name of the organization
+            String handle = null;
+            String name = null;
+            while (lines.nextLine()) {
+                if (lines.lineLength() == 0) {
+                    // End of object
+                    if (asnOrg != null && org != null && firstAsn >= 0 && lastAsn <= MAX_ASN)
+                        asnOrg.add(firstAsn, lastAsn, org);
+                    if (orgNames != null && handle != null && name != null
+                            && (handles == null || handles.contains(handle)))
+                        orgNames.put(handle, name);
+                    firstAsn = -1;
+                    lastAsn = -1;
+                    org = null;
+                    orgRank = Integer.MAX_VALUE;
+                    handle = null;
+                    name = null;
+                    continue;
+                }
+                // Skip comments and continuation lines
+                int first = lines.firstByte();
+                if (first == '%' || first == '#' || first == ' ' || first == '\t' || first == '+')
+                    continue;
+                if (lines.split(':', 2) < 2)
+                    continue;
+                if (orgNames != null) {
+                    if (handle == null)
+                        handle = lines.fieldAsString(1);
+                    else if (nameFieldName != null && lines.fieldEqualsIgnoreCase(0, nameFieldName))
+                        name = lines.fieldAsString(1);
+                }
+
+                if (asnOrg == null)
+                    continue;
+                if (lines.fieldEqualsIgnoreCase(0, AUT_NUM) || lines.fieldEqualsIgnoreCase(0, AS_HANDLE)
+                        || lines.fieldEqualsIgnoreCase(0, AS_NUMBER)) {
+                    long[] range = parseAsnRange(lines.fieldAsString(1));
+                    if (range != null) {
+                        firstAsn = range[0];
+                        lastAsn = range[1];
+                    }
+                }
+                // Only the fields of a higher rank than the current identifier are materialized
+                for (int rank = 0; rank < Math.min(orgRank, fieldNames.size()); rank++) {
+                    if (lines.fieldEqualsIgnoreCase(0, fieldNames.get(rank))) {
+                        String value = lines.fieldAsString(1);
+                        if (value.length() > 0) {
+                            org = value;
+                            orgRank = rank;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (asnOrg != null && org != null && firstAsn >= 0 && lastAsn <= MAX_ASN)
+                asnOrg.add(firstAsn, lastAsn, org);
+            if (orgNames != null && handle != null && name != null && (handles == null || handles.contains(handle)))
+                orgNames.put(handle, name);
+        }
+    }
+
+    /**
+     * Parses an ASN such as "AS123" or "123", or an ARIN range such as "123 - 125"
+     * @return long[] The first and last ASN of the range, or null if the value is not an ASN
+     */
+    private static long[] parseAsnRange(String value) {
+        String[] bounds = value.trim().split("\\s*-\\s*");
+        try {
+            long first = Long.parseLong(bounds[0].replaceFirst("^(?i)AS", ""));
+            long last = bounds.length > 1 ? Long.parseLong(bounds[1].replaceFirst("^(?i)AS", "")) : first;
+            return last >= first ? new long[]{first, last} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public HashMap<String, ArrayList<String>> parseWhois(String whoisText, String rirName) throws IOException {
+        // Flag to skip whois sections related to the RIR
+        boolean parseField = false;
+        HashMap<String, ArrayList<String>> orgIdentifiers = new HashMap<>();
+        if (rirFields.containsKey(rirName)) {
+            ArrayList<String> fields = rirFields.get(rirName);
+            ArrayList<byte[]> fieldNames = new ArrayList<>();
+            for (String field: fields) {
+                fieldNames.add(ByteLineTokenizer.ascii(field));
+            }
+            ByteLineTokenizer lines = new ByteLineTokenizer(
+                    new ByteArrayInputStream(whoisText.trim().getBytes("UTF-8")), 8192);
+            while (lines.nextLine())
+            {
+                int fieldCount = lines.split(':', 0);
+                if (lines.fieldEqualsIgnoreCase(0, AUT_NUM) || lines.fieldEqualsIgnoreCase(0, AS_NUMBER))
+                    parseField = true;
+
+                if (fieldCount > 1 && parseField){
+                    for (int i = 0; i < fields.size(); i++) {
+                        if (lines.fieldEquals(0, fieldNames.get(i))) {
+                            orgIdentifiers.computeIfAbsent(fields.get(i), k -> new ArrayList<>())
+                                    .add(lines.fieldAsString(1));
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return orgIdentifiers;
+    }
+
+    /**
+     * The identifier of the organization of an ASN is the first field of its RIR in input/rirFields.txt, a handle
+     * such as an ARIN OrgId or a RIPE org, and the second field is the name of that organization, e.g. OrgName
+     * @param rirName The name of the RIR in input/rirFields.txt
+     * @return String The field of the organization name, or null if the RIR has no such field
+     */
+    public String orgNameField(String rirName) {
+        TreeMap<Integer, String> fields = orderedRirFields.get(rirName);
+        return fields != null ? fields.get(2) : null;
+    }
+
+    public HashMap<String, TreeMap<Integer, String>> getOrderedRirFields() {
+        return orderedRirFields;
+    }
+}